@@ -0,0 +1,78 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.pwsafe.lib.exception.PasswordSafeException;
+
+/**
+ * Benchmarks of the BlowfishPws and BlowfishPwsECB ciphers used by V1 and V2
+ * files.  Both encrypt and decrypt the payload in place.
+ */
+@State(Scope.Thread)
+public class BlowfishBenchmark
+{
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private byte[] itsPayload;
+    private BlowfishPws itsCBC;
+    private BlowfishPwsECB itsECB;
+
+    @Setup
+    public void setup()
+        throws PasswordSafeException
+    {
+        Random rand = new Random(0);
+        byte[] key = new byte[20];
+        rand.nextBytes(key);
+        itsPayload = new byte[size];
+        rand.nextBytes(itsPayload);
+
+        itsCBC = new BlowfishPws(key, rand.nextLong());
+        itsECB = new BlowfishPwsECB(key);
+    }
+
+    @Benchmark
+    public byte[] encryptCBC()
+        throws PasswordSafeException
+    {
+        itsCBC.encrypt(itsPayload);
+        return itsPayload;
+    }
+
+    @Benchmark
+    public byte[] decryptCBC()
+        throws PasswordSafeException
+    {
+        itsCBC.decrypt(itsPayload);
+        return itsPayload;
+    }
+
+    @Benchmark
+    public byte[] encryptECB()
+        throws PasswordSafeException
+    {
+        itsECB.encrypt(itsPayload);
+        return itsPayload;
+    }
+
+    @Benchmark
+    public byte[] decryptECB()
+        throws PasswordSafeException
+    {
+        itsECB.decrypt(itsPayload);
+        return itsPayload;
+    }
+}
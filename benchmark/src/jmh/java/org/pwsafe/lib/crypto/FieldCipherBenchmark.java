@@ -0,0 +1,91 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SealedObject;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of protecting a password held in memory with the field cipher
+ * compared with the SealedObject it replaced
+ */
+@State(Scope.Thread)
+public class FieldCipherBenchmark
+{
+    @Param({"12", "64"})
+    public int length;
+
+    private FieldCipher itsCipher;
+    private String itsValue;
+    private byte[] itsSealed;
+    private Cipher itsReadCipher;
+    private Cipher itsWriteCipher;
+    private SealedObject itsSealedObject;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        Random rand = new Random(0);
+        byte[] key = new byte[16];
+        rand.nextBytes(key);
+        byte[] iv = new byte[16];
+        rand.nextBytes(iv);
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            value.append((char)('!' + rand.nextInt(94)));
+        }
+        itsValue = value.toString();
+
+        itsCipher = new FieldCipher(key);
+        itsSealed = itsCipher.seal(itsValue);
+
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        itsReadCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        itsReadCipher.init(Cipher.DECRYPT_MODE, keySpec,
+                           new IvParameterSpec(iv));
+        itsWriteCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        itsWriteCipher.init(Cipher.ENCRYPT_MODE, keySpec,
+                            new IvParameterSpec(iv));
+        itsSealedObject = new SealedObject(itsValue, itsWriteCipher);
+    }
+
+    @Benchmark
+    public byte[] sealFieldCipher()
+    {
+        return itsCipher.seal(itsValue);
+    }
+
+    @Benchmark
+    public String openFieldCipher()
+    {
+        return itsCipher.openString(itsSealed);
+    }
+
+    @Benchmark
+    public SealedObject sealSealedObject() throws Exception
+    {
+        return new SealedObject(itsValue, itsWriteCipher);
+    }
+
+    @Benchmark
+    public Object openSealedObject() throws Exception
+    {
+        return itsSealedObject.getObject(itsReadCipher);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the HmacPws MAC.  The payload is fed in field-sized chunks,
+ * as the V3 file reader hashes each field value separately.  The payload
+ * benchmark decrypts and hashes the fields as a V3 record payload, including
+ * the cipher's key setup.
+ */
+@State(Scope.Thread)
+public class HmacBenchmark
+{
+    static {
+        System.loadLibrary("PasswdSafe");
+    }
+
+    @Param({"bouncycastle", "native"})
+    public String impl;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    @Param({"16", "256"})
+    public int fieldSize;
+
+    private HmacPws itsHmac;
+    private byte[][] itsFields;
+    private byte[] itsKey;
+    private byte[] itsPayload;
+    private byte[] itsOutput;
+
+    @Setup
+    public void setup()
+    {
+        NativeCrypto.setEnabled(impl.equals("native"));
+        if (impl.equals("native") && !NativeCrypto.isAvailable()) {
+            throw new IllegalStateException("Native crypto not available");
+        }
+
+        Random rand = new Random(0);
+        byte[] key = new byte[32];
+        rand.nextBytes(key);
+        itsHmac = new HmacPws(key);
+
+        itsFields = new byte[size / fieldSize][fieldSize];
+        for (byte[] field: itsFields) {
+            rand.nextBytes(field);
+        }
+
+        // V3 payload of the fields, each in a 5-byte header and padded to
+        // whole blocks
+        int fieldLen = ((fieldSize + 5 + 15) / 16) * 16;
+        byte[] plain = new byte[itsFields.length * fieldLen];
+        for (int i = 0; i < itsFields.length; ++i) {
+            int pos = i * fieldLen;
+            plain[pos] = (byte)fieldSize;
+            plain[pos + 1] = (byte)(fieldSize >> 8);
+            System.arraycopy(itsFields[i], 0, plain, pos + 5, fieldSize);
+        }
+        byte[] iv = new byte[16];
+        itsPayload = new byte[plain.length];
+        new TwofishPws(key, true, iv).processCBC(plain, 0, plain.length,
+                                                 itsPayload, 0);
+        itsOutput = new byte[plain.length];
+        itsKey = key;
+    }
+
+    @Benchmark
+    public byte[] digest()
+    {
+        for (byte[] field: itsFields) {
+            itsHmac.digest(field);
+        }
+        return itsHmac.doFinal();
+    }
+
+    @Benchmark
+    public byte[] digestPayloadV3()
+    {
+        // A new cipher restarts the CBC chain for each payload
+        TwofishPws cipher = new TwofishPws(itsKey, false, new byte[16]);
+        return cipher.decryptPayloadV3(itsHmac, itsPayload, 0,
+                                       itsPayload.length, itsOutput, 0);
+    }
+
+    @Benchmark
+    public byte[] doFinal()
+    {
+        return itsHmac.doFinal();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the in-house SHA1 digest used by V1 and V2 files
+ */
+@State(Scope.Thread)
+public class SHA1Benchmark
+{
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private SHA1 itsSha1;
+    private byte[] itsPayload;
+
+    @Setup
+    public void setup()
+    {
+        itsSha1 = new SHA1();
+        itsPayload = new byte[size];
+        new Random(0).nextBytes(itsPayload);
+    }
+
+    @Benchmark
+    public byte[] digest()
+    {
+        itsSha1.reset();
+        itsSha1.update(itsPayload, 0, itsPayload.length);
+        itsSha1.finalize();
+        return itsSha1.getDigest();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the SHA256Pws key stretching and digest.  On the desktop JVM
+ * digestN uses the Java implementation; digestNBouncyCastle is the previous
+ * per-round BouncyCastle loop and digestNNative the JNI library for
+ * comparison.
+ */
+@State(Scope.Thread)
+public class SHA256Benchmark
+{
+    static {
+        System.loadLibrary("PasswdSafe");
+    }
+
+    @Param({"2048", "16384", "262144"})
+    public int iter;
+
+    @Param({"32", "1024"})
+    public int size;
+
+    private byte[] itsPayload;
+
+    @Setup
+    public void setup()
+    {
+        itsPayload = new byte[size];
+        new Random(0).nextBytes(itsPayload);
+    }
+
+    @Benchmark
+    public byte[] digestN()
+    {
+        return SHA256Pws.digestN(itsPayload, iter);
+    }
+
+    @Benchmark
+    public byte[] digestNBouncyCastle()
+    {
+        return SHA256Pws.digestNBouncyCastle(itsPayload, iter);
+    }
+
+    @Benchmark
+    public byte[] digestNNative()
+    {
+        return SHA256Pws.digestNNative(itsPayload, iter);
+    }
+
+    @Benchmark
+    public byte[] digest()
+    {
+        return SHA256Pws.digest(itsPayload);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the TwofishPws cipher.  The CBC benchmarks process the
+ * payload either one block at a time into new arrays, or as a single run of
+ * blocks into a reused buffer.
+ */
+@State(Scope.Thread)
+public class TwofishBenchmark
+{
+    static {
+        System.loadLibrary("PasswdSafe");
+    }
+
+    @Param({"bouncycastle", "native"})
+    public String impl;
+
+    private static final int BLOCK_SIZE = 16;
+
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private byte[] itsKey;
+    private byte[] itsPayload;
+    private byte[][] itsBlocks;
+    private byte[] itsOutput;
+    private TwofishPws itsEncrypt;
+    private TwofishPws itsDecrypt;
+
+    @Setup
+    public void setup()
+    {
+        NativeCrypto.setEnabled(impl.equals("native"));
+        if (impl.equals("native") && !NativeCrypto.isAvailable()) {
+            throw new IllegalStateException("Native crypto not available");
+        }
+
+        Random rand = new Random(0);
+        itsKey = new byte[32];
+        rand.nextBytes(itsKey);
+        byte[] iv = new byte[BLOCK_SIZE];
+        rand.nextBytes(iv);
+
+        itsPayload = new byte[size];
+        rand.nextBytes(itsPayload);
+        itsBlocks = new byte[size / BLOCK_SIZE][BLOCK_SIZE];
+        for (int i = 0; i < itsBlocks.length; ++i) {
+            System.arraycopy(itsPayload, i * BLOCK_SIZE,
+                             itsBlocks[i], 0, BLOCK_SIZE);
+        }
+
+        itsOutput = new byte[size];
+
+        itsEncrypt = new TwofishPws(itsKey, true, iv);
+        itsDecrypt = new TwofishPws(itsKey, false, iv);
+    }
+
+    @Benchmark
+    public void encryptCBC(Blackhole bh)
+    {
+        for (byte[] block: itsBlocks) {
+            bh.consume(itsEncrypt.processCBC(block));
+        }
+    }
+
+    @Benchmark
+    public void decryptCBC(Blackhole bh)
+    {
+        for (byte[] block: itsBlocks) {
+            bh.consume(itsDecrypt.processCBC(block));
+        }
+    }
+
+    @Benchmark
+    public byte[] encryptCBCBulk()
+    {
+        itsEncrypt.processCBC(itsPayload, 0, size, itsOutput, 0);
+        return itsOutput;
+    }
+
+    @Benchmark
+    public byte[] decryptCBCBulk()
+    {
+        itsDecrypt.processCBC(itsPayload, 0, size, itsOutput, 0);
+        return itsOutput;
+    }
+
+    @Benchmark
+    public byte[] encryptECB()
+    {
+        return TwofishPws.processECB(itsKey, true, itsPayload);
+    }
+
+    @Benchmark
+    public byte[] decryptECB()
+    {
+        return TwofishPws.processECB(itsKey, false, itsPayload);
+    }
+}
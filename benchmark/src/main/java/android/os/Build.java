@@ -0,0 +1,18 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package android.os;
+
+/**
+ * Stub of the Android Build class for running the library on a desktop JVM.
+ * The Chromium brand selects the Java key stretching in SHA256Pws as the
+ * native library isn't available.
+ */
+public class Build
+{
+    public static final String BRAND = "chromium";
+}
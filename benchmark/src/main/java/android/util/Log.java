@@ -0,0 +1,32 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package android.util;
+
+/**
+ * Stub of the Android Log class for running the library on a desktop JVM
+ */
+public class Log
+{
+    public static int e(String tag, String msg)
+    {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr)
+    {
+        System.err.println(tag + ": " + msg + ": " + tr);
+        return 0;
+    }
+
+    public static int w(String tag, String msg)
+    {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Equivalence tests of the native Twofish and HMAC implementations against
+ * BouncyCastle, run against the host build of the JNI library
+ */
+public class NativeCryptoTest
+{
+    static {
+        System.loadLibrary("PasswdSafe");
+    }
+
+    private final Random itsRand = new Random(0);
+
+    @After
+    public void tearDown()
+    {
+        NativeCrypto.setEnabled(true);
+    }
+
+    /** Test a known answer from the Twofish specification */
+    @Test
+    public void testTwofishKnownAnswer()
+    {
+        assertTrue(NativeCrypto.isAvailable());
+        long ctx = NativeCrypto.newTwofish(new byte[32]);
+        byte[] out = new byte[16];
+        try {
+            NativeCrypto.twofishCBC(ctx, new byte[16], true,
+                                    new byte[16], 0, 16, out, 0);
+        } finally {
+            NativeCrypto.twofishFree(ctx);
+        }
+        assertArrayEquals(fromHex("57FF739D4DC92C1BD7FC01700CC8216F"), out);
+    }
+
+    /** Test CBC encryption and decryption across keys and lengths */
+    @Test
+    public void testTwofishCBC()
+    {
+        for (int keyLen: new int[] { 16, 24, 32 }) {
+            for (int blocks = 1; blocks < 40; blocks += 3) {
+                byte[] key = randomBytes(keyLen);
+                byte[] iv = randomBytes(16);
+                byte[] data = randomBytes(blocks * 16);
+
+                byte[] bcEnc = process(false, key, true, iv, data);
+                byte[] natEnc = process(true, key, true, iv, data);
+                assertArrayEquals(bcEnc, natEnc);
+
+                byte[] bcDec = process(false, key, false, iv, bcEnc);
+                byte[] natDec = process(true, key, false, iv, natEnc);
+                assertArrayEquals(data, bcDec);
+                assertArrayEquals(data, natDec);
+            }
+        }
+    }
+
+    /** Test CBC chaining across calls and in place processing */
+    @Test
+    public void testTwofishCBCChained()
+    {
+        byte[] key = randomBytes(32);
+        byte[] iv = randomBytes(16);
+        byte[] data = randomBytes(20 * 16);
+        byte[] expected = process(false, key, true, iv, data);
+
+        TwofishPws cipher = new TwofishPws(key, true, iv);
+        byte[] buf = data.clone();
+        cipher.processCBC(buf, 0, 48, buf, 0);
+        cipher.processCBC(buf, 48, buf.length - 48, buf, 48);
+        assertArrayEquals(expected, buf);
+    }
+
+    /** Test the HMAC with data fed in pieces of varying sizes */
+    @Test
+    public void testHmac()
+    {
+        for (int keyLen: new int[] { 16, 32, 64, 100 }) {
+            byte[] key = randomBytes(keyLen);
+            NativeCrypto.setEnabled(false);
+            HmacPws bc = new HmacPws(key);
+            NativeCrypto.setEnabled(true);
+            HmacPws nat = new HmacPws(key);
+
+            for (int msg = 0; msg < 3; ++msg) {
+                byte[] data = randomBytes(1000);
+                int pos = 0;
+                while (pos < data.length) {
+                    int len = Math.min(itsRand.nextInt(150),
+                                       data.length - pos);
+                    bc.digest(data, pos, len);
+                    nat.digest(data, pos, len);
+                    pos += len;
+                }
+                assertArrayEquals(bc.doFinal(), nat.doFinal());
+            }
+        }
+    }
+
+    /** Test that a cleared cipher or MAC can't be used */
+    @Test(expected = IllegalStateException.class)
+    public void testCleared()
+    {
+        TwofishPws cipher = new TwofishPws(randomBytes(32), true,
+                                           randomBytes(16));
+        cipher.clear();
+        cipher.clear();
+        HmacPws hmac = new HmacPws(randomBytes(32));
+        hmac.clear();
+        hmac.digest(new byte[16]);
+    }
+
+    /**
+     * Test decrypting and authenticating a V3 payload which is longer than
+     * the chunks copied to the native code, so fields span chunks
+     */
+    @Test
+    public void testDecryptPayloadV3()
+    {
+        byte[] key = randomBytes(32);
+        byte[] hmacKey = randomBytes(32);
+        byte[] iv = randomBytes(16);
+        byte[] payload = makePayload(2000);
+        byte[] encrypted = process(false, key, true, iv, payload);
+
+        byte[][] digests = new byte[2][];
+        for (int i = 0; i < 2; ++i) {
+            NativeCrypto.setEnabled(i == 1);
+            TwofishPws cipher = new TwofishPws(key, false, iv);
+            HmacPws hmac = new HmacPws(hmacKey);
+            byte[] out = new byte[encrypted.length + 7];
+            digests[i] = cipher.decryptPayloadV3(hmac, encrypted, 0,
+                                                 encrypted.length, out, 7);
+            assertArrayEquals(payload,
+                              Arrays.copyOfRange(out, 7, out.length));
+        }
+        assertArrayEquals(digests[0], digests[1]);
+
+        // Field values hashed separately must match
+        NativeCrypto.setEnabled(false);
+        HmacPws hmac = new HmacPws(hmacKey);
+        int pos = 0;
+        while (pos < payload.length) {
+            int len = (payload[pos] & 0xff) | ((payload[pos + 1] & 0xff) << 8);
+            hmac.digest(payload, pos + 5, len);
+            pos += ((len + 5 + 15) / 16) * 16;
+        }
+        assertArrayEquals(hmac.doFinal(), digests[0]);
+    }
+
+    /** Test a V3 payload whose field runs past its end */
+    @Test
+    public void testDecryptPayloadV3Invalid()
+    {
+        byte[] key = randomBytes(32);
+        byte[] iv = randomBytes(16);
+        byte[] fields = makePayload(10);
+        byte[] payload = Arrays.copyOf(fields, fields.length + 16);
+        payload[fields.length] = 100;
+        byte[] encrypted = process(false, key, true, iv, payload);
+
+        for (int i = 0; i < 2; ++i) {
+            NativeCrypto.setEnabled(i == 1);
+            TwofishPws cipher = new TwofishPws(key, false, iv);
+            HmacPws hmac = new HmacPws(randomBytes(32));
+            byte[] out = new byte[encrypted.length];
+            assertNull(cipher.decryptPayloadV3(hmac, encrypted, 0,
+                                               encrypted.length, out, 0));
+        }
+    }
+
+    /** Process data with a new cipher */
+    private static byte[] process(boolean useNative, byte[] key,
+                                  boolean encrypt, byte[] iv, byte[] data)
+    {
+        NativeCrypto.setEnabled(useNative);
+        TwofishPws cipher = new TwofishPws(key, encrypt, iv);
+        NativeCrypto.setEnabled(true);
+        byte[] out = new byte[data.length];
+        cipher.processCBC(data, 0, data.length, out, 0);
+        return out;
+    }
+
+    /** Make a payload of fields with random lengths and values */
+    private byte[] makePayload(int numFields)
+    {
+        byte[] payload = new byte[0];
+        for (int i = 0; i < numFields; ++i) {
+            int len = itsRand.nextInt(i % 10 == 0 ? 2000 : 40);
+            byte[] field = randomBytes(((len + 5 + 15) / 16) * 16);
+            field[0] = (byte)len;
+            field[1] = (byte)(len >> 8);
+            field[2] = 0;
+            field[3] = 0;
+            int pos = payload.length;
+            payload = Arrays.copyOf(payload, pos + field.length);
+            System.arraycopy(field, 0, payload, pos, field.length);
+        }
+        return payload;
+    }
+
+    private byte[] randomBytes(int len)
+    {
+        byte[] bytes = new byte[len];
+        itsRand.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] fromHex(String hex)
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte)Integer.parseInt(
+                    hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
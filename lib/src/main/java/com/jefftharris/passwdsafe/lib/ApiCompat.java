@@ -135,7 +135,7 @@ public final class ApiCompat
     /**
      * Copy text to the clipboard
      */
-    public static void copyToClipboard(String str, Context ctx)
+    public static void copyToClipboard(CharSequence str, Context ctx)
     {
         if (SDK_VERSION >= SDK_HONEYCOMB) {
             ApiCompatHoneycomb.copyToClipboard(str, ctx);
@@ -32,7 +32,7 @@ public final class ApiCompatHoneycomb
     /**
      * Copy text to the clipboard
      */
-    public static void copyToClipboard(String str, Context ctx)
+    public static void copyToClipboard(CharSequence str, Context ctx)
     {
         ClipboardManager clipMgr = (ClipboardManager)
                 ctx.getSystemService(Context.CLIPBOARD_SERVICE);
@@ -115,9 +115,10 @@ public class PasswdSafeUtil
     }
 
     /**
-     * Copy text to the clipboard
+     * Copy text to the clipboard.  The clipboard service keeps its own copy,
+     * so the caller may clear the text afterwards.
      */
-    public static void copyToClipboard(String str, Context ctx)
+    public static void copyToClipboard(CharSequence str, Context ctx)
     {
         try {
             ApiCompat.copyToClipboard(str, ctx);
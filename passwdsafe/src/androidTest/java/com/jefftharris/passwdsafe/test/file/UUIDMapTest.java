@@ -0,0 +1,250 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package com.jefftharris.passwdsafe.test.file;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.UUIDMap;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests for the UUIDMap class
+ */
+public class UUIDMapTest extends AndroidTestCase
+{
+    /** Capacity of a new map's table */
+    private static final int MIN_CAPACITY = 16;
+
+    /** Test adding, getting, and removing keys with the same home slot */
+    public void testCollisions()
+    {
+        List<long[]> keys = findKeys(5, 3, 1);
+        UUIDMap<String> map = new UUIDMap<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            assertNull(put(map, keys.get(i), "v" + i));
+        }
+        assertEquals(3, map.size());
+        for (int i = 0; i < keys.size(); ++i) {
+            assertEquals("v" + i, get(map, keys.get(i)));
+        }
+
+        assertEquals("v1", put(map, keys.get(1), "new1"));
+        assertEquals(3, map.size());
+        assertEquals("new1", get(map, keys.get(1)));
+
+        assertEquals("v0", remove(map, keys.get(0)));
+        assertNull(remove(map, keys.get(0)));
+        assertEquals(2, map.size());
+        assertNull(get(map, keys.get(0)));
+        assertEquals("new1", get(map, keys.get(1)));
+        assertEquals("v2", get(map, keys.get(2)));
+    }
+
+    /**
+     * Test removing a key in the middle of a probe run, which must shift
+     * back the following keys of the run
+     */
+    public void testRemoveMiddleOfRun()
+    {
+        // Keys at slots 5, 6, 7 with home 5 and a key with home 6 at slot 8
+        List<long[]> keys = findKeys(5, 3, 1);
+        keys.addAll(findKeys(6, 1, 2));
+        UUIDMap<String> map = new UUIDMap<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            put(map, keys.get(i), "v" + i);
+        }
+
+        assertEquals("v1", remove(map, keys.get(1)));
+        assertEquals(3, map.size());
+        assertNull(get(map, keys.get(1)));
+        assertEquals("v0", get(map, keys.get(0)));
+        assertEquals("v2", get(map, keys.get(2)));
+        assertEquals("v3", get(map, keys.get(3)));
+
+        assertEquals("v0", remove(map, keys.get(0)));
+        assertEquals("v2", get(map, keys.get(2)));
+        assertEquals("v3", get(map, keys.get(3)));
+
+        assertNull(put(map, keys.get(1), "again1"));
+        assertEquals("again1", get(map, keys.get(1)));
+        assertEquals(3, map.size());
+    }
+
+    /** Test removing from a probe run which wraps around the table */
+    public void testRemoveWrappedRun()
+    {
+        List<long[]> keys = findKeys(MIN_CAPACITY - 1, 3, 1);
+        UUIDMap<String> map = new UUIDMap<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            put(map, keys.get(i), "v" + i);
+        }
+
+        assertEquals("v0", remove(map, keys.get(0)));
+        assertEquals("v1", get(map, keys.get(1)));
+        assertEquals("v2", get(map, keys.get(2)));
+        assertEquals("v1", remove(map, keys.get(1)));
+        assertEquals("v2", get(map, keys.get(2)));
+        assertEquals(1, map.size());
+    }
+
+    /** Test growing the table and removing many keys */
+    public void testResize()
+    {
+        Random rand = new Random(1234);
+        UUIDMap<Integer> map = new UUIDMap<>();
+        Map<String, Integer> expected = new HashMap<>();
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            byte[] bytes = new byte[16];
+            rand.nextBytes(bytes);
+            UUID uuid = new UUID(bytes);
+            uuids.add(uuid);
+            assertNull(map.put(uuid, i));
+            expected.put(uuid.toString(), i);
+        }
+        assertEquals(expected.size(), map.size());
+        for (UUID uuid: uuids) {
+            assertEquals(expected.get(uuid.toString()), map.get(uuid));
+        }
+
+        for (int i = 0; i < uuids.size(); i += 2) {
+            UUID uuid = uuids.get(i);
+            assertEquals(expected.remove(uuid.toString()), map.remove(uuid));
+        }
+        assertEquals(expected.size(), map.size());
+        for (UUID uuid: uuids) {
+            assertEquals(expected.get(uuid.toString()), map.get(uuid));
+        }
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(uuids.get(1)));
+    }
+
+    /** Test keys given as UUID strings and hex digits */
+    public void testStringKeys()
+    {
+        UUIDMap<String> map = new UUIDMap<>();
+        String key = "{01234567-89ab-cdef-0123-456789ABCDEF}";
+        long high = 0x0123456789abcdefL;
+        long low = 0x0123456789abcdefL;
+        assertNull(map.put(key, "str"));
+        assertEquals("str", map.get(high, low));
+        assertEquals("str", map.get(key.toLowerCase()));
+        assertEquals("str", map.getHex("[[0123456789abcdef0123456789abcdef]]",
+                                       2));
+        assertNull(map.getHex("0123456789abcdef0123456789abcde", 0));
+        assertNull(map.getHex("0123456789abcdef0123456789abcdeg", 0));
+        assertEquals(1, map.size());
+
+        assertEquals("str", map.put(high, low, "halves"));
+        assertEquals("halves", map.get(key));
+        assertEquals("halves", map.remove(key));
+        assertEquals(0, map.size());
+    }
+
+    /** Test keys which aren't UUID strings */
+    public void testOtherKeys()
+    {
+        UUIDMap<String> map = new UUIDMap<>();
+        String phantom = "phantom";
+        String badHex = "{0123456z-89ab-cdef-0123-456789abcdef}";
+        String noBraces = "01234567-89ab-cdef-0123-456789abcdef";
+        assertNull(map.put(phantom, "p"));
+        assertNull(map.put(badHex, "b"));
+        assertNull(map.put(noBraces, "n"));
+        assertNull(map.put(0, 0, "zero"));
+        assertEquals(4, map.size());
+
+        assertEquals("p", map.get(phantom));
+        assertEquals("b", map.get(badHex));
+        assertEquals("n", map.get(noBraces));
+        assertNull(map.get("other"));
+        assertEquals("zero",
+                     map.get("{00000000-0000-0000-0000-000000000000}"));
+
+        assertEquals("p", map.remove(phantom));
+        assertNull(map.remove(phantom));
+        assertEquals(3, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(badHex));
+    }
+
+    /** Test that null values are rejected */
+    public void testNullValue()
+    {
+        UUIDMap<String> map = new UUIDMap<>();
+        try {
+            map.put(1, 2, null);
+            fail("null value");
+        } catch (NullPointerException e) {
+            // Expected
+        }
+        try {
+            map.put("phantom", null);
+            fail("null value");
+        } catch (NullPointerException e) {
+            // Expected
+        }
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Find keys whose home slot in a new map's table is the given slot
+     *
+     * @param slot The home slot
+     * @param num The number of keys
+     * @param seed The seed of the keys' low halves
+     */
+    private static List<long[]> findKeys(int slot, int num, long seed)
+    {
+        List<long[]> keys = new ArrayList<>();
+        for (long low = seed * 1000000L; keys.size() < num; ++low) {
+            if ((hash(0, low) & (MIN_CAPACITY - 1)) == slot) {
+                keys.add(new long[] { 0, low });
+            }
+        }
+        return keys;
+    }
+
+    /** The hash of UUIDMap, so keys may be chosen to collide */
+    private static int hash(long high, long low)
+    {
+        long h = high * 0x9e3779b97f4a7c15L + low;
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (int)h;
+    }
+
+    /** Put a value for a key's halves */
+    private static String put(UUIDMap<String> map, long[] key, String value)
+    {
+        return map.put(key[0], key[1], value);
+    }
+
+    /** Get the value for a key's halves */
+    private static String get(UUIDMap<String> map, long[] key)
+    {
+        return map.get(key[0], key[1]);
+    }
+
+    /** Remove the value for a key's halves */
+    private static String remove(UUIDMap<String> map, long[] key)
+    {
+        return map.remove(key[0], key[1]);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.test.MoreAsserts;
+import android.util.Log;
+
+/**
+ * Tests and benchmarks for the iterated SHA-256 implementations
+ */
+public class SHA256PwsTest extends AndroidTestCase
+{
+    private static final String TAG = "SHA256PwsTest";
+
+    private static final int BENCH_ITER = 200000;
+
+    static {
+        System.loadLibrary("PasswdSafe");
+    }
+
+    /** Test the Java engine against the BouncyCastle and native digests */
+    public void testDigestN()
+    {
+        Random rand = new Random(0);
+        int[] iters = { 0, 1, 2, 2048, 10000 };
+        for (int iter: iters) {
+            for (int len = 0; len < 130; len += 13) {
+                byte[] p = new byte[len];
+                rand.nextBytes(p);
+
+                byte[] bc = SHA256Pws.digestNBouncyCastle(p, iter);
+                MoreAsserts.assertEquals(bc, SHA256Pws.digestNJava(p, iter));
+                MoreAsserts.assertEquals(bc, SHA256Pws.digestNNative(p, iter));
+            }
+        }
+    }
+
+    /** Test the sliced digest with a monitor of its progress */
+    public void testDigestNMonitored() throws InterruptedIOException
+    {
+        Random rand = new Random(0);
+        byte[] p = new byte[64];
+        rand.nextBytes(p);
+        final float[] progress = { 0 };
+        StretchMonitor monitor = new StretchMonitor()
+        {
+            @Override
+            public void stretchProgress(float fraction)
+            {
+                assertTrue(fraction >= progress[0]);
+                progress[0] = fraction;
+            }
+
+            @Override
+            public boolean isStretchCanceled()
+            {
+                return false;
+            }
+        };
+
+        int[] iters = { 0, 1, 2048, 100000 };
+        for (int iter: iters) {
+            progress[0] = 0;
+            MoreAsserts.assertEquals(SHA256Pws.digestNBouncyCastle(p, iter),
+                                     SHA256Pws.digestN(p, iter, monitor));
+            assertEquals((iter > 0) ? 1.0f : 0.0f, progress[0]);
+        }
+    }
+
+    /** Test canceling the sliced digest */
+    public void testDigestNCanceled()
+    {
+        final int[] numChecks = { 0 };
+        StretchMonitor monitor = new StretchMonitor()
+        {
+            @Override
+            public void stretchProgress(float fraction)
+            {
+            }
+
+            @Override
+            public boolean isStretchCanceled()
+            {
+                return ++numChecks[0] > 2;
+            }
+        };
+
+        try {
+            SHA256Pws.digestN(new byte[64], Integer.MAX_VALUE, monitor);
+            fail("Digest not canceled");
+        } catch (InterruptedIOException e) {
+            assertEquals(3, numChecks[0]);
+        }
+    }
+
+    /** Benchmark the iterations per second of each implementation */
+    public void testBenchmark()
+    {
+        byte[] p = new byte[64];
+        new Random(0).nextBytes(p);
+
+        // Warm up each implementation before timing
+        SHA256Pws.digestNBouncyCastle(p, BENCH_ITER / 10);
+        SHA256Pws.digestNJava(p, BENCH_ITER / 10);
+        SHA256Pws.digestNNative(p, BENCH_ITER / 10);
+
+        long start = System.nanoTime();
+        SHA256Pws.digestNBouncyCastle(p, BENCH_ITER);
+        long bcTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SHA256Pws.digestNJava(p, BENCH_ITER);
+        long javaTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SHA256Pws.digestNNative(p, BENCH_ITER);
+        long nativeTime = System.nanoTime() - start;
+
+        Log.i(TAG, String.format(
+                Locale.US,
+                "iterations/sec: bouncycastle %d, java %d, native %d",
+                itersPerSec(bcTime), itersPerSec(javaTime),
+                itersPerSec(nativeTime)));
+    }
+
+    /** Get the iterations per second for the benchmark time */
+    private static long itersPerSec(long nanos)
+    {
+        return (BENCH_ITER * 1000000000L) / Math.max(nanos, 1);
+    }
+}
@@ -18,7 +18,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
-import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.lib.AboutUtils;
 import com.jefftharris.passwdsafe.lib.view.GuiUtils;
 import com.jefftharris.passwdsafe.lib.ObjectHolder;
@@ -102,7 +102,7 @@ public class AboutFragment extends Fragment
         itsListener.updateViewAbout();
 
         final ObjectHolder<Boolean> called = new ObjectHolder<>(false);
-        itsListener.useFileData(new PasswdFileDataUser()
+        itsListener.useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
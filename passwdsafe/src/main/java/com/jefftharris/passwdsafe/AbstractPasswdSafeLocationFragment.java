@@ -12,6 +12,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
 import com.jefftharris.passwdsafe.file.PasswdRecord;
 import com.jefftharris.passwdsafe.view.PasswdLocation;
@@ -103,16 +104,17 @@ public abstract class AbstractPasswdSafeLocationFragment
     }
 
     /**
-     * Use the file data record at the current location
+     * Use the file data record at the current location to read it.  The
+     * file data is shared with other readers.
      */
     protected final void useRecordInfo(final RecordInfoUser user)
     {
-        useRecordFile(new RecordFileUser()
+        useFileData(new PasswdFileDataReader()
         {
             @Override
-            public void useFile(@Nullable RecordInfo info,
-                                @NonNull PasswdFileData fileData)
+            public void useFileData(@NonNull PasswdFileData fileData)
             {
+                RecordInfo info = getRecordInfo(fileData);
                 if (info != null) {
                     user.useRecordInfo(info);
                 }
@@ -121,7 +123,8 @@ public abstract class AbstractPasswdSafeLocationFragment
     }
 
     /**
-     * Use the file data with an optional record at the current location
+     * Use the file data with an optional record at the current location.
+     * The file data is used exclusively so it may be modified.
      */
     protected final void useRecordFile(final RecordFileUser user)
     {
@@ -130,20 +133,27 @@ public abstract class AbstractPasswdSafeLocationFragment
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
             {
-                PwsRecord rec = fileData.getRecord(itsLocation.getRecord());
-                if (rec == null) {
-                    user.useFile(null, fileData);
-                    return;
-                }
-                PasswdRecord passwdRec = fileData.getPasswdRecord(rec);
-                if (passwdRec == null) {
-                    user.useFile(null, fileData);
-                    return;
-                }
-
-                user.useFile(new RecordInfo(rec, passwdRec, fileData),
-                             fileData);
+                user.useFile(getRecordInfo(fileData), fileData);
             }
         });
     }
+
+    /**
+     * Get the information for the record at the current location
+     *
+     * @return The record information; null if the record isn't found
+     */
+    private @Nullable RecordInfo getRecordInfo(
+            @NonNull PasswdFileData fileData)
+    {
+        PwsRecord rec = fileData.getRecord(itsLocation.getRecord());
+        if (rec == null) {
+            return null;
+        }
+        PasswdRecord passwdRec = fileData.getPasswdRecord(rec);
+        if (passwdRec == null) {
+            return null;
+        }
+        return new RecordInfo(rec, passwdRec, fileData);
+    }
 }
@@ -213,7 +213,7 @@ public abstract class AbstractPasswdSafeOpenNewFileFragment extends Fragment
      * Background task
      */
     protected abstract class BackgroundTask<ResultT>
-            extends AsyncTask<Void, Void, ResultT>
+            extends AsyncTask<Void, Integer, ResultT>
     {
         @Override
         protected final void onCancelled()
@@ -0,0 +1,301 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package com.jefftharris.passwdsafe;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.jefftharris.passwdsafe.file.PasswdFileData;
+import com.jefftharris.passwdsafe.file.PasswdFileToken;
+import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The FileSaveScheduler class saves the open password file in the
+ * background.  An edit schedules a save after the save delay preference, and
+ * further edits during the delay push the save back, so a burst of edits is
+ * written with one save.  The saves run one at a time in the background,
+ * and the encrypted contents are written without a file token, so edits
+ * don't wait for the write.  The methods must be called from the main thread.
+ */
+public final class FileSaveScheduler
+{
+    /**
+     * Listener for the saves of the file
+     */
+    public interface Listener
+    {
+        /** Notification that the file started or finished saving edits */
+        void fileSaveStateChanged(boolean saving);
+
+        /** Notification that a save of the file failed */
+        void fileSaveFailed(Exception e);
+    }
+
+    private final Handler itsHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService itsExecutor =
+            Executors.newSingleThreadExecutor();
+    private final Runnable itsStartSaveRun = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            startSave();
+        }
+    };
+    private Context itsContext;
+    private Listener itsListener;
+    /** The file whose edits are saved */
+    private PasswdFileData itsFileData;
+    /** Whether there are edits not yet being saved */
+    private boolean itsIsChanged = false;
+    /** Number of saves started which haven't finished */
+    private int itsNumSaves = 0;
+
+    private static final String TAG = "FileSaveScheduler";
+
+    /**
+     * Set the listener for the saves; null to remove
+     */
+    public void setListener(@Nullable Listener listener)
+    {
+        itsListener = listener;
+        if (listener != null) {
+            listener.fileSaveStateChanged(isSaving());
+        }
+    }
+
+    /**
+     * Get whether the file has edits which aren't saved yet
+     */
+    public boolean isSaving()
+    {
+        return itsIsChanged || (itsNumSaves > 0);
+    }
+
+    /**
+     * Set the file whose edits are saved.  The edits of the previous file
+     * must be flushed or discarded first.
+     */
+    public void setFileData(@Nullable PasswdFileData fileData)
+    {
+        itsFileData = fileData;
+    }
+
+    /**
+     * Schedule a save of the file after it was edited
+     */
+    public void scheduleSave(Context ctx)
+    {
+        itsContext = ctx.getApplicationContext();
+        boolean wasSaving = isSaving();
+        itsIsChanged = true;
+        postStartSave();
+        if (!wasSaving) {
+            notifyStateChanged();
+        }
+    }
+
+    /**
+     * Start saving the edits now rather than after the save delay
+     */
+    public void startPendingSave()
+    {
+        if (itsIsChanged) {
+            itsHandler.removeCallbacks(itsStartSaveRun);
+            startSave();
+        }
+    }
+
+    /**
+     * Start saving the edits now, and run an action once all of the saves
+     * have finished, such as closing the file.  The action is run on the
+     * main thread, immediately if nothing is being saved.
+     */
+    public void flush(@NonNull Runnable afterSaves)
+    {
+        itsHandler.removeCallbacks(itsStartSaveRun);
+        if (itsIsChanged) {
+            queueSave();
+        }
+        runAfterSaves(afterSaves);
+    }
+
+    /**
+     * Discard the edits which aren't being saved yet, and run an action once
+     * the running saves have finished, such as deleting the file.  The
+     * action is run on the main thread, immediately if nothing is being
+     * saved.
+     */
+    public void discard(@NonNull Runnable afterSaves)
+    {
+        itsHandler.removeCallbacks(itsStartSaveRun);
+        if (itsIsChanged) {
+            itsIsChanged = false;
+            if (!isSaving()) {
+                notifyStateChanged();
+            }
+        }
+        runAfterSaves(afterSaves);
+    }
+
+    /**
+     * Post the start of a save after the save delay
+     */
+    private void postStartSave()
+    {
+        int delay = Preferences.getFileSaveDelayPref(
+                Preferences.getSharedPrefs(itsContext)).getDelay();
+        itsHandler.removeCallbacks(itsStartSaveRun);
+        itsHandler.postDelayed(itsStartSaveRun, delay);
+    }
+
+    /**
+     * Start saving the edits in the background
+     */
+    private void startSave()
+    {
+        if (!itsIsChanged || (itsNumSaves > 0)) {
+            // Edits made during a save are saved after it finishes
+            return;
+        }
+        queueSave();
+    }
+
+    /**
+     * Queue a save of the edits to run after any running save
+     */
+    private void queueSave()
+    {
+        itsIsChanged = false;
+        if (itsFileData == null) {
+            notifyStateChanged();
+            return;
+        }
+        ++itsNumSaves;
+        itsExecutor.execute(new SaveRun(itsFileData, itsContext));
+    }
+
+    /**
+     * Run an action on the main thread after the queued saves finish
+     */
+    private void runAfterSaves(final Runnable run)
+    {
+        if (itsNumSaves == 0) {
+            run.run();
+            return;
+        }
+
+        // The saves run in order, so this runs after the last one posts its
+        // finish
+        itsExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                itsHandler.post(run);
+            }
+        });
+    }
+
+    /**
+     * Handle a finished save
+     */
+    private void finishSave(PasswdFileData fileData,
+                            long saveMillis, Exception error)
+    {
+        PasswdSafeUtil.dbginfo(TAG, "save time: %dms", saveMillis);
+        --itsNumSaves;
+        if (error != null) {
+            Log.e(TAG, "Error saving file", error);
+            // Retry the edits with the next save unless the file was closed
+            if (fileData == itsFileData) {
+                itsIsChanged = true;
+            }
+            if (itsListener != null) {
+                itsListener.fileSaveFailed(error);
+            } else {
+                PasswdSafeUtil.showErrorMsg(error.toString(), itsContext);
+            }
+        }
+
+        if (itsIsChanged) {
+            postStartSave();
+        } else if (!isSaving()) {
+            notifyStateChanged();
+        }
+    }
+
+    /**
+     * Notify the listener of the saving state
+     */
+    private void notifyStateChanged()
+    {
+        if (itsListener != null) {
+            itsListener.fileSaveStateChanged(isSaving());
+        }
+    }
+
+    /**
+     * Save the file in the background.  The edits are applied to the file
+     * and its contents are encrypted with exclusive use of the file.  The
+     * token is then released, so the file may be used and edited while the
+     * contents are written to its storage.
+     */
+    private final class SaveRun implements Runnable
+    {
+        private final PasswdFileData itsSaveFileData;
+        private final Context itsSaveContext;
+
+        /**
+         * Constructor
+         */
+        public SaveRun(PasswdFileData fileData, Context ctx)
+        {
+            itsSaveFileData = fileData;
+            itsSaveContext = ctx;
+        }
+
+        @Override
+        public void run()
+        {
+            long start = System.nanoTime();
+            Exception error = null;
+            try {
+                PasswdFileData.PreparedSave save;
+                PasswdFileToken token =
+                        new PasswdFileToken(itsSaveFileData, true);
+                try {
+                    save = itsSaveFileData.prepareSave(itsSaveContext);
+                } finally {
+                    token.release();
+                }
+                PasswdFileData.writeSave(save, itsSaveContext);
+            } catch (Exception e) {
+                error = e;
+            }
+
+            final long saveMillis = (System.nanoTime() - start) / 1000000L;
+            final Exception saveError = error;
+            itsHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    finishSave(itsSaveFileData, saveMillis, saveError);
+                }
+            });
+        }
+    }
+}
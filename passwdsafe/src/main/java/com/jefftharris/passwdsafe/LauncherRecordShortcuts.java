@@ -19,7 +19,8 @@ import android.support.v7.app.AppCompatActivity;
 import android.widget.TextView;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
-import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
+import com.jefftharris.passwdsafe.file.PasswdFileSnapshot;
 import com.jefftharris.passwdsafe.file.PasswdRecordFilter;
 import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
 import com.jefftharris.passwdsafe.lib.view.GuiUtils;
@@ -121,22 +122,11 @@ public class LauncherRecordShortcuts extends AppCompatActivity
         super.onResume();
 
         itsFileDataView.clearFileData();
-        final ObjectHolder<String> fileTitle = new ObjectHolder<>();
-        PasswdSafeFileDataFragment.useOpenFileData(
-                new PasswdFileDataUser()
-                {
-                    @Override
-                    public void useFileData(
-                            @NonNull PasswdFileData fileData)
-                    {
-                        itsFileDataView.setFileData(fileData);
-                        fileTitle.set(fileData.getUri().getIdentifier(
-                                LauncherRecordShortcuts.this, true));
-                    }
-                });
-        String fileTitleVal = fileTitle.get();
-        if (fileTitleVal != null) {
-            itsFile.setText(fileTitleVal);
+        PasswdFileSnapshot snapshot =
+                PasswdSafeFileDataFragment.getOpenFileSnapshot();
+        if (snapshot != null) {
+            itsFileDataView.setFileData(snapshot);
+            itsFile.setText(snapshot.getUri().getIdentifier(this, true));
         } else {
             itsFile.setText(R.string.no_records_open_file);
             GuiUtils.setVisible(findViewById(R.id.contents), false);
@@ -163,14 +153,8 @@ public class LauncherRecordShortcuts extends AppCompatActivity
     public void onSharedPreferenceChanged(SharedPreferences prefs, String key)
     {
         if (itsFileDataView.handleSharedPreferenceChanged(prefs, key)) {
-            PasswdSafeFileDataFragment.useOpenFileData(new PasswdFileDataUser()
-            {
-                @Override
-                public void useFileData(@NonNull PasswdFileData fileData)
-                {
-                    itsFileDataView.refreshFileData(fileData);
-                }
-            });
+            itsFileDataView.refreshFileData(
+                    PasswdSafeFileDataFragment.getOpenFileSnapshot());
         }
     }
 
@@ -234,7 +218,7 @@ public class LauncherRecordShortcuts extends AppCompatActivity
         case SHORTCUT: {
             final ObjectHolder<Pair<Uri, String>> rc = new ObjectHolder<>();
             PasswdSafeFileDataFragment.useOpenFileData(
-                    new PasswdFileDataUser()
+                    new PasswdFileDataReader()
                     {
                         @Override
                         public void useFileData(
@@ -16,8 +16,6 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import org.pwsafe.lib.file.PwsRecord;
-
 import android.app.AlarmManager;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -38,6 +36,7 @@ import android.util.Log;
 import com.jefftharris.passwdsafe.file.PasswdExpiration;
 import com.jefftharris.passwdsafe.file.PasswdFileData;
 import com.jefftharris.passwdsafe.file.PasswdFileDataObserver;
+import com.jefftharris.passwdsafe.file.PasswdFileSnapshot;
 import com.jefftharris.passwdsafe.file.PasswdFileUri;
 import com.jefftharris.passwdsafe.file.PasswdRecord;
 import com.jefftharris.passwdsafe.file.PasswdRecordFilter;
@@ -120,7 +119,7 @@ public class NotificationMgr implements PasswdFileDataObserver
                 Long uriId = getDbUriId(fileData.getUri(), db);
                 if (enabled) {
                     if (uriId == null) {
-                        enablePasswdExpiryNotif(fileData, db);
+                        enablePasswdExpiryNotif(fileData.getSnapshot(), db);
                     }
                 } else {
                     if (uriId != null) {
@@ -139,17 +138,17 @@ public class NotificationMgr implements PasswdFileDataObserver
 
 
     /* (non-Javadoc)
-     * @see com.jefftharris.passwdsafe.file.PasswdFileDataObserver#passwdFileDataChanged(com.jefftharris.passwdsafe.file.PasswdFileData)
+     * @see com.jefftharris.passwdsafe.file.PasswdFileDataObserver#passwdFileDataChanged(com.jefftharris.passwdsafe.file.PasswdFileSnapshot)
      */
-    public void passwdFileDataChanged(PasswdFileData fileData)
+    public void passwdFileDataChanged(PasswdFileSnapshot snapshot)
     {
         try {
             SQLiteDatabase db = itsDbHelper.getWritableDatabase();
             try {
                 db.beginTransaction();
-                Long id = getDbUriId(fileData.getUri(), db);
+                Long id = getDbUriId(snapshot.getUri(), db);
                 if (id != null) {
-                    doUpdatePasswdFileData(id, fileData, db);
+                    doUpdatePasswdFileData(id, snapshot, db);
                 }
                 db.setTransactionSuccessful();
             } finally {
@@ -253,25 +252,25 @@ public class NotificationMgr implements PasswdFileDataObserver
 
 
     /** Enable notifications for the password file */
-    private void enablePasswdExpiryNotif(@NonNull PasswdFileData fileData,
+    private void enablePasswdExpiryNotif(@NonNull PasswdFileSnapshot snapshot,
                                          SQLiteDatabase db)
             throws SQLException
     {
         ContentValues values = new ContentValues(1);
-        values.put(DB_COL_URIS_URI, fileData.getUri().toString());
+        values.put(DB_COL_URIS_URI, snapshot.getUri().toString());
         long id = db.insertOrThrow(DB_TABLE_URIS, null, values);
-        doUpdatePasswdFileData(id, fileData, db);
+        doUpdatePasswdFileData(id, snapshot, db);
     }
 
 
     /** Update the notification expirations for a password file */
     private void doUpdatePasswdFileData(long uriId,
-                                        PasswdFileData fileData,
+                                        PasswdFileSnapshot snapshot,
                                         SQLiteDatabase db)
         throws SQLException
     {
         PasswdSafeUtil.dbginfo(TAG, "Update %s, id: %d",
-                               fileData.getUri(), uriId);
+                               snapshot.getUri(), uriId);
 
         TreeMap<ExpiryEntry, Long> entries = new TreeMap<>();
         Cursor cursor =
@@ -294,16 +293,14 @@ public class NotificationMgr implements PasswdFileDataObserver
 
         boolean dbchanged = false;
         ContentValues values = null;
-        for (PasswdRecord rec: fileData.getPasswdRecords()) {
-            PasswdExpiration expiry = rec.getPasswdExpiry();
+        for (PasswdFileSnapshot.Record rec: snapshot.getRecords()) {
+            PasswdExpiration expiry = rec.itsExpiry;
             if (expiry == null) {
                 continue;
             }
 
-            PwsRecord pwsrec = rec.getRecord();
-            ExpiryEntry entry = new ExpiryEntry(rec.getUUID(),
-                                                fileData.getTitle(pwsrec),
-                                                fileData.getGroup(pwsrec),
+            ExpiryEntry entry = new ExpiryEntry(rec.itsUuid, rec.itsTitle,
+                                                rec.itsGroup,
                                                 expiry.itsExpiration.getTime());
             if (entries.remove(entry) == null) {
                 if (values == null) {
@@ -34,7 +34,9 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
+import com.jefftharris.passwdsafe.file.PasswdFileSnapshot;
 import com.jefftharris.passwdsafe.file.PasswdFileUri;
 import com.jefftharris.passwdsafe.file.PasswdRecord;
 import com.jefftharris.passwdsafe.file.PasswdRecordFilter;
@@ -52,6 +54,7 @@ import com.jefftharris.passwdsafe.view.PasswdRecordListData;
 import org.pwsafe.lib.file.PwsRecord;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
@@ -64,6 +67,7 @@ public class PasswdSafe extends AppCompatActivity
                    AboutFragment.Listener,
                    View.OnClickListener,
                    ConfirmPromptDialog.Listener,
+                   FileSaveScheduler.Listener,
                    PasswdSafeChangePasswordFragment.Listener,
                    PasswdSafeEditRecordFragment.Listener,
                    PasswdSafeExpirationsFragment.Listener,
@@ -244,6 +248,7 @@ public class PasswdSafe extends AppCompatActivity
             fragMgr.beginTransaction().add(itsFileDataFrag, FRAG_DATA).commit();
         }
         boolean newFileDataFrag = itsFileDataFrag.checkNew();
+        itsFileDataFrag.getSaveScheduler().setListener(this);
 
         itsTimeoutReceiver = new FileTimeoutReceiver(this);
 
@@ -290,7 +295,7 @@ public class PasswdSafe extends AppCompatActivity
         case Intent.ACTION_VIEW: {
             final Uri openUri = PasswdSafeApp.getOpenUriFromIntent(intent);
             final ObjectHolder<Boolean> reopen = new ObjectHolder<>(true);
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
+            itsFileDataFrag.useFileData(new PasswdFileDataReader()
             {
                 @Override
                 public void useFileData(@NonNull PasswdFileData fileData)
@@ -348,11 +353,13 @@ public class PasswdSafe extends AppCompatActivity
             itsCurrTask.cancelTask();
             itsCurrTask = null;
         }
+        itsFileDataFrag.getSaveScheduler().startPendingSave();
     }
 
     @Override
     protected void onDestroy()
     {
+        itsFileDataFrag.getSaveScheduler().setListener(null);
         itsTimeoutReceiver.onDestroy();
         super.onDestroy();
     }
@@ -390,7 +397,7 @@ public class PasswdSafe extends AppCompatActivity
         final BitSet options = new BitSet();
         options.set(MENU_BIT_HAS_CLOSE);
 
-        itsFileDataFrag.useFileData(new PasswdFileDataUser()
+        itsFileDataFrag.useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
@@ -521,7 +528,7 @@ public class PasswdSafe extends AppCompatActivity
         }
         case R.id.menu_file_delete: {
             final ObjectHolder<String> uriName = new ObjectHolder<>();
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
+            itsFileDataFrag.useFileData(new PasswdFileDataReader()
             {
                 @Override
                 public void useFileData(@NonNull PasswdFileData fileData)
@@ -778,8 +785,8 @@ public class PasswdSafe extends AppCompatActivity
         }
         }
 
-        final ObjectHolder<String> copyStr = new ObjectHolder<>();
-        itsFileDataFrag.useFileData(new PasswdFileDataUser()
+        final ObjectHolder<CharSequence> copyStr = new ObjectHolder<>();
+        itsFileDataFrag.useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
@@ -793,7 +800,7 @@ public class PasswdSafe extends AppCompatActivity
                 case PASSWORD: {
                     PasswdRecord passwdRec = fileData.getPasswdRecord(rec);
                     if (passwdRec != null) {
-                        copyStr.set(passwdRec.getPassword(fileData));
+                        copyStr.set(passwdRec.getPasswordChars(fileData));
                     }
                     break;
                 }
@@ -818,8 +825,15 @@ public class PasswdSafe extends AppCompatActivity
                 }
             }
         });
-        if (copyStr.get() != null) {
-            PasswdSafeUtil.copyToClipboard(copyStr.get(), PasswdSafe.this);
+        CharSequence str = copyStr.get();
+        if (str != null) {
+            try {
+                PasswdSafeUtil.copyToClipboard(str, PasswdSafe.this);
+            } finally {
+                if (field == CopyField.PASSWORD) {
+                    PasswdFileData.releasePassword((CharBuffer)str);
+                }
+            }
         }
     }
 
@@ -935,7 +949,7 @@ public class PasswdSafe extends AppCompatActivity
     @Override
     public void finishChangePassword()
     {
-        itsFileDataFrag.useFileData(new PasswdFileDataUser()
+        itsFileDataFrag.useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
@@ -984,6 +998,35 @@ public class PasswdSafe extends AppCompatActivity
         finishEdit(true, false, null, null, postSaveRun);
     }
 
+    @Override
+    public void fileSaveStateChanged(boolean saving)
+    {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar == null) {
+            return;
+        }
+        String subtitle = null;
+        if (saving) {
+            PasswdFileSnapshot snapshot =
+                    PasswdSafeFileDataFragment.getOpenFileSnapshot();
+            String fileId = (snapshot != null) ?
+                    snapshot.getUri().getIdentifier(this, false) : "";
+            subtitle = getString(R.string.saving_file, fileId);
+        }
+        actionBar.setSubtitle(subtitle);
+    }
+
+    @Override
+    public void fileSaveFailed(Exception e)
+    {
+        String msg = e.toString();
+        if ((e instanceof IOException) &&
+            (ApiCompat.SDK_VERSION >= ApiCompat.SDK_KITKAT)) {
+            msg = getString(R.string.kitkat_sdcard_warning, msg);
+        }
+        PasswdSafeUtil.showFatalMsg(e, msg, this, true);
+    }
+
     @Override
     public void updateViewPreferences()
     {
@@ -1012,7 +1055,7 @@ public class PasswdSafe extends AppCompatActivity
         }
         case DELETE_FILE: {
             final ObjectHolder<PasswdFileUri> uri = new ObjectHolder<>();
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
+            itsFileDataFrag.useFileData(new PasswdFileDataReader()
             {
                 @Override
                 public void useFileData(@NonNull PasswdFileData fileData)
@@ -1020,9 +1063,23 @@ public class PasswdSafe extends AppCompatActivity
                     uri.set(fileData.getUri());
                 }
             });
-            if (uri.get() != null) {
-                itsCurrTask = new DeleteTask(uri.get(), this);
-                itsCurrTask.execute();
+            final PasswdFileUri deleteUri = uri.get();
+            if (deleteUri != null) {
+                // Drop the unsaved edits and wait for a running save so it
+                // doesn't recreate the file
+                itsFileDataFrag.getSaveScheduler().discard(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        itsCurrTask = new DeleteTask(deleteUri,
+                                                     PasswdSafe.this);
+                        itsCurrTask.execute();
+                    }
+                });
             }
             break;
         }
@@ -1106,7 +1163,7 @@ public class PasswdSafe extends AppCompatActivity
     private boolean isFileOpen()
     {
         final ObjectHolder<Boolean> isOpen = new ObjectHolder<>(false);
-        itsFileDataFrag.useFileData(new PasswdFileDataUser()
+        itsFileDataFrag.useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
@@ -1151,81 +1208,59 @@ public class PasswdSafe extends AppCompatActivity
     }
 
     /**
-     * Finish editing the file
+     * Finish editing the file.  An edited file is saved in the background.
      */
-    private void finishEdit(final boolean save,
-                            final boolean popBack, final String popTag,
-                            final PasswdLocation newLocation,
-                            final Runnable postSaveRun)
+    private void finishEdit(boolean save,
+                            boolean popBack, String popTag,
+                            PasswdLocation newLocation,
+                            Runnable postSaveRun)
     {
-        Runnable saveRun = new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                if (save) {
-                    itsFileDataFrag.refreshFileData();
-                }
-                boolean resetLoc = shouldResetLoc();
-
-                if (popBack) {
-                    FragmentManager fragMgr = getSupportFragmentManager();
-                    fragMgr.popBackStackImmediate();
-
-                    if (popTag != null) {
-                        //noinspection StatementWithEmptyBody
-                        while(fragMgr.popBackStackImmediate(
-                                popTag,
-                                FragmentManager.POP_BACK_STACK_INCLUSIVE)) {
-                            // Pop all fragments up to the first use of the
-                            // given tag
-                        }
-                    }
-                }
-
-                if (resetLoc) {
-                    changeOpenView(new PasswdLocation(), true);
-                }
+        boolean resetLoc = false;
+        if (save) {
+            itsFileDataFrag.getSaveScheduler().scheduleSave(this);
+            itsFileDataFrag.refreshFileData();
+            resetLoc = shouldResetLoc(newLocation);
+        }
 
-                if (postSaveRun != null) {
-                    postSaveRun.run();
+        if (popBack) {
+            FragmentManager fragMgr = getSupportFragmentManager();
+            fragMgr.popBackStackImmediate();
+
+            if (popTag != null) {
+                //noinspection StatementWithEmptyBody
+                while(fragMgr.popBackStackImmediate(
+                        popTag,
+                        FragmentManager.POP_BACK_STACK_INCLUSIVE)) {
+                    // Pop all fragments up to the first use of the
+                    // given tag
                 }
             }
+        }
 
-            /**
-             * Should the location be reset
-             */
-            private boolean shouldResetLoc()
-            {
-                if (!save || (newLocation == null)) {
-                    return false;
-                }
+        if (resetLoc) {
+            changeOpenView(new PasswdLocation(), true);
+        }
 
-                if (!newLocation.equalGroups(itsLocation)) {
-                    return true;
-                }
+        if (postSaveRun != null) {
+            postSaveRun.run();
+        }
+    }
 
-                PasswdFileDataView dataView = itsFileDataFrag.getFileDataView();
-                return !dataView.hasGroup(newLocation.getRecordGroup());
-            }
-        };
+    /**
+     * Should the location be reset after an edit
+     */
+    private boolean shouldResetLoc(PasswdLocation newLocation)
+    {
+        if (newLocation == null) {
+            return false;
+        }
 
-        if (save) {
-            final ObjectHolder<String> fileId = new ObjectHolder<>("");
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
-            {
-                @Override
-                public void useFileData(@NonNull PasswdFileData fileData)
-                {
-                    fileId.set(fileData.getUri().getIdentifier(PasswdSafe.this,
-                                                               false));
-                }
-            });
-            itsCurrTask = new SaveTask(fileId.get(), saveRun, this);
-            itsCurrTask.execute();
-        } else {
-            saveRun.run();
+        if (!newLocation.equalGroups(itsLocation)) {
+            return true;
         }
+
+        PasswdFileDataView dataView = itsFileDataFrag.getFileDataView();
+        return !dataView.hasGroup(newLocation.getRecordGroup());
     }
 
     /**
@@ -1437,7 +1472,7 @@ public class PasswdSafe extends AppCompatActivity
             String groups = itsLocation.getGroupPath();
             if (TextUtils.isEmpty(groups)) {
                 final ObjectHolder<String> fileNameVal = new ObjectHolder<>();
-                itsFileDataFrag.useFileData(new PasswdFileDataUser()
+                itsFileDataFrag.useFileData(new PasswdFileDataReader()
                 {
                     @Override
                     public void useFileData(@NonNull PasswdFileData fileData)
@@ -1472,7 +1507,7 @@ public class PasswdSafe extends AppCompatActivity
                     PasswdSafeNavDrawerFragment.Mode.RECORDS_SINGLE;
             fileTimeoutPaused = false;
             itsTitle = null;
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
+            itsFileDataFrag.useFileData(new PasswdFileDataReader()
             {
                 @Override
                 public void useFileData(@NonNull PasswdFileData fileData)
@@ -1492,7 +1527,7 @@ public class PasswdSafe extends AppCompatActivity
         case EDIT_RECORD: {
             drawerMode = PasswdSafeNavDrawerFragment.Mode.RECORDS_ACTION;
             itsTitle = null;
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
+            itsFileDataFrag.useFileData(new PasswdFileDataReader()
             {
                 @Override
                 public void useFileData(@NonNull PasswdFileData fileData)
@@ -1604,66 +1639,6 @@ public class PasswdSafe extends AppCompatActivity
         }
     }
 
-    /**
-     * Task to save a file in the background
-     */
-    private final class SaveTask extends AbstractTask
-    {
-        private final Runnable itsPostSaveRun;
-
-        /**
-         * Constructor
-         */
-        public SaveTask(String fileId, Runnable postSaveRun, Context ctx)
-        {
-            super(ctx.getString(R.string.saving_file, fileId), ctx);
-            itsPostSaveRun = postSaveRun;
-        }
-
-        @Override
-        protected final void handleDoInBackground() throws Exception
-        {
-            final ObjectHolder<Exception> ex = new ObjectHolder<>();
-            itsFileDataFrag.useFileData(new PasswdFileDataUser()
-            {
-                @Override
-                public void useFileData(@NonNull PasswdFileData fileData)
-                {
-                    try {
-                        fileData.save(getContext());
-                        PasswdSafeUtil.dbginfo(TAG, "SaveTask finished");
-                    } catch (Exception e) {
-                        ex.set(e);
-                    }
-                }
-            });
-            Exception e = ex.get();
-            if (e != null) {
-                throw e;
-            }
-        }
-
-        @Override
-        protected final void handlePostExecute()
-        {
-            if (itsPostSaveRun != null) {
-                itsPostSaveRun.run();
-            }
-        }
-
-        @Override
-        protected final String getExceptionMsg(Exception e)
-        {
-            String msg = super.getExceptionMsg(e);
-            if ((e instanceof IOException) &&
-                (ApiCompat.SDK_VERSION >= ApiCompat.SDK_KITKAT)) {
-                msg = getContext().getString(R.string.kitkat_sdcard_warning,
-                                             msg);
-            }
-            return msg;
-        }
-    }
-
     /**
      * Task to delete a file in the background
      */
@@ -7,7 +7,9 @@
  */
 package com.jefftharris.passwdsafe;
 
+import org.pwsafe.lib.crypto.SHA256Calibration;
 import org.pwsafe.lib.file.PwsFile;
+import org.pwsafe.lib.file.PwsFileV3;
 
 import android.app.Activity;
 import android.app.AlarmManager;
@@ -16,6 +18,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.text.TextUtils;
 
 import com.jefftharris.passwdsafe.file.PasswdFileUri;
@@ -91,8 +94,26 @@ public class PasswdSafeApp extends Application
 
         setPasswordEncodingPref(prefs);
         setPasswordDefaultSymsPref(prefs);
+        // Decode the fields of records in opened files as they are viewed
+        PwsFileV3.setLazyLoad(true);
         itsDefaultPasswdPolicy = Preferences.getDefPasswdPolicyPref(prefs,
                                                                     this);
+
+        // Measure the key stretching rate for new and re-keyed files
+        new AsyncTask<Void, Void, Long>()
+        {
+            @Override
+            protected Long doInBackground(Void... params)
+            {
+                return SHA256Calibration.calibrate();
+            }
+
+            @Override
+            protected void onPostExecute(Long rate)
+            {
+                PasswdSafeUtil.dbginfo(TAG, "Key stretch rate: %d/sec", rate);
+            }
+        }.execute();
     }
 
     /* (non-Javadoc)
@@ -23,6 +23,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
 import com.jefftharris.passwdsafe.lib.view.AbstractTextWatcher;
 import com.jefftharris.passwdsafe.lib.view.GuiUtils;
@@ -108,7 +109,7 @@ public class PasswdSafeChangePasswordFragment
     public void onResume()
     {
         super.onResume();
-        useFileData(new PasswdFileDataUser()
+        useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
@@ -20,7 +20,7 @@ import android.widget.CompoundButton;
 import android.widget.ListView;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
-import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.file.PasswdFileUri;
 import com.jefftharris.passwdsafe.file.PasswdRecordFilter;
 import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
@@ -183,7 +183,7 @@ public class PasswdSafeExpirationsFragment
     private void refresh()
     {
         final ObjectHolder<Pair<Boolean, Boolean>> rc = new ObjectHolder<>();
-        getListener().useFileData(new PasswdFileDataUser()
+        getListener().useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
@@ -212,7 +212,7 @@ public class PasswdSafeExpirationsFragment
      */
     private void setExpiryNotif(final boolean enabled)
     {
-        getListener().useFileData(new PasswdFileDataUser()
+        getListener().useFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
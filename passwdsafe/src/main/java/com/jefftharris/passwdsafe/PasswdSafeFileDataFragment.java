@@ -16,7 +16,9 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
+import com.jefftharris.passwdsafe.file.PasswdFileSnapshot;
 import com.jefftharris.passwdsafe.file.PasswdFileToken;
 import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
 import com.jefftharris.passwdsafe.view.PasswdFileDataView;
@@ -32,6 +34,16 @@ public class PasswdSafeFileDataFragment extends Fragment
     /** The open password file */
     private static PasswdFileData itsFileData;
 
+    /**
+     * The snapshot of the open password file, republished after each
+     * exclusive use of the file
+     */
+    private static volatile PasswdFileSnapshot itsSnapshot;
+
+    /** The scheduler of the saves of the open password file */
+    private static final FileSaveScheduler itsSaveScheduler =
+            new FileSaveScheduler();
+
     /** The last viewed record UUID */
     private static String itsLastViewedRecord;
 
@@ -108,7 +120,8 @@ public class PasswdSafeFileDataFragment extends Fragment
     }
 
     /**
-     * Use the password file data.  Only one thread will use the data at a time.
+     * Use the password file data.  Readers may use the data at the same time;
+     * otherwise, only one thread will use the data at a time.
      */
     public void useFileData(PasswdFileDataUser user)
     {
@@ -121,35 +134,57 @@ public class PasswdSafeFileDataFragment extends Fragment
         return itsFileDataView;
     }
 
-    /** Set the password file data */
+    /** Get the scheduler of the saves of the password file */
+    public @NonNull FileSaveScheduler getSaveScheduler()
+    {
+        return itsSaveScheduler;
+    }
+
+    /**
+     * Set the password file data.  A previous file is closed once its edits
+     * are saved in the background.
+     */
     public void setFileData(PasswdFileData fileData)
     {
-        PasswdFileToken token = acquireFileData();
+        final PasswdFileData prevFileData;
+        PasswdFileSnapshot snapshot;
+        PasswdFileToken token = acquireFileData(true);
         try {
-            if (itsFileData != null) {
+            prevFileData = itsFileData;
+            if (prevFileData != null) {
                 itsFileDataView.clearFileData();
-                itsFileData.close();
-                if (itsIsCloseClearClipboard) {
-                    PasswdSafeUtil.copyToClipboard("", getContext());
-                }
             }
             itsFileData = fileData;
+            snapshot = (fileData != null) ? fileData.getSnapshot() : null;
+            itsSnapshot = snapshot;
             itsLastViewedRecord = null;
-            itsFileDataView.setFileData(itsFileData);
         } finally {
             token.release();
         }
+        itsFileDataView.setFileData(snapshot);
+
+        if (prevFileData != null) {
+            final Context clearClipboardCtx = itsIsCloseClearClipboard ?
+                    getContext().getApplicationContext() : null;
+            itsSaveScheduler.flush(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    closeFileData(prevFileData, clearClipboardCtx);
+                }
+            });
+        }
+        itsSaveScheduler.setFileData(fileData);
     }
 
-    /** Refresh the password file data */
+    /**
+     * Refresh the password file data from its latest snapshot without
+     * waiting for other users of the file
+     */
     public void refreshFileData()
     {
-        PasswdFileToken token = acquireFileData();
-        try {
-            itsFileDataView.refreshFileData(token.getFileData());
-        } finally {
-            token.release();
-        }
+        itsFileDataView.refreshFileData(itsSnapshot);
     }
 
     /** Set the location in the file */
@@ -166,27 +201,67 @@ public class PasswdSafeFileDataFragment extends Fragment
      */
     public static void useOpenFileData(PasswdFileDataUser user)
     {
-        PasswdFileToken token = acquireFileData();
+        boolean exclusive = !(user instanceof PasswdFileDataReader);
+        PasswdFileToken token = acquireFileData(exclusive);
         try {
             PasswdFileData fileData = token.getFileData();
             if (fileData != null) {
                 user.useFileData(fileData);
+                if (exclusive && (fileData == itsFileData)) {
+                    itsSnapshot = fileData.getSnapshot();
+                }
             }
         } finally {
             token.release();
         }
     }
 
+    /**
+     * Get the latest snapshot of the open password file, which may be read
+     * without using the file data
+     *
+     * @return The snapshot; null if no file is open
+     */
+    public static @Nullable PasswdFileSnapshot getOpenFileSnapshot()
+    {
+        return itsSnapshot;
+    }
+
     /** Get the last viewed record */
     public static @Nullable String getLastViewedRecord()
     {
         return itsLastViewedRecord;
     }
 
-    /** Acquire the file data token */
+    /**
+     * Close a file which is no longer the open file
+     *
+     * @param clearClipboardCtx The context to clear the clipboard; null to
+     *                          leave it
+     */
+    private static void closeFileData(PasswdFileData fileData,
+                                      @Nullable Context clearClipboardCtx)
+    {
+        PasswdFileToken token = new PasswdFileToken(fileData, true);
+        try {
+            fileData.close();
+        } finally {
+            token.release();
+        }
+        if (clearClipboardCtx != null) {
+            PasswdSafeUtil.copyToClipboard("", clearClipboardCtx);
+        }
+    }
+
+    /**
+     * Acquire the file data token
+     *
+     * @param exclusive Whether the token is exclusive to modify the data or
+     *                  shared with other readers
+     */
     private static @NonNull @CheckResult
-    PasswdFileToken acquireFileData()
+    PasswdFileToken acquireFileData(boolean exclusive)
     {
-        return new PasswdFileToken(itsFileData);
+        return new PasswdFileToken(itsFileData, exclusive);
     }
 }
@@ -29,13 +29,15 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.TextView;
 
 import com.jefftharris.passwdsafe.file.PasswdFileData;
-import com.jefftharris.passwdsafe.file.PasswdFileDataUser;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
 import com.jefftharris.passwdsafe.lib.ApiCompat;
 import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
 import com.jefftharris.passwdsafe.lib.view.GuiUtils;
 import com.jefftharris.passwdsafe.lib.ObjectHolder;
 import com.jefftharris.passwdsafe.util.Pair;
 
+import java.nio.CharBuffer;
+
 /**
  *  Input method for selecting fields from a record
  *
@@ -284,6 +286,7 @@ public class PasswdSafeIME extends InputMethodService
         case EMAIL_KEY:
         case NOTES_KEY: {
             final ObjectHolder<String> keyStr = new ObjectHolder<>();
+            final ObjectHolder<CharBuffer> keyPasswd = new ObjectHolder<>();
             refresh(new RefreshUser()
             {
                 @Override
@@ -301,7 +304,7 @@ public class PasswdSafeIME extends InputMethodService
                     case PASSWORD_KEY: {
                         showPasswordWarning(!itsAllowPassword);
                         if (itsAllowPassword) {
-                            keyStr.set(fileData.getPassword(rec));
+                            keyPasswd.set(fileData.getPasswordChars(rec));
                             itsAllowPassword = itsIsPasswordField;
                         } else {
                             itsAllowPassword = true;
@@ -331,6 +334,14 @@ public class PasswdSafeIME extends InputMethodService
             if (str != null) {
                 conn.commitText(str, 1);
             }
+            CharBuffer passwd = keyPasswd.get();
+            if (passwd != null) {
+                try {
+                    conn.commitText(passwd, 1);
+                } finally {
+                    PasswdFileData.releasePassword(passwd);
+                }
+            }
             break;
         }
         case Keyboard.KEYCODE_DELETE: {
@@ -450,7 +461,7 @@ public class PasswdSafeIME extends InputMethodService
     private void refresh(@Nullable final RefreshUser user)
     {
         final ObjectHolder<Pair<String, String>> labels = new ObjectHolder<>();
-        PasswdSafeFileDataFragment.useOpenFileData(new PasswdFileDataUser()
+        PasswdSafeFileDataFragment.useOpenFileData(new PasswdFileDataReader()
         {
             @Override
             public void useFileData(@NonNull PasswdFileData fileData)
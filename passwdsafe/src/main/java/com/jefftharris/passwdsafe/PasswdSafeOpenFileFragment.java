@@ -13,6 +13,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.support.design.widget.TextInputLayout;
@@ -45,6 +46,7 @@ import com.jefftharris.passwdsafe.view.ConfirmPromptDialog;
 import com.jefftharris.passwdsafe.view.PasswordVisibilityMenuHandler;
 import com.jefftharris.passwdsafe.view.TextInputUtils;
 
+import org.pwsafe.lib.crypto.StretchMonitor;
 import org.pwsafe.lib.exception.InvalidPassphraseException;
 
 import java.io.IOException;
@@ -120,6 +122,8 @@ public class PasswdSafeOpenFileFragment
     private CheckBox itsYubikeyCb;
     private Button itsOkBtn;
     private OpenTask itsOpenTask;
+    private UnlockEstimateTask itsUnlockEstimateTask;
+    private Long itsUnlockEstimateMillis;
     private SavedPasswordsMgr itsSavedPasswordsMgr;
     private SavePasswordChange itsSaveChange = SavePasswordChange.NONE;
     private LoadSavedPasswordUser itsLoadSavedPasswordUser;
@@ -421,6 +425,11 @@ public class PasswdSafeOpenFileFragment
     {
         // Set fields enabled now that file URI has been set
         setFieldsEnabled(true);
+        PasswdFileUri uri = getPasswdFileUri();
+        if (uri != null) {
+            itsUnlockEstimateTask = new UnlockEstimateTask(uri, getContext());
+            itsUnlockEstimateTask.execute();
+        }
         setPhase(Phase.WAITING_PASSWORD);
     }
 
@@ -430,6 +439,10 @@ public class PasswdSafeOpenFileFragment
     @Override
     protected final void doCancelFragment(boolean userCancel)
     {
+        if (itsUnlockEstimateTask != null) {
+            itsUnlockEstimateTask.cancel(false);
+            itsUnlockEstimateTask = null;
+        }
         if (itsOpenTask != null) {
             OpenTask task = itsOpenTask;
             itsOpenTask = null;
@@ -631,7 +644,7 @@ public class PasswdSafeOpenFileFragment
      */
     private void enterOpeningPhase()
     {
-        setTitle(R.string.loading_file);
+        setOpeningTitle();
         TextInputUtils.setTextInputError(null, itsPasswordInput);
 
         boolean readonly = itsReadonlyCb.isChecked();
@@ -734,10 +747,33 @@ public class PasswdSafeOpenFileFragment
         itsListener.handleFileOpen(fileData, itsRecToOpen);
     }
 
+    /**
+     * Set the title while opening the file, with the estimated unlock time
+     * if known
+     */
+    private void setOpeningTitle()
+    {
+        if (itsUnlockEstimateMillis == null) {
+            setTitle(R.string.loading_file);
+        } else {
+            itsTitle.setText(getActivity().getString(
+                    R.string.loading_file_estimate, getFileTitle(),
+                    itsUnlockEstimateMillis / 1000.0));
+        }
+    }
+
     /**
      * Set the title
      */
     private void setTitle(int label)
+    {
+        itsTitle.setText(getActivity().getString(label, getFileTitle()));
+    }
+
+    /**
+     * Get the title of the file
+     */
+    private String getFileTitle()
     {
         String title;
         PasswdFileUri passwdFileUri = getPasswdFileUri();
@@ -750,7 +786,7 @@ public class PasswdSafeOpenFileFragment
         if (PasswdSafeApp.DEBUG_AUTO_FILE != null) {
             title += " - AUTOOPEN!!!!!";
         }
-        itsTitle.setText(getActivity().getString(label, title));
+        return title;
     }
 
     /**
@@ -816,12 +852,17 @@ public class PasswdSafeOpenFileFragment
     }
 
     /**
-     * Background task for opening the file
+     * Background task for opening the file.  The progress of stretching the
+     * password is shown, and canceling the task stops the stretching.
      */
     private class OpenTask extends BackgroundTask<OpenResult>
+            implements StretchMonitor
     {
+        private static final int PROGRESS_MAX = 100;
+
         private final StringBuilder itsItsPassword;
         private final boolean itsItsIsReadOnly;
+        private int itsProgress = -1;
 
         public OpenTask(StringBuilder itsPassword, boolean itsIsReadOnly)
         {
@@ -836,7 +877,8 @@ public class PasswdSafeOpenFileFragment
                     new PasswdFileData(getPasswdFileUri());
             try {
                 fileData.setYubikey(itsIsYubikey);
-                fileData.load(itsItsPassword, itsItsIsReadOnly, getActivity());
+                fileData.load(itsItsPassword, itsItsIsReadOnly, this,
+                              getActivity());
             } catch (Exception e) {
                 return new OpenResult(null, null, e);
             }
@@ -862,6 +904,31 @@ public class PasswdSafeOpenFileFragment
             return new OpenResult(fileData, keygenError, null);
         }
 
+        @Override
+        public void stretchProgress(float fraction)
+        {
+            int progress = (int)(fraction * PROGRESS_MAX);
+            if (progress != itsProgress) {
+                itsProgress = progress;
+                publishProgress(progress);
+            }
+        }
+
+        @Override
+        public boolean isStretchCanceled()
+        {
+            return isCancelled();
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values)
+        {
+            ProgressBar progress = getProgress();
+            progress.setIndeterminate(false);
+            progress.setMax(PROGRESS_MAX);
+            progress.setProgress(values[0]);
+        }
+
         @Override
         protected void onPostExecute(OpenResult data)
         {
@@ -870,6 +937,50 @@ public class PasswdSafeOpenFileFragment
         }
     }
 
+    /**
+     * Background task to estimate the time to unlock the file from the
+     * iterations in its header
+     */
+    private class UnlockEstimateTask extends AsyncTask<Void, Void, Long>
+    {
+        private final PasswdFileUri itsUri;
+        private final Context itsContext;
+
+        public UnlockEstimateTask(PasswdFileUri uri, Context ctx)
+        {
+            itsUri = uri;
+            itsContext = ctx.getApplicationContext();
+        }
+
+        @Override
+        protected Long doInBackground(Void... voids)
+        {
+            try {
+                int iters = itsUri.readHashIterations(itsContext);
+                if (iters > 0) {
+                    return PasswdFileData.getPredictedUnlockMillis(iters);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Error reading hash iterations", e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Long millis)
+        {
+            if (itsUnlockEstimateTask != this) {
+                return;
+            }
+            itsUnlockEstimateTask = null;
+            itsUnlockEstimateMillis = millis;
+            PasswdSafeUtil.dbginfo(TAG, "Unlock estimate: %d ms", millis);
+            if ((millis != null) && (itsPhase == Phase.OPENING)) {
+                setOpeningTitle();
+            }
+        }
+    }
+
     /**
      * User of the YubikeyMgr
      */
@@ -24,6 +24,7 @@ import android.widget.ListView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.jefftharris.passwdsafe.file.PasswdFileData;
 import com.jefftharris.passwdsafe.lib.view.GuiUtils;
 import com.jefftharris.passwdsafe.lib.ObjectHolder;
 import com.jefftharris.passwdsafe.view.CopyField;
@@ -32,6 +33,8 @@ import com.jefftharris.passwdsafe.lib.view.TypefaceUtils;
 
 import org.pwsafe.lib.file.PwsRecord;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -44,6 +47,8 @@ public class PasswdSafeRecordBasicFragment
         implements View.OnClickListener
 {
     private boolean itsIsPasswordShown = false;
+    /** The characters of the password shown in its field; null if hidden */
+    private char[] itsShownPassword = null;
     private String itsHiddenPasswordStr;
     private String itsTitle;
     private View itsBaseRow;
@@ -319,11 +324,14 @@ public class PasswdSafeRecordBasicFragment
 
         itsIsPasswordShown = false;
         itsHiddenPasswordStr = getString(hiddenId);
-        String password = info.itsFileData.getPassword(recForPassword);
+        CharBuffer password =
+                info.itsFileData.getPasswordChars(recForPassword);
         setFieldText(itsPassword, itsPasswordRow,
                      ((password != null) ? itsHiddenPasswordStr : null));
         itsPasswordSeek.setMax((password != null) ? password.length() : 0);
         itsPasswordSeek.setProgress(0);
+        PasswdFileData.releasePassword(password);
+        setShownPassword(null);
 
         setFieldText(itsUrl, itsUrlRow, url);
         setFieldText(itsEmail, itsEmailRow, email);
@@ -392,23 +400,27 @@ public class PasswdSafeRecordBasicFragment
      */
     private void updatePasswordShown(boolean isToggle, int progress)
     {
-        String password;
         if (isToggle) {
             itsIsPasswordShown = !itsIsPasswordShown;
-            password = itsIsPasswordShown ? getPassword() : itsHiddenPasswordStr;
             itsPasswordSeek.setProgress(
                     itsIsPasswordShown ? itsPasswordSeek.getMax() : 0);
-        } else if (progress == 0) {
-            itsIsPasswordShown = false;
-            password = itsHiddenPasswordStr;
+            progress = Integer.MAX_VALUE;
         } else {
-            itsIsPasswordShown = true;
-            password = getPassword();
-            if ((password != null) && (progress < password.length())) {
-                password = password.substring(0, progress) + "…";
+            itsIsPasswordShown = (progress != 0);
+        }
+
+        if (itsIsPasswordShown) {
+            char[] password = getPassword(progress);
+            if (password != null) {
+                itsPassword.setText(password, 0, password.length);
+            } else {
+                itsPassword.setText(null);
             }
+            setShownPassword(password);
+        } else {
+            itsPassword.setText(itsHiddenPasswordStr);
+            setShownPassword(null);
         }
-        itsPassword.setText(password);
         Activity act = getActivity();
         TypefaceUtils.enableMonospace(itsPassword, itsIsPasswordShown, act);
         GuiUtils.invalidateOptionsMenu(act);
@@ -447,19 +459,55 @@ public class PasswdSafeRecordBasicFragment
     }
 
     /**
-     * Get the password
+     * Get the characters of the password to show without creating a String
+     *
+     * @param maxLen The number of characters to show; a longer password is
+     *               truncated with an ellipsis
+     * @return The characters; null if there is no password
      */
-    private String getPassword()
+    private char[] getPassword(final int maxLen)
     {
-        final ObjectHolder<String> password = new ObjectHolder<>();
+        final ObjectHolder<char[]> password = new ObjectHolder<>();
         useRecordInfo(new RecordInfoUser()
         {
             @Override
             public void useRecordInfo(@NonNull RecordInfo info)
             {
-                password.set(info.itsPasswdRec.getPassword(info.itsFileData));
+                CharBuffer chars =
+                        info.itsPasswdRec.getPasswordChars(info.itsFileData);
+                if (chars == null) {
+                    return;
+                }
+                try {
+                    int len = chars.remaining();
+                    char[] shown;
+                    if (maxLen < len) {
+                        shown = new char[maxLen + 1];
+                        chars.get(shown, 0, maxLen);
+                        shown[maxLen] = '…';
+                    } else {
+                        shown = new char[len];
+                        chars.get(shown);
+                    }
+                    password.set(shown);
+                } finally {
+                    PasswdFileData.releasePassword(chars);
+                }
             }
         });
         return password.get();
     }
+
+    /**
+     * Set the characters of the password shown in its field.  The field
+     * displays the characters without copying them, so the previous
+     * characters are zeroed once they are replaced.
+     */
+    private void setShownPassword(char[] password)
+    {
+        if ((itsShownPassword != null) && (itsShownPassword != password)) {
+            Arrays.fill(itsShownPassword, '\0');
+        }
+        itsShownPassword = password;
+    }
 }
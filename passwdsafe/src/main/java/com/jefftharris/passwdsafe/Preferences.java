@@ -21,6 +21,7 @@ import android.text.TextUtils;
 import com.jefftharris.passwdsafe.file.PasswdPolicy;
 import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
 import com.jefftharris.passwdsafe.pref.FileBackupPref;
+import com.jefftharris.passwdsafe.pref.FileSaveDelayPref;
 import com.jefftharris.passwdsafe.pref.FileTimeoutPref;
 import com.jefftharris.passwdsafe.pref.PasswdExpiryNotifPref;
 import com.jefftharris.passwdsafe.pref.RecordSortOrderPref;
@@ -47,6 +48,10 @@ public class Preferences
     private static final FileBackupPref PREF_FILE_BACKUP_DEF =
         FileBackupPref.BACKUP_1;
 
+    public static final String PREF_FILE_SAVE_DELAY = "fileSaveDelayPref";
+    private static final FileSaveDelayPref PREF_FILE_SAVE_DELAY_DEF =
+        FileSaveDelayPref.DELAY_2_SEC;
+
     public static final String PREF_FILE_CLOSE_CLEAR_CLIPBOARD =
         "fileCloseClearClipboardPref";
     public static final boolean PREF_FILE_CLOSE_CLEAR_CLIPBOARD_DEF = true;
@@ -166,6 +171,18 @@ public class Preferences
         }
     }
 
+    public static FileSaveDelayPref getFileSaveDelayPref(
+            SharedPreferences prefs)
+    {
+        try {
+            return FileSaveDelayPref.prefValueOf(
+                prefs.getString(PREF_FILE_SAVE_DELAY,
+                                PREF_FILE_SAVE_DELAY_DEF.getValue()));
+        } catch (IllegalArgumentException e) {
+            return PREF_FILE_SAVE_DELAY_DEF;
+        }
+    }
+
     public static boolean getFileCloseClearClipboardPref(SharedPreferences prefs)
     {
         return prefs.getBoolean(PREF_FILE_CLOSE_CLEAR_CLIPBOARD,
@@ -28,6 +28,7 @@ import com.jefftharris.passwdsafe.file.PasswdFileUri;
 import com.jefftharris.passwdsafe.file.PasswdPolicy;
 import com.jefftharris.passwdsafe.lib.ApiCompat;
 import com.jefftharris.passwdsafe.pref.FileBackupPref;
+import com.jefftharris.passwdsafe.pref.FileSaveDelayPref;
 import com.jefftharris.passwdsafe.pref.FileTimeoutPref;
 import com.jefftharris.passwdsafe.pref.PasswdExpiryNotifPref;
 import com.jefftharris.passwdsafe.pref.RecordSortOrderPref;
@@ -72,6 +73,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat
     private Preference itsDefFilePref;
     private ListPreference itsFileClosePref;
     private ListPreference itsFileBackupPref;
+    private ListPreference itsFileSaveDelayPref;
     private ListPreference itsPasswdEncPref;
     private ListPreference itsPasswdExpiryNotifPref;
     private EditTextPreference itsPasswdDefaultSymsPref;
@@ -123,6 +125,13 @@ public class PreferencesFragment extends PreferenceFragmentCompat
         itsFileBackupPref.setEntryValues(FileBackupPref.getValues());
         onSharedPreferenceChanged(prefs, Preferences.PREF_FILE_BACKUP);
 
+        itsFileSaveDelayPref = (ListPreference)
+                findPreference(Preferences.PREF_FILE_SAVE_DELAY);
+        itsFileSaveDelayPref.setEntries(
+                FileSaveDelayPref.getDisplayNames(res));
+        itsFileSaveDelayPref.setEntryValues(FileSaveDelayPref.getValues());
+        onSharedPreferenceChanged(prefs, Preferences.PREF_FILE_SAVE_DELAY);
+
         itsPasswdEncPref = (ListPreference)
                 findPreference(Preferences.PREF_PASSWD_ENC);
         String[] charsets =  PwsFile.ALL_PASSWORD_CHARSETS.toArray(
@@ -223,6 +232,12 @@ public class PreferencesFragment extends PreferenceFragmentCompat
             itsFileBackupPref.setSummary(pref.getDisplayName(getResources()));
             break;
         }
+        case Preferences.PREF_FILE_SAVE_DELAY: {
+            FileSaveDelayPref pref = Preferences.getFileSaveDelayPref(prefs);
+            itsFileSaveDelayPref.setSummary(
+                    pref.getDisplayName(getResources()));
+            break;
+        }
         case Preferences.PREF_PASSWD_ENC: {
             itsPasswdEncPref.setSummary(
                     Preferences.getPasswordEncodingPref(prefs));
@@ -47,6 +47,12 @@ public class HeaderPasswdPolicies
         {
             ++itsUseCount;
         }
+
+        /** Decrement the number of records referencing this policy */
+        public void decUseCount()
+        {
+            --itsUseCount;
+        }
     }
 
     private final TreeMap<String, HdrPolicy> itsPolicies = new TreeMap<>();
@@ -66,19 +72,35 @@ public class HeaderPasswdPolicies
             }
         }
         for (PasswdRecord rec: recs) {
-            PasswdPolicy recPolicy = rec.getPasswdPolicy();
-            if ((recPolicy != null) &&
-                (recPolicy.getLocation() ==
-                 PasswdPolicy.Location.RECORD_NAME)) {
-                HeaderPasswdPolicies.HdrPolicy hdrPolicy =
-                    itsPolicies.get(recPolicy.getName());
-                if (hdrPolicy != null) {
-                    hdrPolicy.incUseCount();
-                }
+            HeaderPasswdPolicies.HdrPolicy hdrPolicy =
+                getRecordHdrPolicy(rec.getPasswdPolicy());
+            if (hdrPolicy != null) {
+                hdrPolicy.incUseCount();
             }
         }
     }
 
+    /**
+     * Update the use counts for a record whose policy changed, was added,
+     * or was removed
+     *
+     * @param oldPolicy The record's previous policy; null if none
+     * @param newPolicy The record's new policy; null if none
+     */
+    public void recordPolicyChanged(PasswdPolicy oldPolicy,
+                                    PasswdPolicy newPolicy)
+    {
+        HeaderPasswdPolicies.HdrPolicy hdrPolicy =
+            getRecordHdrPolicy(oldPolicy);
+        if (hdrPolicy != null) {
+            hdrPolicy.decUseCount();
+        }
+        hdrPolicy = getRecordHdrPolicy(newPolicy);
+        if (hdrPolicy != null) {
+            hdrPolicy.incUseCount();
+        }
+    }
+
     /** Get the named password policy */
     public PasswdPolicy getPasswdPolicy(String name)
     {
@@ -106,6 +128,17 @@ public class HeaderPasswdPolicies
         return itsPolicies.containsKey(name);
     }
 
+    /** Get the header policy named by a record's policy; null if none */
+    private HeaderPasswdPolicies.HdrPolicy getRecordHdrPolicy(
+        PasswdPolicy recPolicy)
+    {
+        if ((recPolicy == null) ||
+            (recPolicy.getLocation() != PasswdPolicy.Location.RECORD_NAME)) {
+            return null;
+        }
+        return itsPolicies.get(recPolicy.getName());
+    }
+
     /** Get the collection of header policies */
     public Collection<HeaderPasswdPolicies.HdrPolicy> getPolicies()
     {
@@ -9,12 +9,12 @@ package com.jefftharris.passwdsafe.file;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -22,11 +22,15 @@ import java.util.Locale;
 import java.util.Map;
 
 import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.UUIDMap;
 import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.SHA256Calibration;
+import org.pwsafe.lib.crypto.StretchMonitor;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+import org.pwsafe.lib.file.AbstractPwsPasswdField;
 import org.pwsafe.lib.file.PwsByteField;
 import org.pwsafe.lib.file.PwsField;
 import org.pwsafe.lib.file.PwsFieldTypeV2;
@@ -65,14 +69,37 @@ public class PasswdFileData
 {
     private PasswdFileUri itsUri;
     private PwsFile itsPwsFile;
-    private final HashMap<String, PwsRecord> itsRecordsByUUID = new HashMap<>();
+    private final UUIDMap<PwsRecord> itsRecordsByUUID = new UUIDMap<>();
     private final Map<PwsRecord, PasswdRecord> itsPasswdRecords =
         new IdentityHashMap<>();
     private final ArrayList<PwsRecord> itsRecords = new ArrayList<>();
     private HeaderPasswdPolicies itsHdrPolicies = new HeaderPasswdPolicies();
+    private PasswdFileSnapshot itsSnapshot = null;
     private boolean itsIsOpenReadOnly = false;
     private boolean itsIsYubikey = false;
 
+    /**
+     * A save of the file which is prepared with the file's edits and
+     * encrypted, so it may be written without using the file data
+     */
+    public static final class PreparedSave
+    {
+        private final PwsFile itsFile;
+        private final byte[] itsEncrypted;
+        private final PasswdFileSnapshot itsSnapshot;
+
+        /**
+         * Constructor
+         */
+        private PreparedSave(PwsFile file, byte[] encrypted,
+                             PasswdFileSnapshot snapshot)
+        {
+            itsFile = file;
+            itsEncrypted = encrypted;
+            itsSnapshot = snapshot;
+        }
+    }
+
     private static final List<PasswdFileDataObserver> itsObservers =
             new ArrayList<>();
 
@@ -81,18 +108,32 @@ public class PasswdFileData
     private static final int FIELD_UNSUPPORTED = -1;
     private static final int FIELD_NOT_PRESENT = -2;
 
+    /** Target time to stretch the password of a new or re-keyed file */
+    private static final long UNLOCK_TARGET_MILLIS = 500;
+
     public PasswdFileData(PasswdFileUri uri)
     {
         itsUri = uri;
     }
 
-    public void load(StringBuilder passwd, boolean readonly, Context context)
+    /**
+     * Load the file
+     *
+     * @param monitor the monitor of the password stretching which may cancel
+     *                the load; null if not monitored
+     */
+    public void load(StringBuilder passwd, boolean readonly,
+                     StretchMonitor monitor, Context context)
         throws IOException, NoSuchAlgorithmException,
             EndOfFileException, InvalidPassphraseException,
             UnsupportedFileVersionException
     {
         itsIsOpenReadOnly = readonly;
-        itsPwsFile = itsUri.load(passwd, context);
+        itsPwsFile = itsUri.load(passwd, monitor, context);
+        if (itsPwsFile instanceof PwsFileV3) {
+            PasswdSafeUtil.dbginfo(TAG, "open timings: %s",
+                                   ((PwsFileV3)itsPwsFile).getOpenTimings());
+        }
 
         if (itsIsOpenReadOnly || !itsUri.isWritable().first) {
             itsPwsFile.setReadOnly(true);
@@ -104,6 +145,7 @@ public class PasswdFileData
         throws IOException, NoSuchAlgorithmException
     {
         itsPwsFile = itsUri.createNew(passwd, context);
+        setCalibratedHashIterations(false);
         save(context);
         finishOpenFile(passwd);
     }
@@ -112,27 +154,59 @@ public class PasswdFileData
         throws IOException, NoSuchAlgorithmException,
                ConcurrentModificationException
     {
-        if (itsPwsFile != null) {
-            for (int idx = 0; idx < itsRecords.size(); ++idx) {
-                PwsRecord rec = itsRecords.get(idx);
-                if (rec.isModified()) {
-                    PasswdSafeUtil.dbginfo(TAG, "Updating idx: %d", idx);
-                    itsPwsFile.set(idx, rec);
-                    rec.resetModified();
-                }
-            }
+        writeSave(prepareSave(context), context);
+    }
 
-            setSaveHdrFields(context);
+    /**
+     * Prepare to save the file by updating its records and header fields
+     * with the edits and encrypting its contents.  Must be called with an
+     * exclusive file token.
+     *
+     * @return The save to write; null if the file is closed
+     */
+    public PreparedSave prepareSave(Context context)
+        throws IOException, NoSuchAlgorithmException
+    {
+        if (itsPwsFile == null) {
+            return null;
+        }
 
-            PwsStorage storage = itsPwsFile.getStorage();
-            try {
-                storage.setSaveHelper(new PasswdFileUri.SaveHelper(context));
-                itsPwsFile.save();
-                notifyObservers(this);
-            } finally {
-                storage.setSaveHelper(null);
+        for (int idx = 0; idx < itsRecords.size(); ++idx) {
+            PwsRecord rec = itsRecords.get(idx);
+            if (rec.isModified()) {
+                PasswdSafeUtil.dbginfo(TAG, "Updating idx: %d", idx);
+                itsPwsFile.set(idx, rec);
+                rec.resetModified();
             }
         }
+
+        setSaveHdrFields(context);
+        return new PreparedSave(itsPwsFile, itsPwsFile.encryptForSave(),
+                                getSnapshot());
+    }
+
+    /**
+     * Write a prepared save of the file to its storage.  The write doesn't
+     * use the file data, so it is called without a file token, and the file
+     * may be used and edited while it is written.  Only one write may run at
+     * a time.
+     *
+     * @param save The save to write; null if the file was closed
+     */
+    public static void writeSave(PreparedSave save, Context context)
+        throws IOException, ConcurrentModificationException
+    {
+        if (save == null) {
+            return;
+        }
+        PwsStorage storage = save.itsFile.getStorage();
+        try {
+            storage.setSaveHelper(new PasswdFileUri.SaveHelper(context));
+            save.itsFile.saveEncrypted(save.itsEncrypted);
+            notifyObservers(save.itsSnapshot);
+        } finally {
+            storage.setSaveHelper(null);
+        }
     }
 
     public void close()
@@ -153,6 +227,15 @@ public class PasswdFileData
         return itsRecordsByUUID.get(uuid);
     }
 
+    /**
+     * Get a record by the high and low halves of its UUID, as referenced by
+     * the password of an alias or shortcut
+     */
+    public PwsRecord getRecord(long uuidHigh, long uuidLow)
+    {
+        return itsRecordsByUUID.get(uuidHigh, uuidLow);
+    }
+
     public PasswdRecord getPasswdRecord(PwsRecord rec)
     {
         return itsPasswdRecords.get(rec);
@@ -164,6 +247,32 @@ public class PasswdFileData
         return itsPasswdRecords.values();
     }
 
+    /**
+     * Get an immutable snapshot of the file's records which may be read
+     * without a file token.  The snapshot is reused while the records are
+     * unchanged, and the values of unchanged records are shared with the
+     * previous snapshot.  Must be called with a file token.
+     */
+    public synchronized PasswdFileSnapshot getSnapshot()
+    {
+        ArrayList<PasswdFileSnapshot.Record> recs =
+            new ArrayList<>(itsRecords.size());
+        for (PwsRecord rec: itsRecords) {
+            PasswdRecord passwdRec = itsPasswdRecords.get(rec);
+            if (passwdRec != null) {
+                recs.add(passwdRec.getSnapshot(this));
+            }
+        }
+
+        PasswdFileSnapshot snapshot = itsSnapshot;
+        if ((snapshot == null) || (snapshot.getUri() != itsUri) ||
+            !snapshot.hasRecords(recs)) {
+            snapshot = new PasswdFileSnapshot(itsUri, recs);
+            itsSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
     public PwsRecord createRecord()
     {
         if (itsPwsFile != null) {
@@ -178,7 +287,7 @@ public class PasswdFileData
     {
         if (itsPwsFile != null) {
             itsPwsFile.add(rec);
-            indexRecords();
+            indexAddedRecord(rec);
         }
     }
 
@@ -200,25 +309,15 @@ public class PasswdFileData
                 break;
             }
 
-            String recuuid = getUUID(rec);
-            if (recuuid == null) {
+            int idx = 0;
+            while ((idx < itsRecords.size()) && (itsRecords.get(idx) != rec)) {
+                ++idx;
+            }
+            if ((idx == itsRecords.size()) || !itsPwsFile.removeRecord(idx)) {
                 errMsg = R.string.record_not_found;
                 break;
             }
-
-            for (int i = 0; i < itsRecords.size(); ++i) {
-                PwsRecord r = itsRecords.get(i);
-                String ruuid = getUUID(r);
-                if (recuuid.equals(ruuid)) {
-                    boolean rc = itsPwsFile.removeRecord(i);
-                    if (rc) {
-                        indexRecords();
-                    } else {
-                        errMsg = R.string.record_not_found;
-                    }
-                    break;
-                }
-            }
+            unindexRecord(idx, passwdRec);
         } while(false);
 
         if (errMsg != 0) {
@@ -233,6 +332,52 @@ public class PasswdFileData
     public final void changePasswd(StringBuilder passwd)
     {
         itsPwsFile.setPassphrase(passwd);
+        setCalibratedHashIterations(true);
+    }
+
+    /**
+     * Get the number of iterations used to stretch the file's password
+     *
+     * @return The iterations; -1 if not a V3 file
+     */
+    public final int getHashIterations()
+    {
+        return isV3() ? ((PwsFileV3)itsPwsFile).getHashIterations() : -1;
+    }
+
+    /**
+     * Get the predicted time in milliseconds to unlock a file whose password
+     * is stretched with the given number of iterations
+     */
+    public static long getPredictedUnlockMillis(int hashIters)
+    {
+        return SHA256Calibration.predictMillis(hashIters);
+    }
+
+    /**
+     * Set the iterations used to stretch the password of a V3 file so it
+     * unlocks in the target time on this device
+     *
+     * @param raiseOnly Whether to keep the file's iterations if they are
+     *                  already at least the calibrated count, so a file set
+     *                  up on a faster device, or with more iterations than
+     *                  the calibration allows, isn't weakened
+     */
+    private void setCalibratedHashIterations(boolean raiseOnly)
+    {
+        if (isV3()) {
+            PwsFileV3 file = (PwsFileV3)itsPwsFile;
+            int iters = SHA256Calibration.getIterations(
+                    UNLOCK_TARGET_MILLIS, PwsFileV3.MIN_HASH_ITERATIONS,
+                    PwsFileV3.MAX_HASH_ITERATIONS);
+            if (raiseOnly && (file.getHashIterations() >= iters)) {
+                PasswdSafeUtil.dbginfo(TAG, "Keep hash iterations: %d",
+                                       file.getHashIterations());
+                return;
+            }
+            PasswdSafeUtil.dbginfo(TAG, "Hash iterations: %d", iters);
+            file.setHashIterations(iters);
+        }
     }
 
     public final PasswdFileUri getUri()
@@ -369,6 +514,44 @@ public class PasswdFileData
         return getField(rec, PwsRecordV3.PASSWORD);
     }
 
+    /**
+     * Get the password of a record without creating a String.  The caller
+     * owns the returned buffer and should release it with
+     * {@link #releasePassword(CharBuffer)} when done.
+     *
+     * @return The password characters; null if not present
+     */
+    public final CharBuffer getPasswordChars(PwsRecord rec)
+    {
+        PwsField field = doGetRecField(rec, PwsRecordV3.PASSWORD);
+        if (field == null) {
+            return null;
+        } else if (field instanceof AbstractPwsPasswdField) {
+            return ((AbstractPwsPasswdField)field).getChars();
+        } else {
+            return CharBuffer.wrap(field.toString());
+        }
+    }
+
+    /**
+     * Get the password field of a record.  Its reference to another record
+     * can be checked without unsealing the password.
+     *
+     * @return The field; null if not present
+     */
+    public final AbstractPwsPasswdField getPasswordField(PwsRecord rec)
+    {
+        PwsField field = doGetRecField(rec, PwsRecordV3.PASSWORD);
+        return (field instanceof AbstractPwsPasswdField) ?
+            (AbstractPwsPasswdField)field : null;
+    }
+
+    /** Release password characters by zeroing them */
+    public static void releasePassword(CharBuffer passwd)
+    {
+        Util.clear(passwd);
+    }
+
     public final void setPassword(String oldPasswd, String newPasswd,
                                   PwsRecord rec)
     {
@@ -629,11 +812,10 @@ public class PasswdFileData
                                        getId(rec.getRecord()));
 
                 setPasswdPolicyImpl(recPolicy, rec.getRecord(), false);
+                rec.passwdPolicyChanged(this);
             }
-            indexRecords();
-        } else {
-            indexPasswdPolicies();
         }
+        indexPasswdPolicies();
     }
 
     private static int hexBytesToInt(byte[] bytes, int pos, int len)
@@ -691,9 +873,11 @@ public class PasswdFileData
         if (index) {
             PasswdRecord passwdRec = getPasswdRecord(rec);
             if (passwdRec != null) {
+                PasswdPolicy oldPolicy = passwdRec.getPasswdPolicy();
                 passwdRec.passwdPolicyChanged(this);
+                itsHdrPolicies.recordPolicyChanged(
+                    oldPolicy, passwdRec.getPasswdPolicy());
             }
-            indexPasswdPolicies();
         }
     }
 
@@ -1048,6 +1232,29 @@ public class PasswdFileData
         }
     }
 
+    /**
+     * Get the string value of a record's field after translating its field
+     * identifier.  A field left in the file's payload by a lazy load is
+     * decoded without storing it in the record.  Must be called with a file
+     * token while the file is open.
+     *
+     * @return The value; null if not present or not supported by the file
+     */
+    final String getDecodedField(PwsRecord rec, int fieldId)
+    {
+        fieldId = getVersionFieldId(fieldId);
+        switch (fieldId) {
+        case FIELD_UNSUPPORTED:
+        case FIELD_NOT_PRESENT: {
+            return null;
+        }
+        default: {
+            PwsField field = rec.getStoredField(fieldId);
+            return (field != null) ? field.getDecoded().toString() : null;
+        }
+        }
+    }
+
     /** Get a non-header record's field after translating its field
      * identifier */
     private PwsField doGetRecField(PwsRecord rec, int fieldId)
@@ -1208,10 +1415,15 @@ public class PasswdFileData
         //noinspection UnusedAssignment
         passwd = null;
         indexRecords();
-        notifyObservers(this);
+        notifyObservers(getSnapshot());
         PasswdSafeUtil.dbginfo(TAG, "file loaded");
     }
 
+    /**
+     * Rebuild the indexes of all of the records.  Only done when the file is
+     * opened or closed; records added, removed, or changed afterwards update
+     * only their own entries.
+     */
     private void indexRecords()
     {
         itsRecords.clear();
@@ -1222,38 +1434,90 @@ public class PasswdFileData
             Iterator<PwsRecord> recIter = itsPwsFile.getRecords();
             while (recIter.hasNext()) {
                 PwsRecord rec = recIter.next();
-                String uuid = getUUID(rec);
-                if (uuid == null) {
-                    // Add a UUID field for records without one.  The record
-                    // will not be marked as modified unless the user manually
-                    // edits it.
-                    PwsUUIDField uuidField = new PwsUUIDField(
-                        isV2() ? PwsFieldTypeV2.UUID : PwsFieldTypeV3.UUID,
-                        new UUID());
-                    boolean modified = rec.isModified();
-                    rec.setField(uuidField);
-                    if (!modified) {
-                        rec.resetModified();
-                    }
-                    uuid = uuidField.toString();
-                }
-
                 itsRecords.add(rec);
-                itsRecordsByUUID.put(uuid, rec);
+                indexRecordUUID(rec);
             }
         }
         for (PwsRecord rec: itsRecords) {
             itsPasswdRecords.put(rec, new PasswdRecord(rec, this));
         }
         for (PasswdRecord passwdRec: itsPasswdRecords.values()) {
-            PwsRecord ref = passwdRec.getRef();
+            addRecordRef(passwdRec);
+        }
+
+        indexPasswdPolicies();
+    }
+
+    /** Add the indexes for a record added to the end of the file */
+    private void indexAddedRecord(PwsRecord rec)
+    {
+        itsRecords.add(rec);
+        indexRecordUUID(rec);
+        PasswdRecord passwdRec = new PasswdRecord(rec, this);
+        itsPasswdRecords.put(rec, passwdRec);
+        addRecordRef(passwdRec);
+        itsHdrPolicies.recordPolicyChanged(null, passwdRec.getPasswdPolicy());
+    }
+
+    /** Remove the indexes for a record removed from a position in the file */
+    private void unindexRecord(int idx, PasswdRecord passwdRec)
+    {
+        PwsRecord rec = itsRecords.remove(idx);
+        PwsField uuid = doGetRecField(rec, PwsRecordV3.UUID);
+        if (uuid != null) {
+            Object uuidVal = uuid.getValue();
+            if (uuidVal instanceof UUID) {
+                itsRecordsByUUID.remove((UUID)uuidVal);
+            } else {
+                itsRecordsByUUID.remove(uuid.toString());
+            }
+        }
+        itsPasswdRecords.remove(rec);
+        PwsRecord ref = passwdRec.getRef();
+        if (ref != null) {
             PasswdRecord referencedRecord = itsPasswdRecords.get(ref);
             if (referencedRecord != null) {
-                referencedRecord.addRefToRecord(passwdRec.getRecord());
+                referencedRecord.removeRefToRecord(rec);
             }
         }
+        itsHdrPolicies.recordPolicyChanged(passwdRec.getPasswdPolicy(), null);
+    }
 
-        indexPasswdPolicies();
+    /** Add a record to the UUID index, adding a UUID if it has none */
+    private void indexRecordUUID(PwsRecord rec)
+    {
+        PwsField uuid = doGetRecField(rec, PwsRecordV3.UUID);
+        if (uuid == null) {
+            // Add a UUID field for records without one.  The record
+            // will not be marked as modified unless the user manually
+            // edits it.
+            PwsUUIDField uuidField = new PwsUUIDField(
+                isV2() ? PwsFieldTypeV2.UUID : PwsFieldTypeV3.UUID,
+                new UUID());
+            boolean modified = rec.isModified();
+            rec.setField(uuidField);
+            if (!modified) {
+                rec.resetModified();
+            }
+            uuid = uuidField;
+        }
+
+        Object uuidVal = uuid.getValue();
+        if (uuidVal instanceof UUID) {
+            itsRecordsByUUID.put((UUID)uuidVal, rec);
+        } else {
+            itsRecordsByUUID.put(uuid.toString(), rec);
+        }
+    }
+
+    /** Add the link from the record referenced by an alias or shortcut */
+    private void addRecordRef(PasswdRecord passwdRec)
+    {
+        PwsRecord ref = passwdRec.getRef();
+        PasswdRecord referencedRecord = itsPasswdRecords.get(ref);
+        if (referencedRecord != null) {
+            referencedRecord.addRefToRecord(passwdRec.getRecord());
+        }
     }
 
     /** Index the password policies */
@@ -1339,25 +1603,26 @@ public class PasswdFileData
 
 
     /** Notify observer of file changes */
-    private static void notifyObservers(PasswdFileData fileData)
+    private static void notifyObservers(PasswdFileSnapshot snapshot)
     {
-        AsyncTask<PasswdFileData, Void, PasswdFileData> notifyTask =
-            new AsyncTask<PasswdFileData, Void, PasswdFileData>()
+        AsyncTask<PasswdFileSnapshot, Void, PasswdFileSnapshot> notifyTask =
+            new AsyncTask<PasswdFileSnapshot, Void, PasswdFileSnapshot>()
             {
                 @Override
-                protected PasswdFileData doInBackground(PasswdFileData... params)
+                protected PasswdFileSnapshot doInBackground(
+                        PasswdFileSnapshot... params)
                 {
                     return params[0];
                 }
 
                 @Override
-                protected void onPostExecute(PasswdFileData fileData)
+                protected void onPostExecute(PasswdFileSnapshot snapshot)
                 {
                     for (PasswdFileDataObserver obs: itsObservers) {
-                        obs.passwdFileDataChanged(fileData);
+                        obs.passwdFileDataChanged(snapshot);
                     }
                 }
             };
-        notifyTask.execute(fileData);
+        notifyTask.execute(snapshot);
     }
 }
@@ -0,0 +1,20 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package com.jefftharris.passwdsafe.file;
+
+/**
+ * Interface for users of password file data which only read the data.
+ * Readers share access to the data with each other, while other users of the
+ * data have exclusive access.  A reader must not modify the file data.
+ * Reading a field of a lazily loaded file decodes and stores the field in
+ * its record, which PwsRecord.getField does under the record's lock so that
+ * concurrent readers are safe.
+ */
+public interface PasswdFileDataReader extends PasswdFileDataUser
+{
+}
@@ -10,7 +10,8 @@ package com.jefftharris.passwdsafe.file;
 import android.support.annotation.NonNull;
 
 /**
- * Interface for users of password file data
+ * Interface for users of password file data.  A user has exclusive access to
+ * the data unless it is a {@link PasswdFileDataReader}.
  */
 public interface PasswdFileDataUser
 {
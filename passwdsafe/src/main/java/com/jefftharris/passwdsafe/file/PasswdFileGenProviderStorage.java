@@ -7,10 +7,13 @@
  */
 package com.jefftharris.passwdsafe.file;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.pwsafe.lib.file.PwsFileStorage;
 import org.pwsafe.lib.file.PwsStreamStorage;
 
 import android.content.Context;
@@ -37,31 +40,59 @@ public class PasswdFileGenProviderStorage extends PwsStreamStorage
     @Override
     public boolean save(byte[] data, boolean isV3)
     {
+        return save(newBytesWriter(data), isV3);
+    }
+
+    /**
+     * Save the file contents streamed from a writer.  The contents are
+     * staged in a temporary file so the provider's file is only truncated
+     * once the writer has completed.
+     */
+    @Override
+    public boolean save(SaveWriter writer, boolean isV3)
+    {
+        File file = null;
         ParcelFileDescriptor pfd = null;
         FileOutputStream fos = null;
+        FileInputStream fis = null;
         try {
             try {
                 PasswdFileUri.SaveHelper helper =
                         (PasswdFileUri.SaveHelper)getSaveHelper();
                 Context ctx = helper.getContext();
 
+                file = File.createTempFile("passwd", ".tmp",
+                                           ctx.getCacheDir());
+                PwsFileStorage.writeFile(file, writer);
+
                 pfd = ctx.getContentResolver().openFileDescriptor(itsUri, "w");
                 if (pfd == null) {
                     throw new IOException(itsUri.toString());
                 }
                 fos = new FileOutputStream(pfd.getFileDescriptor());
-                fos.write(data);
+                fis = new FileInputStream(file);
+                byte[] buf = new byte[PwsFileStorage.WRITE_BUFFER_SIZE];
+                int len;
+                while ((len = fis.read(buf)) > 0) {
+                    fos.write(buf, 0, len);
+                }
 
                 PasswdSafeUtil.dbginfo(TAG, "GenProviderStorage update %s",
                                        itsUri);
                 return true;
             } finally {
+                if (fis != null) {
+                    fis.close();
+                }
                 if (fos != null) {
                     fos.close();
                 }
                 if (pfd != null) {
                     pfd.close();
                 }
+                if ((file != null) && !file.delete()) {
+                    Log.e(TAG, "Error deleting " + file);
+                }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error saving " + itsUri, e);
@@ -0,0 +1,146 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package com.jefftharris.passwdsafe.file;
+
+import org.pwsafe.lib.file.PwsRecord;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An immutable view of the records of an open password file.  A snapshot
+ * stays valid while the file is edited and saved, and it may be read by any
+ * thread without holding a file token.  The values of a record are shared
+ * between snapshots until the record changes, so a new snapshot after an
+ * edit copies only the changed records.
+ */
+public final class PasswdFileSnapshot
+{
+    /**
+     * The values of a record.  Fields which are searched but not shown, such
+     * as the notes, are not copied; a query matches them from the file data.
+     */
+    public static final class Record
+    {
+        public final String itsUuid;
+        public final String itsTitle;
+        public final String itsGroup;
+        public final String itsUsername;
+        public final PasswdRecord.Type itsType;
+        public final PasswdExpiration itsExpiry;
+        /** Whether the record is referenced by an alias */
+        public final boolean itsHasAliasRefs;
+        /** Whether the record is referenced by a shortcut */
+        public final boolean itsHasShortcutRefs;
+
+        private final int itsChangeCount;
+
+        /**
+         * Constructor.  Must be called with a file token.
+         */
+        Record(PasswdRecord passwdRec, PasswdFileData fileData)
+        {
+            PwsRecord rec = passwdRec.getRecord();
+            itsChangeCount = rec.getChangeCount();
+            itsUuid = passwdRec.getUUID();
+            itsTitle = fileData.getTitle(rec);
+            itsGroup = fileData.getGroup(rec);
+            itsUsername = fileData.getUsername(rec);
+            itsType = passwdRec.getType();
+            itsExpiry = passwdRec.getPasswdExpiry();
+
+            boolean hasAliasRefs = false;
+            boolean hasShortcutRefs = false;
+            for (PwsRecord ref: passwdRec.getRefsToRecord()) {
+                PasswdRecord passwdRef = fileData.getPasswdRecord(ref);
+                if (passwdRef == null) {
+                    continue;
+                }
+                switch (passwdRef.getType()) {
+                case NORMAL: {
+                    break;
+                }
+                case ALIAS: {
+                    hasAliasRefs = true;
+                    break;
+                }
+                case SHORTCUT: {
+                    hasShortcutRefs = true;
+                    break;
+                }
+                }
+            }
+            itsHasAliasRefs = hasAliasRefs;
+            itsHasShortcutRefs = hasShortcutRefs;
+        }
+
+        /** Get the change count of the record when the values were copied */
+        int getChangeCount()
+        {
+            return itsChangeCount;
+        }
+    }
+
+    private final PasswdFileUri itsUri;
+    private final List<Record> itsRecords;
+    private HashMap<String, Record> itsRecordsByUuid = null;
+
+    /**
+     * Constructor
+     *
+     * @param uri The URI of the file
+     * @param records The records, which the snapshot takes ownership of
+     */
+    PasswdFileSnapshot(PasswdFileUri uri, List<Record> records)
+    {
+        itsUri = uri;
+        itsRecords = Collections.unmodifiableList(records);
+    }
+
+    /** Get the URI of the file */
+    public PasswdFileUri getUri()
+    {
+        return itsUri;
+    }
+
+    /** Get the records in file order */
+    public List<Record> getRecords()
+    {
+        return itsRecords;
+    }
+
+    /** Get a record by its UUID; null if not found */
+    public synchronized Record getRecord(String uuid)
+    {
+        if (itsRecordsByUuid == null) {
+            itsRecordsByUuid = new HashMap<>(itsRecords.size() * 4 / 3 + 1);
+            for (Record rec: itsRecords) {
+                itsRecordsByUuid.put(rec.itsUuid, rec);
+            }
+        }
+        return itsRecordsByUuid.get(uuid);
+    }
+
+    /**
+     * Check whether the snapshot has the same record values as a list
+     */
+    boolean hasRecords(List<Record> records)
+    {
+        int numRecs = itsRecords.size();
+        if (numRecs != records.size()) {
+            return false;
+        }
+        for (int i = 0; i < numRecs; ++i) {
+            if (itsRecords.get(i) != records.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
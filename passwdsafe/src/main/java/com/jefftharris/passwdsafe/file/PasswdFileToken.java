@@ -9,27 +9,38 @@ package com.jefftharris.passwdsafe.file;
 
 import android.support.annotation.Nullable;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Token for users of a password file to enforce synchronous access
+ * Token for users of a password file to enforce synchronous access.  Shared
+ * tokens for reading the file may be held at the same time by multiple
+ * threads, while an exclusive token for modifying the file is held alone.
  */
 public class PasswdFileToken
 {
-    private static final ReentrantLock itsLock = new ReentrantLock();
-    
+    private static final ReentrantReadWriteLock itsLock =
+            new ReentrantReadWriteLock();
+
     private final PasswdFileData itsFileData;
+    private final Lock itsHeldLock;
 
     /**
      * Constructor. The token is acquired.
+     *
+     * @param exclusive Whether the token is exclusive to modify the file
+     *                  data or shared with other readers
      */
-    public PasswdFileToken(@Nullable PasswdFileData fileData)
+    public PasswdFileToken(@Nullable PasswdFileData fileData,
+                           boolean exclusive)
     {
         // Don't allow reentrant behavior
-        if (itsLock.isHeldByCurrentThread()) {
+        if (itsLock.isWriteLockedByCurrentThread() ||
+            (itsLock.getReadHoldCount() > 0)) {
             throw new AssertionError("PasswdFileToken lock held");
         }
-        itsLock.lock();
+        itsHeldLock = exclusive ? itsLock.writeLock() : itsLock.readLock();
+        itsHeldLock.lock();
         itsFileData = fileData;
     }
 
@@ -46,6 +57,6 @@ public class PasswdFileToken
      */
     public void release()
     {
-        itsLock.unlock();
+        itsHeldLock.unlock();
     }
 }
@@ -9,6 +9,7 @@ package com.jefftharris.passwdsafe.file;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
@@ -19,11 +20,13 @@ import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.pwsafe.lib.crypto.StretchMonitor;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
 import org.pwsafe.lib.file.PwsFile;
 import org.pwsafe.lib.file.PwsFileFactory;
+import org.pwsafe.lib.file.PwsFileHeaderV3;
 import org.pwsafe.lib.file.PwsFileStorage;
 import org.pwsafe.lib.file.PwsStorage;
 import org.pwsafe.lib.file.PwsStreamStorage;
@@ -228,22 +231,29 @@ public class PasswdFileUri implements Parcelable
     }
 
 
-    /** Load the password file */
-    public PwsFile load(StringBuilder passwd, Context context)
+    /**
+     * Load the password file
+     *
+     * @param monitor the monitor of the password stretching; null if not
+     *                monitored
+     */
+    public PwsFile load(StringBuilder passwd, StretchMonitor monitor,
+                        Context context)
             throws NoSuchAlgorithmException, EndOfFileException,
                 InvalidPassphraseException, IOException,
                 UnsupportedFileVersionException
     {
         switch (itsType) {
         case FILE: {
-            return PwsFileFactory.loadFile(itsFile.getAbsolutePath(), passwd);
+            return PwsFileFactory.loadFile(itsFile.getAbsolutePath(), passwd,
+                                           monitor);
         }
         case SYNC_PROVIDER: {
             ContentResolver cr = context.getContentResolver();
             InputStream is = cr.openInputStream(itsUri);
             String id = getIdentifier(context, false);
             PwsStorage storage = new PasswdFileSyncStorage(itsUri, id, is);
-            return PwsFileFactory.loadFromStorage(storage, passwd);
+            return PwsFileFactory.loadFromStorage(storage, passwd, monitor);
         }
         case EMAIL:
         case GENERIC_PROVIDER: {
@@ -256,13 +266,46 @@ public class PasswdFileUri implements Parcelable
             } else {
                 storage = new PwsStreamStorage(id, is);
             }
-            return PwsFileFactory.loadFromStorage(storage, passwd);
+            return PwsFileFactory.loadFromStorage(storage, passwd, monitor);
         }
         }
         return null;
     }
 
 
+    /**
+     * Read the number of iterations used to stretch the password from the
+     * start of the file
+     *
+     * @return The iterations; -1 if not a V3 file
+     */
+    public int readHashIterations(Context context)
+            throws IOException
+    {
+        InputStream is = null;
+        switch (itsType) {
+        case FILE: {
+            is = new FileInputStream(itsFile);
+            break;
+        }
+        case SYNC_PROVIDER:
+        case EMAIL:
+        case GENERIC_PROVIDER: {
+            is = context.getContentResolver().openInputStream(itsUri);
+            break;
+        }
+        }
+        if (is == null) {
+            return -1;
+        }
+        try {
+            return PwsFileHeaderV3.readIter(is);
+        } finally {
+            is.close();
+        }
+    }
+
+
     /** Create a new file */
     public PwsFile createNew(StringBuilder passwd, Context context)
             throws IOException
@@ -789,6 +832,13 @@ public class PasswdFileUri implements Parcelable
         /** Save the file contents */
         @Override
         public boolean save(byte[] data, boolean isV3)
+        {
+            return save(newBytesWriter(data), isV3);
+        }
+
+        /** Save the file contents streamed from a writer */
+        @Override
+        public boolean save(SaveWriter writer, boolean isV3)
         {
             File file = null;
             try {
@@ -796,7 +846,7 @@ public class PasswdFileUri implements Parcelable
                         (PasswdFileUri.SaveHelper)getSaveHelper();
                 Context ctx = helper.getContext();
                 file = File.createTempFile("passwd", ".tmp", ctx.getCacheDir());
-                PwsFileStorage.writeFile(file, data);
+                PwsFileStorage.writeFile(file, writer);
 
                 Uri fileUri = PasswdClientProvider.addFile(file);
                 ContentResolver cr = ctx.getContentResolver();
@@ -7,10 +7,11 @@
  */
 package com.jefftharris.passwdsafe.file;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
+import org.pwsafe.lib.file.AbstractPwsPasswdField;
 import org.pwsafe.lib.file.PwsRecord;
 
 import android.support.annotation.NonNull;
@@ -36,6 +37,7 @@ public class PasswdRecord
     private final ArrayList<PwsRecord> itsRefsToRecord = new ArrayList<>();
     private PasswdPolicy itsPasswdPolicy;
     private PasswdExpiration itsPasswdExpiry;
+    private PasswdFileSnapshot.Record itsSnapshot;
 
     public PasswdRecord(PwsRecord rec, PasswdFileData fileData)
     {
@@ -70,11 +72,13 @@ public class PasswdRecord
     public void addRefToRecord(PwsRecord ref)
     {
         itsRefsToRecord.add(ref);
+        itsSnapshot = null;
     }
 
     public void removeRefToRecord(PwsRecord ref)
     {
         itsRefsToRecord.remove(ref);
+        itsSnapshot = null;
     }
 
     public List<PwsRecord> getRefsToRecord()
@@ -87,25 +91,32 @@ public class PasswdRecord
         PwsRecord ref = null;
         Type type = Type.NORMAL;
         if (fileData.isV3()) {
-            String passwd = fileData.getPassword(itsRecord);
+            // The password field classifies its value as an alias or
+            // shortcut when created, so the password isn't unsealed
+            AbstractPwsPasswdField passwd =
+                fileData.getPasswordField(itsRecord);
             if (passwd != null) {
-                if (passwd.startsWith(ALIAS_OPEN) &&
-                    passwd.endsWith(ALIAS_CLOSE)) {
-                    ref = lookupRef(passwd, fileData);
-                    if (ref != null) {
-                        type = Type.ALIAS;
-                    }
-                } else if (passwd.startsWith(SHORTCUT_OPEN) &&
-                           passwd.endsWith(SHORTCUT_CLOSE)) {
-                    ref = lookupRef(passwd, fileData);
+                switch (passwd.getRefType()) {
+                case NONE: {
+                    break;
+                }
+                case ALIAS:
+                case SHORTCUT: {
+                    ref = fileData.getRecord(passwd.getRefHigh(),
+                                             passwd.getRefLow());
                     if (ref != null) {
-                        type = Type.SHORTCUT;
+                        type = (passwd.getRefType() ==
+                                AbstractPwsPasswdField.RefType.ALIAS) ?
+                            Type.ALIAS : Type.SHORTCUT;
                     }
+                    break;
+                }
                 }
             }
         }
         itsType = type;
         itsRef = ref;
+        itsSnapshot = null;
     }
 
     /**
@@ -125,6 +136,25 @@ public class PasswdRecord
         return null;
     }
 
+    /**
+     * Get the password for the record without creating a String.  The
+     * caller should release it with
+     * {@link PasswdFileData#releasePassword(CharBuffer)} when done.
+     */
+    public CharBuffer getPasswordChars(@NonNull PasswdFileData fileData)
+    {
+        switch (itsType) {
+        case NORMAL: {
+            return fileData.getPasswordChars(itsRecord);
+        }
+        case ALIAS:
+        case SHORTCUT: {
+            return fileData.getPasswordChars(itsRef);
+        }
+        }
+        return null;
+    }
+
     /** Notification that the password policy has changed */
     public void passwdPolicyChanged(PasswdFileData fileData)
     {
@@ -141,6 +171,7 @@ public class PasswdRecord
     public void passwdExpiryChanged(PasswdFileData fileData)
     {
         itsPasswdExpiry = fileData.getPasswdExpiry(itsRecord);
+        itsSnapshot = null;
     }
 
     /** Get the record's password expiration */
@@ -149,6 +180,22 @@ public class PasswdRecord
         return itsPasswdExpiry;
     }
 
+    /**
+     * Get the values of the record for a snapshot of the file.  The values
+     * are shared between snapshots until the record or its references
+     * change.  Must be called with a file token.
+     */
+    PasswdFileSnapshot.Record getSnapshot(PasswdFileData fileData)
+    {
+        PasswdFileSnapshot.Record snapshot = itsSnapshot;
+        if ((snapshot == null) ||
+            (snapshot.getChangeCount() != itsRecord.getChangeCount())) {
+            snapshot = new PasswdFileSnapshot.Record(this, fileData);
+            itsSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
     /** Get an identifier for a record from its naming fields */
     public static String getRecordId(String group, String title,
                                      String username)
@@ -220,33 +267,4 @@ public class PasswdRecord
 
         return sb.toString();
     }
-
-    private PwsRecord lookupRef(String passwd, PasswdFileData fileData)
-    {
-        PwsRecord ref = null;
-
-        // Passwd in the form of [[<uuid>]] or [~<uuid>~]. Check for a real
-        // entry. The <uuid> is a string of hex digits and needs to be converted
-        // to the format used by the UUID class
-        if (passwd.length() == 36) {
-            StringBuilder sb = new StringBuilder(36 - 4 + 6);
-            sb.append('{');
-            sb.append(passwd, 2, 2 + 8);
-            sb.append('-');
-            sb.append(passwd, 10, 10 + 4);
-            sb.append('-');
-            sb.append(passwd, 14, 14 + 4);
-            sb.append('-');
-            sb.append(passwd, 18, 18 + 4);
-            sb.append('-');
-            sb.append(passwd, 22, 22 + 12);
-            sb.append('}');
-            ref = fileData.getRecord(sb.toString().toLowerCase(Locale.US));
-            for (int i = 0; i < sb.length(); ++i) {
-                sb.setCharAt(i, '\0');
-            }
-        }
-
-        return ref;
-    }
 }
@@ -12,8 +12,6 @@ import java.util.Date;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.pwsafe.lib.file.PwsRecord;
-
 import android.content.Context;
 import android.content.res.Resources;
 import android.os.Parcel;
@@ -22,6 +20,9 @@ import android.os.Parcelable;
 import com.jefftharris.passwdsafe.R;
 import com.jefftharris.passwdsafe.lib.Utils;
 
+import org.pwsafe.lib.file.PwsRecord;
+import org.pwsafe.lib.file.PwsRecordV3;
+
 /** A filter for records */
 public final class PasswdRecordFilter implements Parcelable
 {
@@ -242,11 +243,15 @@ public final class PasswdRecordFilter implements Parcelable
         };
 
     /**
-     * Filter a record
+     * Filter a record.  A query matches the URL, email, and notes, which are
+     * not in the snapshot, from the file data, which must be used with a file
+     * token.
+     * @param fileData The file data to match the fields not in the snapshot;
+     *                 null to match only the snapshot
      * @return A non-null string if the record matches the filter; null if it
      * does not
      */
-    public final String filterRecord(PwsRecord rec,
+    public final String filterRecord(PasswdFileSnapshot.Record rec,
                                      PasswdFileData fileData,
                                      Context ctx)
     {
@@ -262,16 +267,12 @@ public final class PasswdRecordFilter implements Parcelable
                     QUERY_MATCH_NOTES = ctx.getString(R.string.notes);
                 }
 
-                if (filterField(fileData.getTitle(rec))) {
+                if (filterField(rec.itsTitle)) {
                     queryMatch = QUERY_MATCH_TITLE;
-                } else if (filterField(fileData.getUsername(rec))) {
+                } else if (filterField(rec.itsUsername)) {
                     queryMatch = QUERY_MATCH_USERNAME;
-                } else if (filterField(fileData.getURL(rec))) {
-                    queryMatch = QUERY_MATCH_URL;
-                } else if (filterField(fileData.getEmail(rec))) {
-                    queryMatch = QUERY_MATCH_EMAIL;
-                } else if (filterField(fileData.getNotes(rec))) {
-                    queryMatch = QUERY_MATCH_NOTES;
+                } else if (fileData != null) {
+                    queryMatch = filterFileFields(rec, fileData);
                 }
             } else {
                 queryMatch = QUERY_MATCH;
@@ -279,7 +280,7 @@ public final class PasswdRecordFilter implements Parcelable
             break;
         }
         case EXPIRATION: {
-            PasswdExpiration expiry = fileData.getPasswdExpiry(rec);
+            PasswdExpiration expiry = rec.itsExpiry;
             if (expiry == null) {
                 break;
             }
@@ -293,34 +294,11 @@ public final class PasswdRecordFilter implements Parcelable
 
         if ((queryMatch != null) &&
             (itsOptions != PasswdRecordFilter.OPTS_DEFAULT)) {
-            PasswdRecord passwdRec = fileData.getPasswdRecord(rec);
-            if (passwdRec != null) {
-                for (PwsRecord ref: passwdRec.getRefsToRecord()) {
-                    PasswdRecord passwdRef = fileData.getPasswdRecord(ref);
-                    if (passwdRef == null) {
-                        continue;
-                    }
-                    switch (passwdRef.getType()) {
-                    case NORMAL: {
-                        break;
-                    }
-                    case ALIAS: {
-                        if (hasOptions(PasswdRecordFilter.OPTS_NO_ALIAS)) {
-                            queryMatch = null;
-                        }
-                        break;
-                    }
-                    case SHORTCUT: {
-                        if (hasOptions(PasswdRecordFilter.OPTS_NO_SHORTCUT)) {
-                            queryMatch = null;
-                        }
-                        break;
-                    }
-                    }
-                    if (queryMatch == null) {
-                        break;
-                    }
-                }
+            if ((rec.itsHasAliasRefs &&
+                 hasOptions(PasswdRecordFilter.OPTS_NO_ALIAS)) ||
+                (rec.itsHasShortcutRefs &&
+                 hasOptions(PasswdRecordFilter.OPTS_NO_SHORTCUT))) {
+                queryMatch = null;
             }
         }
 
@@ -328,6 +306,14 @@ public final class PasswdRecordFilter implements Parcelable
     }
 
 
+    /**
+     * Does filtering a record match a query against the file data
+     */
+    public final boolean isFileDataQuery()
+    {
+        return (itsType == Type.QUERY) && (itsSearchQuery != null);
+    }
+
     /**
      * Is the filter's type a query
      */
@@ -419,6 +405,32 @@ public final class PasswdRecordFilter implements Parcelable
     }
 
 
+    /**
+     * Match the search query against the fields of a record which are not in
+     * the snapshot
+     * @return The label of the matching field; null if none match
+     */
+    private String filterFileFields(PasswdFileSnapshot.Record rec,
+                                    PasswdFileData fileData)
+    {
+        PwsRecord fileRec = fileData.getRecord(rec.itsUuid);
+        if (fileRec == null) {
+            return null;
+        }
+        if (filterField(fileData.getDecodedField(fileRec, PwsRecordV3.URL))) {
+            return QUERY_MATCH_URL;
+        }
+        if (filterField(fileData.getDecodedField(fileRec,
+                                                 PwsRecordV3.EMAIL))) {
+            return QUERY_MATCH_EMAIL;
+        }
+        String notes = fileData.getDecodedField(fileRec, PwsRecordV3.NOTES);
+        if ((notes != null) && filterField(notes.replace("\r\n", "\n"))) {
+            return QUERY_MATCH_NOTES;
+        }
+        return null;
+    }
+
     /** Match a field against the search query */
     private boolean filterField(String field)
     {
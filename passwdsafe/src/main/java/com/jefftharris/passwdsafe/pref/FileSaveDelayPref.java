@@ -0,0 +1,94 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package com.jefftharris.passwdsafe.pref;
+
+import com.jefftharris.passwdsafe.R;
+
+import android.content.res.Resources;
+
+/**
+ * The delay after an edit before the file is saved.  Edits made during the
+ * delay are saved together.
+ */
+public enum FileSaveDelayPref
+{
+    // Values in their display order
+    DELAY_NONE      (0,             "0",    0),
+    DELAY_1_SEC     (1000,          "1",    1),
+    DELAY_2_SEC     (2 * 1000,      "2",    2),
+    DELAY_5_SEC     (5 * 1000,      "5",    3),
+    DELAY_10_SEC    (10 * 1000,     "10",   4);
+
+    private final int itsDelay;
+    private final String itsValue;
+    private final int itsDisplayNameIdx;
+
+    FileSaveDelayPref(int delay, String value, int displayNameIdx)
+    {
+        itsDelay = delay;
+        itsValue = value;
+        itsDisplayNameIdx = displayNameIdx;
+    }
+
+    /** Get the delay in milliseconds */
+    public final int getDelay()
+    {
+        return itsDelay;
+    }
+
+    public final String getValue()
+    {
+        return itsValue;
+    }
+
+    private int getDisplayNameIdx()
+    {
+        return itsDisplayNameIdx;
+    }
+
+    public final String getDisplayName(Resources res)
+    {
+        return getDisplayNamesArray(res)[itsDisplayNameIdx];
+    }
+
+    public static FileSaveDelayPref prefValueOf(String str)
+    {
+        for (FileSaveDelayPref pref : FileSaveDelayPref.values()) {
+            if (pref.getValue().equals(str)) {
+                return pref;
+            }
+        }
+        throw new IllegalArgumentException(str);
+    }
+
+    public static String[] getValues()
+    {
+        FileSaveDelayPref[] prefs = values();
+        String[] strs = new String[prefs.length];
+        for (int i = 0; i < prefs.length; ++i) {
+            strs[i] = prefs[i].getValue();
+        }
+        return strs;
+    }
+
+    public static String[] getDisplayNames(Resources res)
+    {
+        String[] displayNames = getDisplayNamesArray(res);
+        FileSaveDelayPref[] prefs = values();
+        String[] strs = new String[prefs.length];
+        for (int i = 0; i < prefs.length; ++i) {
+            strs[i] = displayNames[prefs[i].getDisplayNameIdx()];
+        }
+        return strs;
+    }
+
+    private static String[] getDisplayNamesArray(Resources res)
+    {
+        return res.getStringArray(R.array.file_save_delay_pref);
+    }
+}
@@ -10,22 +10,24 @@ package com.jefftharris.passwdsafe.view;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.TypedValue;
 
+import com.jefftharris.passwdsafe.PasswdSafeFileDataFragment;
 import com.jefftharris.passwdsafe.Preferences;
 import com.jefftharris.passwdsafe.R;
 import com.jefftharris.passwdsafe.file.PasswdExpiration;
 import com.jefftharris.passwdsafe.file.PasswdFileData;
-import com.jefftharris.passwdsafe.file.PasswdRecord;
+import com.jefftharris.passwdsafe.file.PasswdFileDataReader;
+import com.jefftharris.passwdsafe.file.PasswdFileSnapshot;
 import com.jefftharris.passwdsafe.file.PasswdRecordFilter;
+import com.jefftharris.passwdsafe.lib.ObjectHolder;
 import com.jefftharris.passwdsafe.lib.PasswdSafeUtil;
 import com.jefftharris.passwdsafe.pref.PasswdExpiryNotifPref;
 import com.jefftharris.passwdsafe.pref.RecordSortOrderPref;
 
-import org.pwsafe.lib.file.PwsRecord;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -183,22 +185,28 @@ public class PasswdFileDataView
     }
 
     /**
-     * Set the file data
+     * Set the file data from a snapshot of the file.  Must not be called
+     * with a file token.
      */
-    public synchronized void setFileData(PasswdFileData fileData)
+    public void setFileData(PasswdFileSnapshot snapshot)
     {
-        itsCurrGroups.clear();
-        itsIsExpiryChanged = true;
-        rebuildView(fileData);
+        synchronized (this) {
+            itsCurrGroups.clear();
+            itsIsExpiryChanged = true;
+        }
+        rebuildView(snapshot);
     }
 
     /**
-     * Refresh the file data
+     * Refresh the file data from a snapshot of the file.  Must not be called
+     * with a file token.
      */
-    public synchronized void refreshFileData(PasswdFileData fileData)
+    public void refreshFileData(PasswdFileSnapshot snapshot)
     {
-        itsCurrGroups.clear();
-        rebuildView(fileData);
+        synchronized (this) {
+            itsCurrGroups.clear();
+        }
+        rebuildView(snapshot);
     }
 
     /**
@@ -379,30 +387,62 @@ public class PasswdFileDataView
         return itsExpiryNotifPref.getFilter();
     }
 
+    /**
+     * Rebuild the view information.  A query filter matches the fields which
+     * are not in the snapshot from the open file data, so the file token is
+     * acquired before the view is locked.
+     */
+    private void rebuildView(final PasswdFileSnapshot snapshot)
+    {
+        PasswdRecordFilter filter = getRecordFilter();
+        if ((snapshot == null) ||
+            (filter == null) || !filter.isFileDataQuery()) {
+            rebuildView(snapshot, null);
+            return;
+        }
+
+        final ObjectHolder<Boolean> rebuilt = new ObjectHolder<>(false);
+        PasswdSafeFileDataFragment.useOpenFileData(new PasswdFileDataReader()
+        {
+            @Override
+            public void useFileData(@NonNull PasswdFileData fileData)
+            {
+                rebuildView(snapshot, fileData);
+                rebuilt.set(true);
+            }
+        });
+        if (!rebuilt.get()) {
+            rebuildView(snapshot, null);
+        }
+    }
+
     /**
      * Rebuild the view information
+     * @param fileData The file data to match a query filter; null to match
+     *                 only the snapshot
      */
-    private synchronized void rebuildView(PasswdFileData fileData)
+    private synchronized void rebuildView(PasswdFileSnapshot snapshot,
+                                          PasswdFileData fileData)
     {
         itsRootNode = new GroupNode();
         itsNumExpired = 0;
-        if (fileData == null) {
+        if (snapshot == null) {
             updateCurrentGroup();
             return;
         }
 
-        List<PwsRecord> records = fileData.getRecords();
+        List<PasswdFileSnapshot.Record> records = snapshot.getRecords();
         if (itsIsGroupRecords) {
             Comparator<String> groupComp = itsIsSortCaseSensitive ?
                     new StringComparator() : String.CASE_INSENSITIVE_ORDER;
 
-            for (PwsRecord rec: records) {
+            for (PasswdFileSnapshot.Record rec: records) {
                 String match = filterRecord(rec, fileData);
                 if (match == null) {
                     continue;
                 }
 
-                String group = fileData.getGroup(rec);
+                String group = rec.itsGroup;
                 if (group == null) {
                     group = "";
                 }
@@ -417,14 +457,13 @@ public class PasswdFileDataView
                     }
                     node = groupNode;
                 }
-                node.addRecord(new MatchPwsRecord(rec, fileData, match));
+                node.addRecord(new MatchPwsRecord(rec, match));
              }
         } else {
-            for (PwsRecord rec: records) {
+            for (PasswdFileSnapshot.Record rec: records) {
                 String match = filterRecord(rec, fileData);
                 if (match != null) {
-                    itsRootNode.addRecord(
-                            new MatchPwsRecord(rec, fileData, match));
+                    itsRootNode.addRecord(new MatchPwsRecord(rec, match));
                 }
             }
         }
@@ -433,8 +472,8 @@ public class PasswdFileDataView
         PasswdRecordFilter.ExpiryFilter filter = itsExpiryNotifPref.getFilter();
         if (filter != null) {
             long expiration = filter.getExpiryFromNow(null);
-            for (PasswdRecord rec : fileData.getPasswdRecords()) {
-                PasswdExpiration expiry = rec.getPasswdExpiry();
+            for (PasswdFileSnapshot.Record rec : records) {
+                PasswdExpiration expiry = rec.itsExpiry;
                 if ((expiry != null) &&
                     (expiry.itsExpiration.getTime() <= expiration)) {
                     ++itsNumExpired;
@@ -466,7 +505,8 @@ public class PasswdFileDataView
      * @return A non-null string if the record matches the filter; null if it
      * does not
      */
-    private String filterRecord(PwsRecord rec, PasswdFileData fileData)
+    private String filterRecord(PasswdFileSnapshot.Record rec,
+                                PasswdFileData fileData)
     {
         if (itsFilter == null) {
             return PasswdRecordFilter.QUERY_MATCH;
@@ -599,13 +639,11 @@ public class PasswdFileDataView
         public final String itsUuid;
         public final String itsMatch;
 
-        public MatchPwsRecord(PwsRecord rec,
-                              PasswdFileData fileData,
-                              String match)
+        public MatchPwsRecord(PasswdFileSnapshot.Record rec, String match)
         {
-            itsTitle = fileData.getTitle(rec);
-            itsUsername = fileData.getUsername(rec);
-            itsUuid = fileData.getUUID(rec);
+            itsTitle = rec.itsTitle;
+            itsUsername = rec.itsUsername;
+            itsUuid = rec.itsUuid;
             itsMatch = match;
         }
     }
@@ -178,6 +178,40 @@ public class UUID implements Comparable<Object>, Serializable
 		return Util.cloneByteArray( TheUUID );
 	}
 
+	/**
+	 * Returns the first 8 bytes of the UUID as a big-endian long.
+	 *
+	 * @return The high 64 bits of the UUID.
+	 */
+	public long getHigh()
+	{
+		return getLong( 0 );
+	}
+
+	/**
+	 * Returns the last 8 bytes of the UUID as a big-endian long.
+	 *
+	 * @return The low 64 bits of the UUID.
+	 */
+	public long getLow()
+	{
+		return getLong( 8 );
+	}
+
+	/**
+	 * Returns 8 bytes of the UUID from <code>offset</code> as a big-endian long.
+	 */
+	private long getLong( int offset )
+	{
+		long	val = 0;
+
+		for ( int ii = offset; ii < offset + 8; ++ii )
+		{
+			val = (val << 8) | (TheUUID[ii] & 0x0ff);
+		}
+		return val;
+	}
+
 	/**
 	 * Converts this UUID into human-readable form.  The string has the format:
 	 * {01234567-89ab-cdef-0123-456789abcdef}.
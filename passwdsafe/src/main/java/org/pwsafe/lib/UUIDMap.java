@@ -0,0 +1,327 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A map keyed by 128-bit UUIDs.  The keys are held as the two 64-bit halves
+ * of the UUID in an open-addressing table with linear probing, so entries
+ * need no key objects and lookups by a UUID's halves don't allocate.
+ * <p>
+ * Keys may also be given as strings in the {@link UUID#toString()} format.
+ * A string which isn't a UUID, such as the phantom UUID of a V1 record, is
+ * kept in a separate hash map.  Null values are not allowed.
+ *
+ * @param <V> the type of the values
+ */
+public final class UUIDMap<V>
+{
+    private static final int MIN_CAPACITY = 16;
+
+    /** Length of a UUID string: {01234567-89ab-cdef-0123-456789abcdef} */
+    private static final int UUID_STR_LEN = 38;
+
+    private long[] itsHighs;
+    private long[] itsLows;
+    private Object[] itsValues;
+    private int itsSize = 0;
+    private HashMap<String, V> itsOtherKeys = null;
+
+    /**
+     * Constructor
+     */
+    public UUIDMap()
+    {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Get the number of entries
+     */
+    public int size()
+    {
+        return itsSize + ((itsOtherKeys != null) ? itsOtherKeys.size() : 0);
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear()
+    {
+        if (itsValues.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(itsValues, null);
+        }
+        itsSize = 0;
+        itsOtherKeys = null;
+    }
+
+    /**
+     * Get the value for a UUID given as its high and low 64-bit halves
+     *
+     * @return the value; null if not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long high, long low)
+    {
+        int idx = find(high, low);
+        return (idx >= 0) ? (V)itsValues[idx] : null;
+    }
+
+    /**
+     * Get the value for a UUID
+     */
+    public V get(UUID uuid)
+    {
+        return get(uuid.getHigh(), uuid.getLow());
+    }
+
+    /**
+     * Get the value for a key string
+     */
+    public V get(String key)
+    {
+        if (isUUIDString(key)) {
+            return get(parseHigh(key), parseLow(key));
+        }
+        return (itsOtherKeys != null) ? itsOtherKeys.get(key) : null;
+    }
+
+    /**
+     * Get the value for a UUID given as 32 hex digits without separators,
+     * such as in the password of an alias or shortcut
+     *
+     * @param chars the characters holding the digits
+     * @param start the position of the first digit
+     * @return the value; null if not present or the digits aren't valid
+     */
+    public V getHex(CharSequence chars, int start)
+    {
+        if ((start < 0) || (chars.length() - start < 32) ||
+            !isHex(chars, start, 32)) {
+            return null;
+        }
+        return get(parseHex(0, chars, start, 16),
+                   parseHex(0, chars, start + 16, 16));
+    }
+
+    /**
+     * Set the value for a UUID given as its high and low 64-bit halves
+     *
+     * @return the previous value; null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long high, long low, V value)
+    {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int idx = find(high, low);
+        if (idx >= 0) {
+            V prev = (V)itsValues[idx];
+            itsValues[idx] = value;
+            return prev;
+        }
+
+        if ((itsSize + 1) * 4 > itsValues.length * 3) {
+            resize(itsValues.length * 2);
+        }
+        idx = -(find(high, low) + 1);
+        itsHighs[idx] = high;
+        itsLows[idx] = low;
+        itsValues[idx] = value;
+        ++itsSize;
+        return null;
+    }
+
+    /**
+     * Set the value for a UUID
+     */
+    public V put(UUID uuid, V value)
+    {
+        return put(uuid.getHigh(), uuid.getLow(), value);
+    }
+
+    /**
+     * Set the value for a key string
+     */
+    public V put(String key, V value)
+    {
+        if (isUUIDString(key)) {
+            return put(parseHigh(key), parseLow(key), value);
+        }
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if (itsOtherKeys == null) {
+            itsOtherKeys = new HashMap<>();
+        }
+        return itsOtherKeys.put(key, value);
+    }
+
+    /**
+     * Remove the value for a UUID given as its high and low 64-bit halves
+     *
+     * @return the removed value; null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long high, long low)
+    {
+        int idx = find(high, low);
+        if (idx < 0) {
+            return null;
+        }
+        V value = (V)itsValues[idx];
+        itsValues[idx] = null;
+        --itsSize;
+
+        // Shift back the following entries of the probe sequence which
+        // would no longer be found past the empty slot
+        int mask = itsValues.length - 1;
+        int empty = idx;
+        for (int pos = (idx + 1) & mask; itsValues[pos] != null;
+             pos = (pos + 1) & mask) {
+            int home = hash(itsHighs[pos], itsLows[pos]) & mask;
+            if (((pos - home) & mask) >= ((pos - empty) & mask)) {
+                itsHighs[empty] = itsHighs[pos];
+                itsLows[empty] = itsLows[pos];
+                itsValues[empty] = itsValues[pos];
+                itsValues[pos] = null;
+                empty = pos;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Remove the value for a UUID
+     */
+    public V remove(UUID uuid)
+    {
+        return remove(uuid.getHigh(), uuid.getLow());
+    }
+
+    /**
+     * Remove the value for a key string
+     */
+    public V remove(String key)
+    {
+        if (isUUIDString(key)) {
+            return remove(parseHigh(key), parseLow(key));
+        }
+        return (itsOtherKeys != null) ? itsOtherKeys.remove(key) : null;
+    }
+
+    /**
+     * Find the slot of a key
+     *
+     * @return the slot's index if found; otherwise, -(index + 1) of the empty
+     *         slot where the key would be added
+     */
+    private int find(long high, long low)
+    {
+        int mask = itsValues.length - 1;
+        int pos = hash(high, low) & mask;
+        while (itsValues[pos] != null) {
+            if ((itsHighs[pos] == high) && (itsLows[pos] == low)) {
+                return pos;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -(pos + 1);
+    }
+
+    /** Resize the table and re-add its entries */
+    private void resize(int capacity)
+    {
+        long[] highs = itsHighs;
+        long[] lows = itsLows;
+        Object[] values = itsValues;
+        allocate(capacity);
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != null) {
+                int idx = -(find(highs[i], lows[i]) + 1);
+                itsHighs[idx] = highs[i];
+                itsLows[idx] = lows[i];
+                itsValues[idx] = values[i];
+            }
+        }
+    }
+
+    /** Allocate the table with a capacity which is a power of two */
+    private void allocate(int capacity)
+    {
+        itsHighs = new long[capacity];
+        itsLows = new long[capacity];
+        itsValues = new Object[capacity];
+    }
+
+    /** Hash the halves of a UUID, mixing the bits of both */
+    private static int hash(long high, long low)
+    {
+        long h = high * 0x9e3779b97f4a7c15L + low;
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (int)h;
+    }
+
+    /**
+     * Check whether a string is in the UUID string format with valid hex
+     * digits
+     */
+    private static boolean isUUIDString(String str)
+    {
+        return (str.length() == UUID_STR_LEN) &&
+               (str.charAt(0) == '{') && (str.charAt(9) == '-') &&
+               (str.charAt(14) == '-') && (str.charAt(19) == '-') &&
+               (str.charAt(24) == '-') && (str.charAt(37) == '}') &&
+               isHex(str, 1, 8) && isHex(str, 10, 4) && isHex(str, 15, 4) &&
+               isHex(str, 20, 4) && isHex(str, 25, 12);
+    }
+
+    /** Check whether a range of characters are all hex digits */
+    private static boolean isHex(CharSequence chars, int start, int len)
+    {
+        for (int i = start; i < start + len; ++i) {
+            if (Character.digit(chars.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a run of hex digits, appending them to a big-endian value.  The
+     * digits must be valid.
+     */
+    private static long parseHex(long val, CharSequence chars,
+                                 int start, int len)
+    {
+        for (int i = start; i < start + len; ++i) {
+            val = (val << 4) | Character.digit(chars.charAt(i), 16);
+        }
+        return val;
+    }
+
+    /** Get the high half of a UUID string */
+    private static long parseHigh(String str)
+    {
+        return parseHex(parseHex(parseHex(0, str, 1, 8), str, 10, 4),
+                        str, 15, 4);
+    }
+
+    /** Get the low half of a UUID string */
+    private static long parseLow(String str)
+    {
+        return parseHex(parseHex(0, str, 20, 4), str, 25, 12);
+    }
+}
@@ -9,10 +9,13 @@
  */
 package org.pwsafe.lib;
 
+import java.io.InterruptedIOException;
+import java.nio.CharBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
 import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.StretchMonitor;
 
 /**
  * This class exposes various utilty methods.
@@ -238,6 +241,21 @@ public final class Util
 		someChars.setLength(0);
 	}
 
+	/**
+	 * Clears the characters of a CharBuffer by overwriting its backing
+	 * array.  A read-only buffer, such as one wrapping a String, can not be
+	 * cleared.
+	 *
+	 * @param someChars the buffer to clear; may be null
+	 */
+	public static void clear (final CharBuffer someChars) {
+		if ((someChars != null) && someChars.hasArray()) {
+			Arrays.fill(someChars.array(), '\0');
+			someChars.clear();
+			someChars.limit(0);
+		}
+	}
+
 	/**
 	 * Creates a clone of the given byte array.
 	 *
@@ -450,4 +468,27 @@ public final class Util
 
 		return SHA256Pws.digestN(p, iter);
 	}
+
+	/**
+	 * Calculate stretched key, following its progress with a monitor which
+	 * may cancel it.
+	 *
+	 * @param passphrase the user entered passphrase
+	 * @param salt the salt from the file
+	 * @param iter the number of iters from the file
+	 * @param monitor the monitor of the stretching; null if not monitored
+	 * @return the stretched user key for comparison
+	 * @throws InterruptedIOException if the monitor canceled the stretching
+	 */
+	public static byte[] stretchPassphrase(byte[] passphrase, byte[] salt,
+	                                       int iter, StretchMonitor monitor)
+	throws InterruptedIOException
+	{
+		byte[] p = mergeBytes(passphrase, salt);
+		try {
+			return SHA256Pws.digestN(p, iter, monitor);
+		} finally {
+			Arrays.fill(p, (byte)0);
+		}
+	}
 }
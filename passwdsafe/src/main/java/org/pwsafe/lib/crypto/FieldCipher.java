@@ -0,0 +1,266 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.engines.TwofishEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.pwsafe.lib.Util;
+
+/**
+ * Protects sensitive values held in memory, such as passwords, so they are
+ * not kept as plaintext on the heap.
+ * <p>
+ * Each sealed value is the XOR of its bytes with a Twofish keystream in
+ * counter mode, prefixed by a nonce unique to the value.  The key schedule
+ * is set up once and shared by all values, so sealing and opening a value
+ * costs one block encryption per 16 bytes with no serialization or cipher
+ * initialization.  Strings are sealed as their UTF-8 bytes.
+ * <p>
+ * Sealed values may either be returned to the caller or stored off the
+ * Java heap in the cipher's {@link SecureArena} and referenced by an int
+ * handle.  The arena is zeroed when the cipher is cleared.
+ */
+public final class FieldCipher
+{
+    /** Size of the nonce prefixed to each sealed value */
+    public static final int NONCE_LEN = 8;
+
+    private static final int BLOCK_SIZE = TwofishPws.BLOCK_SIZE;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TwofishEngine itsEngine = new TwofishEngine();
+    private final SecureArena itsArena = new SecureArena();
+    private final byte[] itsCounter = new byte[BLOCK_SIZE];
+    private final byte[] itsKeyStream = new byte[BLOCK_SIZE];
+    private final CharsetDecoder itsDecoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long itsNextNonce;
+    private boolean itsIsCleared = false;
+
+    /**
+     * Constructor
+     *
+     * @param key the key for the keystream; 16, 24, or 32 bytes
+     */
+    public FieldCipher(byte[] key)
+    {
+        itsEngine.init(true, new KeyParameter(key));
+        byte[] nonce = new byte[NONCE_LEN];
+        Util.newRandBytes(nonce);
+        itsNextNonce = getLong(nonce, 0);
+    }
+
+    /**
+     * Seal a range of bytes
+     *
+     * @return the nonce followed by the protected bytes
+     */
+    public synchronized byte[] seal(byte[] value, int offset, int length)
+    {
+        checkState();
+        byte[] sealed = new byte[NONCE_LEN + length];
+        long nonce = itsNextNonce++;
+        for (int i = NONCE_LEN - 1; i >= 0; --i) {
+            sealed[i] = (byte)nonce;
+            nonce >>>= 8;
+        }
+        crypt(sealed, value, offset, sealed, NONCE_LEN, length);
+        return sealed;
+    }
+
+    /**
+     * Seal a sequence of characters as UTF-8 without creating a String
+     */
+    public byte[] seal(CharSequence value)
+    {
+        CharsetEncoder encoder = UTF8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes;
+        try {
+            bytes = encoder.encode(CharBuffer.wrap(value));
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+        try {
+            return seal(bytes.array(), bytes.arrayOffset(), bytes.limit());
+        } finally {
+            Arrays.fill(bytes.array(), (byte)0);
+        }
+    }
+
+    /**
+     * Seal a range of bytes and store it in the arena
+     *
+     * @return the handle of the stored value
+     */
+    public synchronized int store(byte[] value, int offset, int length)
+    {
+        byte[] sealed = seal(value, offset, length);
+        return itsArena.store(sealed, 0, sealed.length);
+    }
+
+    /**
+     * Seal a sequence of characters as UTF-8 and store it in the arena
+     *
+     * @return the handle of the stored value
+     */
+    public synchronized int store(CharSequence value)
+    {
+        byte[] sealed = seal(value);
+        return itsArena.store(sealed, 0, sealed.length);
+    }
+
+    /**
+     * Open a value stored in the arena
+     *
+     * @return the value's bytes which the caller should clear when done
+     */
+    public synchronized byte[] load(int handle)
+    {
+        checkState();
+        return open(itsArena.load(handle));
+    }
+
+    /**
+     * Open a UTF-8 string stored in the arena
+     */
+    public synchronized String loadString(int handle)
+    {
+        checkState();
+        return openString(itsArena.load(handle));
+    }
+
+    /**
+     * Open a UTF-8 string stored in the arena into a new character buffer
+     * without creating a String.  The buffer's backing array is owned by the
+     * caller, which should clear it with
+     * {@link org.pwsafe.lib.Util#clear(CharBuffer)} when done.
+     */
+    public synchronized CharBuffer loadChars(int handle)
+    {
+        checkState();
+        byte[] value = open(itsArena.load(handle));
+        try {
+            // A UTF-8 value never has more characters than bytes
+            CharBuffer chars = CharBuffer.wrap(new char[value.length]);
+            itsDecoder.reset();
+            itsDecoder.decode(ByteBuffer.wrap(value), chars, true);
+            itsDecoder.flush(chars);
+            chars.flip();
+            return chars;
+        } finally {
+            Arrays.fill(value, (byte)0);
+        }
+    }
+
+    /**
+     * Get the size of the arena's off-heap storage in bytes
+     */
+    public synchronized long getArenaCapacity()
+    {
+        return itsArena.getCapacity();
+    }
+
+    /**
+     * Open a sealed value
+     *
+     * @return the value's bytes which the caller should clear when done
+     */
+    public synchronized byte[] open(byte[] sealed)
+    {
+        checkState();
+        byte[] value = new byte[sealed.length - NONCE_LEN];
+        crypt(sealed, sealed, NONCE_LEN, value, 0, value.length);
+        return value;
+    }
+
+    /**
+     * Open a sealed UTF-8 string
+     */
+    public String openString(byte[] sealed)
+    {
+        byte[] value = open(sealed);
+        try {
+            return new String(value, UTF8);
+        } finally {
+            Arrays.fill(value, (byte)0);
+        }
+    }
+
+    /**
+     * Clear the key and zero the arena.  Values can no longer be sealed or
+     * opened.
+     */
+    public synchronized void clear()
+    {
+        if (!itsIsCleared) {
+            // The engine doesn't expose its key schedule, so replace it
+            itsEngine.init(true, new KeyParameter(new byte[BLOCK_SIZE]));
+            Arrays.fill(itsCounter, (byte)0);
+            Arrays.fill(itsKeyStream, (byte)0);
+            itsArena.clear();
+            itsIsCleared = true;
+        }
+    }
+
+    /**
+     * XOR a range with the keystream for the nonce at the start of the
+     * sealed value.  The counter block is the nonce followed by the block
+     * index.
+     */
+    private void crypt(byte[] sealed,
+                       byte[] in, int inOff,
+                       byte[] out, int outOff, int length)
+    {
+        System.arraycopy(sealed, 0, itsCounter, 0, NONCE_LEN);
+        long block = 0;
+        for (int pos = 0; pos < length; pos += BLOCK_SIZE, ++block) {
+            long ctr = block;
+            for (int i = BLOCK_SIZE - 1; i >= NONCE_LEN; --i) {
+                itsCounter[i] = (byte)ctr;
+                ctr >>>= 8;
+            }
+            itsEngine.processBlock(itsCounter, 0, itsKeyStream, 0);
+            int end = Math.min(length - pos, BLOCK_SIZE);
+            for (int i = 0; i < end; ++i) {
+                out[outOff + pos + i] =
+                        (byte)(in[inOff + pos + i] ^ itsKeyStream[i]);
+            }
+        }
+        Arrays.fill(itsKeyStream, (byte)0);
+    }
+
+    /** Verify the key has not been cleared */
+    private void checkState()
+    {
+        if (itsIsCleared) {
+            throw new IllegalStateException("Field cipher has been cleared");
+        }
+    }
+
+    /** Get a big-endian long from a byte array */
+    private static long getLong(byte[] buf, int offset)
+    {
+        long val = 0;
+        for (int i = 0; i < 8; ++i) {
+            val = (val << 8) | (buf[offset + i] & 0xff);
+        }
+        return val;
+    }
+}
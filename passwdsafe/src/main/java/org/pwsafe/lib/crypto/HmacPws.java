@@ -12,7 +12,8 @@ import org.bouncycastle.crypto.macs.HMac;
 import org.bouncycastle.crypto.params.KeyParameter;
 
 /**
- * HMAC implementation. Currently uses BouncyCastle provider underneath.
+ * HMAC implementation. Uses the native implementation when available,
+ * otherwise the BouncyCastle provider.
  *
  * @author Glen Smith
  */
@@ -21,8 +22,18 @@ public class HmacPws {
 
 	private HMac mac;
 
+	/** Native MAC handle, if used */
+	final boolean useNative;
+	long nativeCtx;
+
 	public HmacPws(byte[] key) {
 
+		useNative = NativeCrypto.isAvailable();
+		if (useNative) {
+			nativeCtx = NativeCrypto.newHmac(key);
+			return;
+		}
+
 		mac = new HMac(new SHA256Digest());
 		KeyParameter kp = new KeyParameter(key);
 		mac.init(kp);
@@ -30,13 +41,52 @@ public class HmacPws {
 	}
 
 	public final void digest(byte[] incoming) {
-        mac.update(incoming, 0, incoming.length);
+        digest(incoming, 0, incoming.length);
+    }
+
+	public final void digest(byte[] incoming, int offset, int length) {
+		if (useNative) {
+			NativeCrypto.checkRange(incoming, offset, length);
+			synchronized (this) {
+				NativeCrypto.checkHandle(nativeCtx);
+				NativeCrypto.hmacUpdate(nativeCtx, incoming, offset, length);
+			}
+			return;
+		}
+        mac.update(incoming, offset, length);
     }
 
 	public final byte[] doFinal() {
-		byte[] output = new byte[mac.getUnderlyingDigest().getDigestSize()];
+		byte[] output = new byte[NativeCrypto.HMAC_LEN];
+		if (useNative) {
+			synchronized (this) {
+				NativeCrypto.checkHandle(nativeCtx);
+				NativeCrypto.hmacFinal(nativeCtx, output);
+			}
+			return output;
+		}
 		mac.doFinal(output, 0);
 		return output;
 	}
 
+	/**
+	 * Clear and free the native MAC state.  The MAC can't be used
+	 * afterwards.
+	 */
+	public final synchronized void clear() {
+		if (nativeCtx != 0) {
+			NativeCrypto.hmacFree(nativeCtx);
+			nativeCtx = 0;
+		}
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		try {
+			clear();
+		} finally {
+			super.finalize();
+		}
+	}
+
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.TwofishEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.pwsafe.lib.Log;
+
+/**
+ * Bindings to the Twofish and HMAC-SHA256 implementations in the PasswdSafe
+ * JNI library.  The state of each native cipher and MAC is kept in native
+ * memory behind a handle, which must be freed when it is no longer used.
+ * Buffers are copied to and from the native code in bounded chunks so that
+ * large arrays are never pinned for long.  The native code is only used when the library is loaded and
+ * its results match BouncyCastle for a known input; otherwise the callers
+ * fall back to BouncyCastle.
+ */
+public final class NativeCrypto
+{
+    /** Size of the HMAC-SHA256 digest in bytes */
+    public static final int HMAC_LEN = 32;
+
+    private static final Log LOG =
+            Log.getInstance(NativeCrypto.class.getPackage().getName());
+
+    private static boolean itsIsEnabled = true;
+    private static Boolean itsIsAvailable = null;
+
+    /**
+     * Get whether the native implementations are enabled and available
+     */
+    public static synchronized boolean isAvailable()
+    {
+        if (!itsIsEnabled) {
+            return false;
+        }
+        if (itsIsAvailable == null) {
+            itsIsAvailable = checkNative();
+        }
+        return itsIsAvailable;
+    }
+
+    /**
+     * Set whether the native implementations may be used.  Ciphers and MACs
+     * which are already created are not affected.
+     */
+    public static synchronized void setEnabled(boolean enabled)
+    {
+        itsIsEnabled = enabled;
+    }
+
+    /**
+     * Create the native state of a Twofish cipher; freed with twofishFree
+     */
+    static long newTwofish(byte[] key)
+    {
+        long ctx = twofishNew(key);
+        if (ctx == 0) {
+            throw new IllegalArgumentException(
+                    "Invalid Twofish key length: " + key.length);
+        }
+        return ctx;
+    }
+
+    /**
+     * Create the native state of an HMAC-SHA256 MAC; freed with hmacFree
+     */
+    static long newHmac(byte[] key)
+    {
+        return hmacNew(key);
+    }
+
+    /**
+     * Verify that a native handle has not been freed
+     */
+    static void checkHandle(long ctx)
+    {
+        if (ctx == 0) {
+            throw new IllegalStateException("Native state cleared");
+        }
+    }
+
+    /**
+     * Verify that a range lies within a buffer before passing it to native
+     * code
+     */
+    static void checkRange(byte[] buf, int offset, int length)
+    {
+        if ((offset < 0) || (length < 0) || (offset > buf.length - length)) {
+            throw new IndexOutOfBoundsException(
+                    "Range " + offset + "+" + length +
+                    " outside buffer of " + buf.length);
+        }
+    }
+
+    /**
+     * Check whether the native library is loaded and its results match
+     * BouncyCastle
+     */
+    private static boolean checkNative()
+    {
+        try {
+            byte[] key = new byte[32];
+            byte[] iv = new byte[TwofishPws.BLOCK_SIZE];
+            byte[] data = new byte[4 * TwofishPws.BLOCK_SIZE];
+            for (int i = 0; i < data.length; ++i) {
+                data[i] = (byte)(i * 7);
+                if (i < key.length) {
+                    key[i] = (byte)i;
+                }
+                if (i < iv.length) {
+                    iv[i] = (byte)(0xff - i);
+                }
+            }
+
+            CBCBlockCipher cipher = new CBCBlockCipher(new TwofishEngine());
+            cipher.init(true, new ParametersWithIV(new KeyParameter(key), iv));
+            byte[] expected = new byte[data.length];
+            for (int i = 0; i < data.length; i += TwofishPws.BLOCK_SIZE) {
+                cipher.processBlock(data, i, expected, i);
+            }
+            byte[] encrypted = new byte[data.length];
+            long cipherCtx = newTwofish(key);
+            try {
+                twofishCBC(cipherCtx, iv.clone(), true,
+                           data, 0, data.length, encrypted, 0);
+            } finally {
+                twofishFree(cipherCtx);
+            }
+
+            HMac mac = new HMac(new SHA256Digest());
+            mac.init(new KeyParameter(key));
+            mac.update(data, 0, data.length);
+            byte[] expectedMac = new byte[HMAC_LEN];
+            mac.doFinal(expectedMac, 0);
+            byte[] nativeMac = new byte[HMAC_LEN];
+            long hmacCtx = newHmac(key);
+            try {
+                hmacUpdate(hmacCtx, data, 0, data.length);
+                hmacFinal(hmacCtx, nativeMac);
+            } finally {
+                hmacFree(hmacCtx);
+            }
+
+            if (!Arrays.equals(expected, encrypted) ||
+                !Arrays.equals(expectedMac, nativeMac)) {
+                LOG.error("Native crypto mismatch, using BouncyCastle");
+                return false;
+            }
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a keyed Twofish cipher
+     *
+     * @return The handle of the cipher; 0 if the key length is invalid
+     */
+    static native long twofishNew(byte[] key);
+
+    /**
+     * Clear and free a Twofish cipher
+     */
+    static native void twofishFree(long ctx);
+
+    static native void twofishCBC(long ctx, byte[] iv, boolean encrypt,
+                                  byte[] in, int inOff, int len,
+                                  byte[] out, int outOff);
+
+    /**
+     * Create a keyed HMAC-SHA256 MAC
+     *
+     * @return The handle of the MAC
+     */
+    static native long hmacNew(byte[] key);
+
+    /**
+     * Clear and free an HMAC-SHA256 MAC
+     */
+    static native void hmacFree(long ctx);
+
+    static native void hmacUpdate(long ctx, byte[] in, int inOff, int len);
+
+    static native void hmacFinal(long ctx, byte[] digest);
+
+    /**
+     * Decrypt a V3 record payload and compute the HMAC of its field values
+     * in one call
+     *
+     * @return false if the field lengths don't fit the payload
+     */
+    static native boolean decryptPayloadV3(long cipherCtx, byte[] iv,
+                                           long hmacCtx,
+                                           byte[] in, int inOff, int len,
+                                           byte[] out, int outOff,
+                                           byte[] digest);
+}
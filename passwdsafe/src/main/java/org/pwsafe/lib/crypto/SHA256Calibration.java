@@ -0,0 +1,93 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Arrays;
+
+/**
+ * Measures the rate of the iterated SHA-256 used to stretch passphrases on
+ * this device.  The rate is used to choose the number of iterations for a
+ * target unlock time and to predict the unlock time of a file.
+ * <p>
+ * The benchmark is run once, typically in the background at startup, and
+ * the rate is cached for the life of the process.
+ */
+public final class SHA256Calibration
+{
+    /** Minimum time to measure the digest for a stable rate */
+    private static final long MIN_MEASURE_NANOS = 50L * 1000000L;
+
+    /** Iterations used to warm up the digest before measuring */
+    private static final int WARMUP_ITER = 2048;
+
+    /** Maximum iterations of a single measurement */
+    private static final int MAX_MEASURE_ITER = 1 << 24;
+
+    private static long itsItersPerSec = 0;
+
+    /**
+     * Measure the iterations per second of the digest if not yet measured
+     *
+     * @return the iterations per second
+     */
+    public static synchronized long calibrate()
+    {
+        if (itsItersPerSec == 0) {
+            itsItersPerSec = measure();
+        }
+        return itsItersPerSec;
+    }
+
+    /**
+     * Get the number of iterations which take the target time to compute
+     *
+     * @param targetMillis the target time in milliseconds
+     * @param minIter the minimum number of iterations
+     * @param maxIter the maximum number of iterations
+     */
+    public static int getIterations(long targetMillis, int minIter, int maxIter)
+    {
+        long iter = (calibrate() * targetMillis) / 1000;
+        return (int)Math.max(minIter, Math.min(iter, maxIter));
+    }
+
+    /**
+     * Predict the time in milliseconds to stretch a passphrase with the given
+     * number of iterations
+     */
+    public static long predictMillis(int iter)
+    {
+        return (iter * 1000L) / calibrate();
+    }
+
+    /**
+     * Measure the iterations per second, doubling the iterations until the
+     * digest runs long enough to time
+     */
+    private static long measure()
+    {
+        byte[] p = new byte[64];
+        Arrays.fill(p, (byte)0x5c);
+        SHA256Pws.digestN(p, WARMUP_ITER);
+
+        int iter = WARMUP_ITER;
+        long elapsed;
+        while (true) {
+            long start = System.nanoTime();
+            SHA256Pws.digestN(p, iter);
+            elapsed = System.nanoTime() - start;
+            if ((elapsed >= MIN_MEASURE_NANOS) ||
+                (iter >= MAX_MEASURE_ITER)) {
+                break;
+            }
+            iter *= 2;
+        }
+
+        return Math.max((iter * 1000000000L) / Math.max(elapsed, 1), 1);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.util.Arrays;
+
+/**
+ * Iterated SHA-256 hash of a 32-byte value, as used for key stretching.
+ * <p>
+ * Each iteration hashes the previous 32-byte digest.  The message is always
+ * a single padded block, so the chaining value is kept as eight int words,
+ * the constant padding words are set once, and the compression function is
+ * run directly without converting the digest to and from bytes between
+ * iterations.
+ */
+public final class SHA256Iter
+{
+    /** Size of the hash in bytes */
+    public static final int HASH_LEN = 32;
+
+    private static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5,
+        0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3,
+        0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc,
+        0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7,
+        0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13,
+        0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3,
+        0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5,
+        0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208,
+        0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int IV0 = 0x6a09e667;
+    private static final int IV1 = 0xbb67ae85;
+    private static final int IV2 = 0x3c6ef372;
+    private static final int IV3 = 0xa54ff53a;
+    private static final int IV4 = 0x510e527f;
+    private static final int IV5 = 0x9b05688c;
+    private static final int IV6 = 0x1f83d9ab;
+    private static final int IV7 = 0x5be0cd19;
+
+    private final int[] itsState = new int[8];
+    private final int[] itsW = new int[64];
+
+    /**
+     * Constructor
+     */
+    public SHA256Iter()
+    {
+        // Padding for a 32-byte message: the 0x80 marker byte followed by
+        // zeros and the 256-bit message length
+        itsW[8] = 0x80000000;
+        itsW[15] = HASH_LEN * 8;
+    }
+
+    /**
+     * Set the current digest from a 32-byte array
+     */
+    public void setState(byte[] digest)
+    {
+        for (int i = 0; i < 8; ++i) {
+            int pos = i * 4;
+            itsState[i] = (digest[pos] << 24) |
+                          ((digest[pos + 1] & 0xff) << 16) |
+                          ((digest[pos + 2] & 0xff) << 8) |
+                          (digest[pos + 3] & 0xff);
+        }
+    }
+
+    /**
+     * Get the current digest into a 32-byte array
+     */
+    public void getState(byte[] digest)
+    {
+        for (int i = 0; i < 8; ++i) {
+            int pos = i * 4;
+            int v = itsState[i];
+            digest[pos] = (byte)(v >>> 24);
+            digest[pos + 1] = (byte)(v >>> 16);
+            digest[pos + 2] = (byte)(v >>> 8);
+            digest[pos + 3] = (byte)v;
+        }
+    }
+
+    /**
+     * Replace the current digest with its hash the given number of times
+     */
+    public void iterate(int iter)
+    {
+        final int[] w = itsW;
+        final int[] state = itsState;
+        int h0 = state[0];
+        int h1 = state[1];
+        int h2 = state[2];
+        int h3 = state[3];
+        int h4 = state[4];
+        int h5 = state[5];
+        int h6 = state[6];
+        int h7 = state[7];
+
+        for (int n = 0; n < iter; ++n) {
+            w[0] = h0;
+            w[1] = h1;
+            w[2] = h2;
+            w[3] = h3;
+            w[4] = h4;
+            w[5] = h5;
+            w[6] = h6;
+            w[7] = h7;
+
+            for (int t = 16; t < 64; ++t) {
+                int x = w[t - 2];
+                int y = w[t - 15];
+                int s1 = ((x >>> 17) | (x << 15)) ^
+                         ((x >>> 19) | (x << 13)) ^ (x >>> 10);
+                int s0 = ((y >>> 7) | (y << 25)) ^
+                         ((y >>> 18) | (y << 14)) ^ (y >>> 3);
+                w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+            }
+
+            int a = IV0;
+            int b = IV1;
+            int c = IV2;
+            int d = IV3;
+            int e = IV4;
+            int f = IV5;
+            int g = IV6;
+            int h = IV7;
+
+            for (int t = 0; t < 64; ++t) {
+                int t1 = h +
+                         (((e >>> 6) | (e << 26)) ^
+                          ((e >>> 11) | (e << 21)) ^
+                          ((e >>> 25) | (e << 7))) +
+                         ((e & f) ^ (~e & g)) + K[t] + w[t];
+                int t2 = (((a >>> 2) | (a << 30)) ^
+                          ((a >>> 13) | (a << 19)) ^
+                          ((a >>> 22) | (a << 10))) +
+                         ((a & b) ^ (a & c) ^ (b & c));
+                h = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + t2;
+            }
+
+            h0 = IV0 + a;
+            h1 = IV1 + b;
+            h2 = IV2 + c;
+            h3 = IV3 + d;
+            h4 = IV4 + e;
+            h5 = IV5 + f;
+            h6 = IV6 + g;
+            h7 = IV7 + h;
+        }
+
+        state[0] = h0;
+        state[1] = h1;
+        state[2] = h2;
+        state[3] = h3;
+        state[4] = h4;
+        state[5] = h5;
+        state[6] = h6;
+        state[7] = h7;
+    }
+
+    /**
+     * Clear the digest and message schedule
+     */
+    public void clear()
+    {
+        Arrays.fill(itsState, 0);
+        Arrays.fill(itsW, 0, 8, 0);
+        Arrays.fill(itsW, 16, itsW.length, 0);
+    }
+}
@@ -7,6 +7,8 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.io.InterruptedIOException;
+import java.util.Arrays;
 import java.util.Locale;
 
 import org.bouncycastle.crypto.digests.SHA256Digest;
@@ -20,6 +22,9 @@ import android.os.Build;
  */
 public class SHA256Pws {
 
+    /** Iterations digested between checks of a stretch monitor */
+    private static final int STRETCH_SLICE_ITER = 1 << 14;
+
     private static final boolean IS_CHROME;
     static {
         String brand = Build.BRAND.toLowerCase(Locale.getDefault());
@@ -35,6 +40,57 @@ public class SHA256Pws {
         }
     }
 
+    /**
+     * Iterated digest computed in slices.  Between slices, the monitor is
+     * given the progress and checked for cancellation.
+     *
+     * @param monitor the monitor of the digest; null if not monitored
+     * @throws InterruptedIOException if the monitor canceled the digest
+     */
+    public static byte[] digestN(byte[] p, int iter, StretchMonitor monitor)
+        throws InterruptedIOException
+    {
+        if (monitor == null) {
+            return digestN(p, iter);
+        }
+
+        byte[] output = digest(p);
+        SHA256Iter hash = null;
+        boolean done = false;
+        try {
+            if (IS_CHROME) {
+                hash = new SHA256Iter();
+                hash.setState(output);
+            }
+            int pos = 0;
+            while (pos < iter) {
+                if (monitor.isStretchCanceled()) {
+                    throw new InterruptedIOException("Key stretching canceled");
+                }
+                int slice = Math.min(iter - pos, STRETCH_SLICE_ITER);
+                if (hash != null) {
+                    hash.iterate(slice);
+                } else {
+                    digestIterNative(output, slice);
+                }
+                pos += slice;
+                monitor.stretchProgress((float)pos / iter);
+            }
+            if (hash != null) {
+                hash.getState(output);
+            }
+            done = true;
+        } finally {
+            if (hash != null) {
+                hash.clear();
+            }
+            if (!done) {
+                Arrays.fill(output, (byte)0);
+            }
+        }
+        return output;
+    }
+
     public static byte[] digest(byte[] incoming) {
 
     	SHA256Digest digest = new SHA256Digest();
@@ -47,7 +103,24 @@ public class SHA256Pws {
 
     }
 
-    private static byte[] digestNJava(byte[] p, int iter)
+    /**
+     * Iterated digest using the Java SHA256Iter engine
+     */
+    static byte[] digestNJava(byte[] p, int iter)
+    {
+        byte[] output = digest(p);
+        SHA256Iter hash = new SHA256Iter();
+        hash.setState(output);
+        hash.iterate(iter);
+        hash.getState(output);
+        hash.clear();
+        return output;
+    }
+
+    /**
+     * Iterated digest using the BouncyCastle digest for each round
+     */
+    static byte[] digestNBouncyCastle(byte[] p, int iter)
     {
         SHA256Digest digest = new SHA256Digest();
         byte[] output = new byte[digest.getDigestSize()];
@@ -70,5 +143,11 @@ public class SHA256Pws {
         return output;
     }
 
-    private static native byte[] digestNNative(byte[] p, int iter);
+    static native byte[] digestNNative(byte[] p, int iter);
+
+    /**
+     * Replace a 32-byte digest in place with its digest the given number of
+     * times
+     */
+    static native void digestIterNative(byte[] digest, int iter);
 }
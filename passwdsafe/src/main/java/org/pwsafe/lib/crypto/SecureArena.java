@@ -0,0 +1,122 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Slab allocator for protected values, backed by direct ByteBuffer regions
+ * outside the Java heap.
+ * <p>
+ * Each value is appended to the current slab as a length followed by its
+ * bytes and is identified by an int handle encoding its slab and offset.
+ * Values are never freed individually, since fields may be shared between
+ * records.  Instead, all of the slabs are zeroed at once when the arena is
+ * cleared.  The arena is not thread-safe; {@link FieldCipher} serializes
+ * access to it.
+ */
+final class SecureArena
+{
+    /** Size of each slab; the offset within a slab fits in 16 bits */
+    private static final int SLAB_SIZE = 64 * 1024;
+
+    private static final int OFFSET_BITS = 16;
+    private static final int OFFSET_MASK = (1 << OFFSET_BITS) - 1;
+    private static final int MAX_SLABS = 1 << (31 - OFFSET_BITS);
+    private static final int LENGTH_LEN = 4;
+
+    private final ArrayList<ByteBuffer> itsSlabs = new ArrayList<>();
+    private ByteBuffer itsCurrent;
+    private int itsCurrentIdx = -1;
+
+    /**
+     * Store a value in the arena
+     *
+     * @return the handle of the stored value
+     */
+    int store(byte[] value, int offset, int length)
+    {
+        int needed = LENGTH_LEN + length;
+        if ((itsCurrent == null) || (itsCurrent.remaining() < needed)) {
+            // Values larger than a slab are given their own slab
+            addSlab(Math.max(needed, SLAB_SIZE));
+        }
+        int pos = itsCurrent.position();
+        itsCurrent.putInt(length);
+        itsCurrent.put(value, offset, length);
+        return (itsCurrentIdx << OFFSET_BITS) | pos;
+    }
+
+    /**
+     * Load a value from the arena
+     */
+    byte[] load(int handle)
+    {
+        ByteBuffer slab = getSlab(handle);
+        int pos = handle & OFFSET_MASK;
+        int length = slab.getInt(pos);
+        byte[] value = new byte[length];
+        // Absolute gets leave the slab's append position unaffected
+        pos += LENGTH_LEN;
+        for (int i = 0; i < length; ++i) {
+            value[i] = slab.get(pos + i);
+        }
+        return value;
+    }
+
+    /**
+     * Get the total size of the slabs
+     */
+    long getCapacity()
+    {
+        long size = 0;
+        for (ByteBuffer slab: itsSlabs) {
+            size += slab.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Zero and release all of the slabs.  Handles are no longer valid.
+     */
+    void clear()
+    {
+        byte[] zeros = new byte[1024];
+        for (ByteBuffer slab: itsSlabs) {
+            slab.clear();
+            while (slab.hasRemaining()) {
+                slab.put(zeros, 0, Math.min(zeros.length, slab.remaining()));
+            }
+        }
+        itsSlabs.clear();
+        itsCurrent = null;
+        itsCurrentIdx = -1;
+    }
+
+    /** Add a new slab and make it current */
+    private void addSlab(int size)
+    {
+        if (itsSlabs.size() >= MAX_SLABS) {
+            throw new IllegalStateException("Secure arena is full");
+        }
+        itsCurrent = ByteBuffer.allocateDirect(size);
+        itsSlabs.add(itsCurrent);
+        itsCurrentIdx = itsSlabs.size() - 1;
+    }
+
+    /** Get the slab for a handle */
+    private ByteBuffer getSlab(int handle)
+    {
+        int idx = handle >>> OFFSET_BITS;
+        if ((handle < 0) || (idx >= itsSlabs.size())) {
+            throw new IllegalArgumentException("Invalid handle: " + handle);
+        }
+        return itsSlabs.get(idx);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.crypto;
+
+/**
+ * Follows the progress of stretching a passphrase and allows it to be
+ * canceled.  The monitor is consulted between slices of the iterated digest
+ * on the thread doing the stretching.  When passphrase encodings are checked
+ * concurrently, it may be called from several threads at once.
+ */
+public interface StretchMonitor
+{
+    /**
+     * Report the progress of the stretching
+     *
+     * @param fraction the fraction of the iterations done, from 0 to 1
+     */
+    void stretchProgress(float fraction);
+
+    /**
+     * Get whether the stretching should stop
+     */
+    boolean isStretchCanceled();
+}
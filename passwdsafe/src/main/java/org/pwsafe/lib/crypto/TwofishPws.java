@@ -7,6 +7,15 @@
  */
 package org.pwsafe.lib.crypto;
 
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.CryptoException;
 import org.bouncycastle.crypto.engines.TwofishEngine;
@@ -15,18 +24,38 @@ import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
 /**
- * Twofish implementation wrapper. Current implementation uses
- * BouncyCastle provider.
+ * Twofish implementation wrapper. Uses the native implementation when
+ * available, otherwise the BouncyCastle provider.
  *
  * @author Glen Smith
  */
 @SuppressWarnings("ALL")
 public class TwofishPws {
 
+	/** Size of a cipher block in bytes */
+	public static final int BLOCK_SIZE = 16;
+
 	CBCBlockCipher cipher;
 
+	/** Native cipher handle and CBC chaining value, if used */
+	private final boolean useNative;
+	private long nativeCtx;
+	private byte[] nativeIv;
+	private final boolean forEncryption;
+
 	public TwofishPws(byte[] key, boolean forEncryption, byte[] IV) {
 
+		this.forEncryption = forEncryption;
+		useNative = NativeCrypto.isAvailable();
+		if (useNative) {
+			if (IV.length != BLOCK_SIZE) {
+				throw new IllegalArgumentException("Invalid IV length: " + IV.length);
+			}
+			nativeCtx = NativeCrypto.newTwofish(key);
+			nativeIv = IV.clone();
+			return;
+		}
+
 		TwofishEngine tfe = new TwofishEngine();
     	cipher = new CBCBlockCipher(tfe);
     	KeyParameter kp = new KeyParameter(key);
@@ -40,12 +69,232 @@ public class TwofishPws {
 
     	byte[]  out = new byte[input.length];
 
-        cipher.processBlock(input, 0, out, 0);
+        processCBC(input, 0, BLOCK_SIZE, out, 0);
 
         return out;
 
 	}
 
+	/**
+	 * Encrypt or decrypt a run of blocks in CBC mode.  The input and output
+	 * may be the same buffer.
+	 *
+	 * @param input the input data
+	 * @param inOff the offset of the first input block
+	 * @param len the number of bytes to process; a multiple of BLOCK_SIZE
+	 * @param output the buffer for the processed data
+	 * @param outOff the offset in output for the first processed block
+	 */
+	public final void processCBC(byte[] input, int inOff, int len,
+	                             byte[] output, int outOff) {
+		if ((len % BLOCK_SIZE) != 0) {
+			throw new IllegalArgumentException("Length not a multiple of block size: " + len);
+		}
+		if (useNative) {
+			NativeCrypto.checkRange(input, inOff, len);
+			NativeCrypto.checkRange(output, outOff, len);
+			synchronized (this) {
+				NativeCrypto.checkHandle(nativeCtx);
+				NativeCrypto.twofishCBC(nativeCtx, nativeIv, forEncryption,
+				                        input, inOff, len, output, outOff);
+			}
+			return;
+		}
+		for (int pos = 0; pos < len; pos += BLOCK_SIZE) {
+			cipher.processBlock(input, inOff + pos, output, outOff + pos);
+		}
+	}
+
+	/**
+	 * Decrypt a V3 record payload in CBC mode and compute the HMAC of its
+	 * field values.  Each field is a 4-byte little-endian length and a type
+	 * byte followed by the value, padded to a whole number of blocks.  With
+	 * the native cipher and HMAC, the payload is handled in one JNI call.
+	 *
+	 * @param hmac the file's HMAC, which is reset for a new message
+	 * @param input the encrypted payload
+	 * @param inOff the offset of the payload
+	 * @param len the length of the payload; a multiple of BLOCK_SIZE
+	 * @param output the buffer for the decrypted payload
+	 * @param outOff the offset in output for the decrypted payload
+	 * @return The HMAC of the field values; null if a field's length runs
+	 *         past the end of the payload
+	 */
+	public final byte[] decryptPayloadV3(HmacPws hmac,
+	                                     byte[] input, int inOff, int len,
+	                                     byte[] output, int outOff) {
+		if (forEncryption) {
+			throw new IllegalStateException("Cipher not for decryption");
+		}
+		if ((len % BLOCK_SIZE) != 0) {
+			throw new IllegalArgumentException("Length not a multiple of block size: " + len);
+		}
+		if (useNative && hmac.useNative) {
+			NativeCrypto.checkRange(input, inOff, len);
+			NativeCrypto.checkRange(output, outOff, len);
+			byte[] digest = new byte[NativeCrypto.HMAC_LEN];
+			boolean valid;
+			synchronized (this) {
+				synchronized (hmac) {
+					NativeCrypto.checkHandle(nativeCtx);
+					NativeCrypto.checkHandle(hmac.nativeCtx);
+					valid = NativeCrypto.decryptPayloadV3(
+							nativeCtx, nativeIv, hmac.nativeCtx,
+							input, inOff, len, output, outOff, digest);
+				}
+			}
+			return valid ? digest : null;
+		}
+
+		processCBC(input, inOff, len, output, outOff);
+		return hashPayloadV3(hmac, output, outOff, len);
+	}
+
+	/**
+	 * Compute the HMAC of the field values of a decrypted V3 record payload
+	 *
+	 * @param hmac the file's HMAC, which is reset for a new message
+	 * @param data the decrypted payload
+	 * @param offset the offset of the payload
+	 * @param len the length of the payload
+	 * @return The HMAC of the field values; null if a field's length runs
+	 *         past the end of the payload
+	 */
+	public static byte[] hashPayloadV3(HmacPws hmac,
+	                                   byte[] data, int offset, int len) {
+		boolean valid = true;
+		int pos = 0;
+		while (pos < len) {
+			if ((len - pos) < BLOCK_SIZE) {
+				valid = false;
+				break;
+			}
+			int fieldPos = offset + pos;
+			long fieldLen = (data[fieldPos] & 0xffL) |
+			                ((data[fieldPos + 1] & 0xffL) << 8) |
+			                ((data[fieldPos + 2] & 0xffL) << 16) |
+			                ((data[fieldPos + 3] & 0xffL) << 24);
+			int start = pos + 5;
+			if (fieldLen > (len - start)) {
+				valid = false;
+				break;
+			}
+			hmac.digest(data, offset + start, (int)fieldLen);
+			pos += ((5 + (int)fieldLen + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+		}
+		byte[] digest = hmac.doFinal();
+		return valid ? digest : null;
+	}
+
+	/**
+	 * Decrypt a run of blocks in CBC mode using several threads.  Each block
+	 * only depends on its ciphertext and that of the block before it, so the
+	 * run is split into chunks which are decrypted concurrently, each with
+	 * its own key schedule and the last ciphertext block of the previous
+	 * chunk as its IV.  The first chunk is decrypted on the caller's thread.
+	 *
+	 * @param key the cipher key
+	 * @param iv the IV for the first block
+	 * @param input the encrypted data
+	 * @param inOff the offset of the first input block
+	 * @param len the number of bytes to decrypt; a multiple of BLOCK_SIZE
+	 * @param output the buffer for the decrypted data, which may be the
+	 *               input buffer to decrypt in place
+	 * @param outOff the offset in output for the first decrypted block
+	 * @param numChunks the number of chunks to decrypt concurrently
+	 * @throws InterruptedIOException If interrupted while waiting for the
+	 *                                workers
+	 */
+	public static void decryptCBCParallel(final byte[] key, byte[] iv,
+	                                      final byte[] input, int inOff, int len,
+	                                      final byte[] output, int outOff,
+	                                      int numChunks)
+		throws InterruptedIOException {
+		if ((len % BLOCK_SIZE) != 0) {
+			throw new IllegalArgumentException("Length not a multiple of block size: " + len);
+		}
+		int numBlocks = len / BLOCK_SIZE;
+		numChunks = Math.max(1, Math.min(numChunks, numBlocks));
+		int chunkBlocks = (numBlocks + numChunks - 1) / numChunks;
+		int firstLen = Math.min(chunkBlocks * BLOCK_SIZE, len);
+
+		// Take the IVs of the chunks before any are decrypted as the output
+		// may overwrite the input
+		List<byte[]> chunkIvs = new ArrayList<byte[]>();
+		for (int pos = firstLen; pos < len; pos += chunkBlocks * BLOCK_SIZE) {
+			chunkIvs.add(Arrays.copyOfRange(input, inOff + pos - BLOCK_SIZE,
+			                                inOff + pos));
+		}
+
+		ExecutorService executor = null;
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			int chunk = 0;
+			for (int pos = firstLen; pos < len; pos += chunkBlocks * BLOCK_SIZE) {
+				if (executor == null) {
+					executor = Executors.newFixedThreadPool(numChunks - 1);
+				}
+				final int chunkIn = inOff + pos;
+				final int chunkOut = outOff + pos;
+				final int chunkLen = Math.min(chunkBlocks * BLOCK_SIZE, len - pos);
+				final byte[] chunkIv = chunkIvs.get(chunk++);
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						TwofishPws cipher = new TwofishPws(key, false, chunkIv);
+						try {
+							cipher.processCBC(input, chunkIn, chunkLen,
+							                  output, chunkOut);
+						} finally {
+							cipher.clear();
+						}
+					}
+				}));
+			}
+
+			TwofishPws cipher = new TwofishPws(key, false, iv);
+			try {
+				cipher.processCBC(input, inOff, firstLen, output, outOff);
+			} finally {
+				cipher.clear();
+			}
+
+			for (Future<?> future: futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Decryption interrupted");
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Clear and free the native key schedule.  The cipher can't be used
+	 * afterwards.
+	 */
+	public final synchronized void clear() {
+		if (nativeCtx != 0) {
+			NativeCrypto.twofishFree(nativeCtx);
+			nativeCtx = 0;
+		}
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		try {
+			clear();
+		} finally {
+			super.finalize();
+		}
+	}
+
     public static byte[] processECB(byte[] key, boolean forEncryption, byte[] input) {
 
     	BufferedBlockCipher cipher = new BufferedBlockCipher(new TwofishEngine());
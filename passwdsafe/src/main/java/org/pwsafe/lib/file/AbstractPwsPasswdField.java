@@ -9,16 +9,12 @@ package org.pwsafe.lib.file;
 
 import android.support.annotation.NonNull;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.SealedObject;
-
-import org.bouncycastle.crypto.RuntimeCryptoException;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.FieldCipher;
 
 
 @SuppressWarnings("ALL")
@@ -26,15 +22,48 @@ public abstract class AbstractPwsPasswdField extends PwsField
 {
     private static final long serialVersionUID = -5633832199601878672L;
 
-    private final Cipher itsReadCipher;
+    private static final String SEAL_ENCODING = "UTF-8";
+
+    private static final int NO_HANDLE = -1;
+
+    /** Length of a reference password: [[<32 hex digits>]] */
+    private static final int REF_LEN = 36;
+
+    /** Kind of reference to another record made by a password */
+    public enum RefType
+    {
+        /** Not a reference */
+        NONE,
+        /** An alias: [[<uuid>]] */
+        ALIAS,
+        /** A shortcut: [~<uuid>~] */
+        SHORTCUT
+    }
+
+    private final FieldCipher itsCipher;
+    /** Handle of the sealed value in the file's secure arena */
+    private final int itsHandle;
     private final String itsStrEncoding;
+    /**
+     * Reference made by the value and the halves of the referenced UUID,
+     * classified from the plaintext when the field is created so the value
+     * needn't be unsealed to find aliases and shortcuts
+     */
+    private final RefType itsRefType;
+    private final long itsRefHigh;
+    private final long itsRefLow;
 
     public AbstractPwsPasswdField(int type, byte[] value, PwsFile file,
                                   String encoding)
     {
-        super(type, sealValue(value, encoding, file.getWriteCipher()));
+        super(type, null);
+        long[] ref = new long[2];
+        itsRefType = classifyRef(value, ref);
+        itsRefHigh = ref[0];
+        itsRefLow = ref[1];
+        itsCipher = file.getFieldCipher();
+        itsHandle = storeValue(value, encoding, itsCipher);
         Arrays.fill(value, (byte)0);
-        itsReadCipher = file.getReadCipher();
         itsStrEncoding = encoding;
     }
 
@@ -42,8 +71,13 @@ public abstract class AbstractPwsPasswdField extends PwsField
     public AbstractPwsPasswdField(int type, String value, PwsFile file,
                                   String encoding)
     {
-        super(type, sealValue(value, file.getWriteCipher()));
-        itsReadCipher = file.getReadCipher();
+        super(type, null);
+        long[] ref = new long[2];
+        itsRefType = classifyRef(value, ref);
+        itsRefHigh = ref[0];
+        itsRefLow = ref[1];
+        itsCipher = file.getFieldCipher();
+        itsHandle = itsCipher.store(value);
         itsStrEncoding = encoding;
     }
 
@@ -51,8 +85,63 @@ public abstract class AbstractPwsPasswdField extends PwsField
     public AbstractPwsPasswdField(PwsFieldType type, String encoding)
     {
         super(type, null);
-        itsReadCipher = null;
+        itsCipher = null;
+        itsHandle = NO_HANDLE;
         itsStrEncoding = encoding;
+        itsRefType = RefType.NONE;
+        itsRefHigh = 0;
+        itsRefLow = 0;
+    }
+
+
+    /**
+     * Get the handle of the sealed value in the file's secure arena;
+     * NO_HANDLE if the field has no value
+     */
+    int getHandle()
+    {
+        return itsHandle;
+    }
+
+
+    /** Get the kind of reference to another record made by the value */
+    public RefType getRefType()
+    {
+        return itsRefType;
+    }
+
+
+    /** Get the high 64 bits of the referenced UUID */
+    public long getRefHigh()
+    {
+        return itsRefHigh;
+    }
+
+
+    /** Get the low 64 bits of the referenced UUID */
+    public long getRefLow()
+    {
+        return itsRefLow;
+    }
+
+
+    /**
+     * Returns a hash code of the value, which is the same as that of an
+     * equal String
+     */
+    @Override
+    public int hashCode()
+    {
+        CharBuffer chars = getChars();
+        try {
+            int hash = 0;
+            for (int i = chars.position(); i < chars.limit(); ++i) {
+                hash = 31 * hash + chars.get(i);
+            }
+            return hash;
+        } finally {
+            Util.clear(chars);
+        }
     }
 
 
@@ -94,7 +183,18 @@ public abstract class AbstractPwsPasswdField extends PwsField
      */
     public boolean equals( AbstractPwsPasswdField arg0 )
     {
-        return toString().equals(arg0.toString());
+        if ((itsCipher == arg0.itsCipher) &&
+            (itsHandle == arg0.getHandle())) {
+            return true;
+        }
+        CharBuffer chars = getChars();
+        CharBuffer otherChars = arg0.getChars();
+        try {
+            return chars.equals(otherChars);
+        } finally {
+            Util.clear(chars);
+            Util.clear(otherChars);
+        }
     }
 
     /**
@@ -107,27 +207,36 @@ public abstract class AbstractPwsPasswdField extends PwsField
      */
     public boolean equals( String arg0 )
     {
-        return toString().equals(arg0);
+        CharBuffer chars = getChars();
+        try {
+            return (arg0 != null) && arg0.contentEquals(chars);
+        } finally {
+            Util.clear(chars);
+        }
     }
 
 
     @Override
     public String toString()
     {
-        SealedObject sealValue = (SealedObject)getValue();
-        try {
-            if (sealValue == null) {
-                return "";
-            } else {
-                return (String) sealValue.getObject(itsReadCipher);
-            }
+        if (itsHandle == NO_HANDLE) {
+            return "";
         }
-        catch (IllegalBlockSizeException | BadPaddingException |
-                ClassNotFoundException e) {
-            throw new RuntimeCryptoException(e.getMessage());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        return itsCipher.loadString(itsHandle);
+    }
+
+
+    /**
+     * Get the value's characters without creating a String.  The caller
+     * owns the returned buffer and should clear it with
+     * {@link org.pwsafe.lib.Util#clear(CharBuffer)} when done.
+     */
+    public CharBuffer getChars()
+    {
+        if (itsHandle == NO_HANDLE) {
+            return CharBuffer.wrap(new char[0]);
         }
+        return itsCipher.loadChars(itsHandle);
     }
 
 
@@ -143,25 +252,86 @@ public abstract class AbstractPwsPasswdField extends PwsField
     }
 
 
-    private static SealedObject sealValue(byte[] value, String encoding,
-                                          Cipher cipher)
+    /**
+     * Classify an encoded value as a reference.  Only ASCII characters make
+     * up a reference, so each byte is taken as a character.
+     */
+    private static RefType classifyRef(byte[] value, long[] ref)
     {
+        if (value.length != REF_LEN) {
+            return RefType.NONE;
+        }
+        char[] chars = new char[REF_LEN];
         try {
-            return sealValue(new String(value, encoding), cipher);
+            for (int i = 0; i < REF_LEN; ++i) {
+                chars[i] = (char)(value[i] & 0xff);
+            }
+            return classifyRef(CharBuffer.wrap(chars), ref);
+        } finally {
+            Arrays.fill(chars, '\0');
         }
-        catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+    }
+
+
+    /**
+     * Classify a value as a reference to another record, in the form
+     * [[&lt;uuid&gt;]] for an alias or [~&lt;uuid&gt;~] for a shortcut where
+     * the UUID is 32 hex digits
+     *
+     * @param value the value
+     * @param ref set to the high and low halves of the referenced UUID
+     * @return the kind of reference
+     */
+    private static RefType classifyRef(CharSequence value, long[] ref)
+    {
+        if (value.length() != REF_LEN) {
+            return RefType.NONE;
         }
+        RefType type;
+        char open0 = value.charAt(0);
+        char open1 = value.charAt(1);
+        char close0 = value.charAt(REF_LEN - 2);
+        char close1 = value.charAt(REF_LEN - 1);
+        if ((open0 == '[') && (open1 == '[') &&
+            (close0 == ']') && (close1 == ']')) {
+            type = RefType.ALIAS;
+        } else if ((open0 == '[') && (open1 == '~') &&
+                   (close0 == '~') && (close1 == ']')) {
+            type = RefType.SHORTCUT;
+        } else {
+            return RefType.NONE;
+        }
+
+        for (int half = 0; half < 2; ++half) {
+            long val = 0;
+            for (int i = 2 + half * 16; i < 2 + (half + 1) * 16; ++i) {
+                int digit = Character.digit(value.charAt(i), 16);
+                if (digit < 0) {
+                    return RefType.NONE;
+                }
+                val = (val << 4) | digit;
+            }
+            ref[half] = val;
+        }
+        return type;
     }
 
 
-    private static SealedObject sealValue(String value, Cipher cipher)
+    /**
+     * Store a value in the field's encoding.  A UTF-8 value is sealed as is
+     * rather than decoded to a String first.
+     */
+    private static int storeValue(byte[] value, String encoding,
+                                  FieldCipher cipher)
     {
+        if (SEAL_ENCODING.equals(encoding)) {
+            return cipher.store(value, 0, value.length);
+        }
         try {
-            return new SealedObject(value, cipher);
+            return cipher.store(new String(value, encoding));
         }
-        catch (IllegalBlockSizeException | IOException e) {
-            throw new RuntimeCryptoException(e.getMessage());
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
         }
     }
 }
@@ -96,6 +96,18 @@ public abstract class PwsField implements Comparable<Object>, Serializable
 		return Value;
 	}
 
+	/**
+	 * Returns the field with its value decoded.  A field left in its file's
+	 * payload by a lazy load is decoded into a new field each time; other
+	 * fields return themselves.
+	 *
+	 * @return The decoded field.
+	 */
+	public PwsField getDecoded()
+	{
+		return this;
+	}
+
 	/**
 	 * Returns a hash code for this object.
 	 *
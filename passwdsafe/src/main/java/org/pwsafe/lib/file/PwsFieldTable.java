@@ -0,0 +1,148 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The fields of a record keyed by their type.  The types are kept sorted in
+ * a small int array with the fields in a parallel array, so a record holds
+ * no boxed keys or tree nodes, and a lookup is a search of the types
+ * without allocation.  Records have few fields, so the arrays are grown a
+ * little at a time.
+ */
+final class PwsFieldTable implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final int[] NO_TYPES = new int[0];
+    private static final PwsField[] NO_FIELDS = new PwsField[0];
+    private static final int GROW_SIZE = 4;
+
+    private int[] itsTypes = NO_TYPES;
+    private PwsField[] itsFields = NO_FIELDS;
+    private int itsSize = 0;
+
+    /** Get the number of fields */
+    int size()
+    {
+        return itsSize;
+    }
+
+    /** Get the field of a type; null if not present */
+    PwsField get(int type)
+    {
+        int idx = Arrays.binarySearch(itsTypes, 0, itsSize, type);
+        return (idx >= 0) ? itsFields[idx] : null;
+    }
+
+    /**
+     * Set the field of a type
+     *
+     * @return the previous field of the type; null if none
+     */
+    PwsField put(int type, PwsField field)
+    {
+        int idx = Arrays.binarySearch(itsTypes, 0, itsSize, type);
+        if (idx >= 0) {
+            PwsField prev = itsFields[idx];
+            itsFields[idx] = field;
+            return prev;
+        }
+
+        idx = -(idx + 1);
+        if (itsSize == itsTypes.length) {
+            itsTypes = Arrays.copyOf(itsTypes, itsSize + GROW_SIZE);
+            itsFields = Arrays.copyOf(itsFields, itsSize + GROW_SIZE);
+        }
+        System.arraycopy(itsTypes, idx, itsTypes, idx + 1, itsSize - idx);
+        System.arraycopy(itsFields, idx, itsFields, idx + 1, itsSize - idx);
+        itsTypes[idx] = type;
+        itsFields[idx] = field;
+        ++itsSize;
+        return null;
+    }
+
+    /**
+     * Remove the field of a type
+     *
+     * @return the removed field; null if none
+     */
+    PwsField remove(int type)
+    {
+        int idx = Arrays.binarySearch(itsTypes, 0, itsSize, type);
+        if (idx < 0) {
+            return null;
+        }
+        PwsField field = itsFields[idx];
+        removeAt(idx);
+        return field;
+    }
+
+    /** Get the type of the field at an index in type order */
+    int typeAt(int idx)
+    {
+        return itsTypes[idx];
+    }
+
+    /** Get the field at an index in type order */
+    PwsField fieldAt(int idx)
+    {
+        return itsFields[idx];
+    }
+
+    /** Get an iterator over the types in order */
+    Iterator<Integer> types()
+    {
+        return new Iterator<Integer>()
+        {
+            private int itsNext = 0;
+            private int itsLast = -1;
+
+            @Override
+            public boolean hasNext()
+            {
+                return itsNext < itsSize;
+            }
+
+            @Override
+            public Integer next()
+            {
+                if (itsNext >= itsSize) {
+                    throw new NoSuchElementException();
+                }
+                itsLast = itsNext++;
+                return itsTypes[itsLast];
+            }
+
+            @Override
+            public void remove()
+            {
+                if (itsLast < 0) {
+                    throw new IllegalStateException();
+                }
+                removeAt(itsLast);
+                itsNext = itsLast;
+                itsLast = -1;
+            }
+        };
+    }
+
+    /** Remove the field at an index */
+    private void removeAt(int idx)
+    {
+        int numMoved = itsSize - idx - 1;
+        System.arraycopy(itsTypes, idx + 1, itsTypes, idx, numMoved);
+        System.arraycopy(itsFields, idx + 1, itsFields, idx, numMoved);
+        --itsSize;
+        itsFields[itsSize] = null;
+    }
+}
@@ -12,9 +12,8 @@ package org.pwsafe.lib.file;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,20 +25,12 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SealedObject;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
-import org.bouncycastle.crypto.RuntimeCryptoException;
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.FieldCipher;
 import org.pwsafe.lib.crypto.InMemoryKey;
+import org.pwsafe.lib.crypto.StretchMonitor;
 import org.pwsafe.lib.exception.EndOfFileException;
-import org.pwsafe.lib.exception.MemoryKeyException;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
 
@@ -114,11 +105,19 @@ public abstract class PwsFile
 	/** Encoding to use for the file's password */
 	private static String itsPasswordEncoding = DEFAULT_PASSWORD_CHARSET;
 
-	/** Cipher spec for storing passwords in memory */
-	private static final String CIPHER_SPEC = "AES/CBC/PKCS5Padding";
+	/** Default number of worker threads used to check password encodings */
+	public static final int DEFAULT_PASSWORD_CHECK_THREADS =
+	    Runtime.getRuntime().availableProcessors();
+
+	/** Number of worker threads used to check password encodings */
+	private static int itsPasswordCheckThreads = DEFAULT_PASSWORD_CHECK_THREADS;
 
-	/** Cipher key spec for storing passwords in memory */
-	private static final String CIPHER_KEY_SPEC = "AES";
+	/** Default number of threads used to decrypt the records of a file */
+	public static final int DEFAULT_DECRYPT_THREADS =
+	    Runtime.getRuntime().availableProcessors();
+
+	/** Number of threads used to decrypt the records of a file */
+	private static int itsDecryptThreads = DEFAULT_DECRYPT_THREADS;
 
 	/** Cipher key length for storing passwords in memory */
 	private static final int CIPHER_KEY_LEN = 16;
@@ -127,9 +126,15 @@ public abstract class PwsFile
 	protected PwsStorage		storage;
 
 	/**
-	 * The passphrase for the file.
+	 * The passphrase for the file, sealed by the field cipher.
 	 */
-	protected SealedObject passphrase;
+	protected byte[] passphrase;
+
+	/**
+	 * The monitor of the passphrase stretching while the file is opened; null
+	 * if not monitored.
+	 */
+	protected StretchMonitor stretchMonitor;
 
 	/**
 	 * The stream used to read data from the storage.  It is non-null only whilst data
@@ -137,6 +142,13 @@ public abstract class PwsFile
 	 */
 	protected InputStream		inStream;
 
+	/**
+	 * A read-only view of the data read from the storage, used instead of
+	 * <code>inStream</code> when set.  It is non-null only whilst data are being
+	 * read from the file.
+	 */
+	protected ByteBuffer		inBuffer;
+
 	/**
 	 * The stream used to write data to the storage.  It is non-null only whilst data are
 	 * being written to the file.
@@ -167,10 +179,11 @@ public abstract class PwsFile
 	protected Date 				lastStorageChange;
 
 	private InMemoryKey			memoryKey;
-	private byte[] 				memoryIv;
 
-    private Cipher itsReadCipher;
-    private Cipher itsWriteCipher;
+    private FieldCipher itsFieldCipher;
+
+    /** Pool of repeated string field values shared by the records */
+    private PwsStringPool itsStringPool;
 
 	/** The password encoding which was used to open the file */
 	private String itsOpenPasswordEncoding;
@@ -197,9 +210,35 @@ public abstract class PwsFile
 	 */
 	protected PwsFile( PwsStorage aStorage, String aPassphrase, String encoding )
 	throws EndOfFileException, IOException, UnsupportedFileVersionException, NoSuchAlgorithmException
+	{
+		this( aStorage, aPassphrase, encoding, null );
+	}
+
+	/**
+	 * Construct the PasswordSafe file by reading it from the file, following
+	 * the stretching of the passphrase with a monitor.
+	 *
+	 * @param aStorage  the storage of the database to open.
+	 * @param aPassphrase the passphrase for the database.
+	 * @param encoding the passphrase encoding (if known)
+	 * @param monitor the monitor of the stretching; null if not monitored
+	 *
+	 * @throws EndOfFileException
+	 * @throws IOException
+	 * @throws UnsupportedFileVersionException
+	 * @throws NoSuchAlgorithmException if no SHA-1 implementation is found.
+	 */
+	protected PwsFile( PwsStorage aStorage, String aPassphrase, String encoding,
+	                   StretchMonitor monitor )
+	throws EndOfFileException, IOException, UnsupportedFileVersionException, NoSuchAlgorithmException
 	{
 		this.storage = aStorage;
-		open( aPassphrase, encoding );
+		this.stretchMonitor = monitor;
+		try {
+			open( aPassphrase, encoding );
+		} finally {
+			this.stretchMonitor = null;
+		}
 	}
 
 	/**
@@ -267,6 +306,7 @@ public abstract class PwsFile
 	void close()
 	throws IOException
 	{
+		inBuffer	= null;
 		if ( inStream != null )
 		{
 			inStream.close();
@@ -283,69 +323,47 @@ public abstract class PwsFile
         if (memoryKey != null) {
         	memoryKey.dispose();
         }
-        if (memoryIv != null) {
-        	Arrays.fill(memoryIv, (byte) 0);
-        	memoryIv = null;
+        if (itsFieldCipher != null) {
+            itsFieldCipher.clear();
         }
+        setStringPool(null);
     }
 
-    final Cipher getReadCipher() {
-        return getCipher(false);
-    }
-
-    final Cipher getWriteCipher() {
-        return getCipher(true);
+    /**
+     * Get the pool of repeated string field values; null if none
+     */
+    final synchronized PwsStringPool getStringPool() {
+        return itsStringPool;
     }
 
-    private Cipher getCipher (boolean forWriting) {
-    	if (memoryIv == null) {
-    		memoryIv = new byte[CIPHER_KEY_LEN];
-    		Util.newRandBytes(memoryIv);
-    	}
-
-    	if (forWriting && (itsWriteCipher != null)) {
-    	    return itsWriteCipher;
-    	} else if (!forWriting && (itsReadCipher != null)) {
-    	    return itsReadCipher;
-    	}
-
-    	//TODOlib: use BouncyCastle Provider!
-    	SecretKeySpec   key = new SecretKeySpec(getKeyBytes(), CIPHER_KEY_SPEC);
-        IvParameterSpec ivSpec = new IvParameterSpec(memoryIv);
-        Cipher cipher = null;
-		try {
-		    cipher = Cipher.getInstance(CIPHER_SPEC);
-		} catch (NoSuchAlgorithmException e1) {
-			throw new MemoryKeyException("memory key generation failed",e1);
-//		} catch (NoSuchProviderException e1) {
-//			throw new MemoryKeyException("memory Key generation failed", e1);
-		} catch (NoSuchPaddingException e1) {
-			throw new MemoryKeyException("memory key generation failed",e1);
-		}
-
-        try {
-        	if (forWriting) {
-        		cipher.init(Cipher.ENCRYPT_MODE, key, ivSpec);
-        		itsWriteCipher = cipher;
-        	} else {
-        		cipher.init(Cipher.DECRYPT_MODE, key, ivSpec);
-        		itsReadCipher = cipher;
-        	}
-		} catch (InvalidKeyException e) {
-			throw new MemoryKeyException("memory key generation failed",e);
-		} catch (InvalidAlgorithmParameterException e) {
-			throw new MemoryKeyException("memory key generation failed",e);
-		}
-
-    	return cipher;
+    /**
+     * Set the pool of repeated string field values, clearing any previous
+     * pool
+     */
+    final synchronized void setStringPool(PwsStringPool pool) {
+        if (itsStringPool != null) {
+            itsStringPool.clear();
+        }
+        itsStringPool = pool;
     }
 
-    private byte[] getKeyBytes () {
-    	if (memoryKey == null) {
-    		memoryKey = new InMemoryKey(CIPHER_KEY_LEN);
-    		memoryKey.init();
-	    }
-    	return memoryKey.getKey(CIPHER_KEY_LEN);
+    /**
+     * Get the cipher used to protect sensitive values held in memory
+     */
+    final synchronized FieldCipher getFieldCipher() {
+        if (itsFieldCipher == null) {
+            if (memoryKey == null) {
+                memoryKey = new InMemoryKey(CIPHER_KEY_LEN);
+                memoryKey.init();
+            }
+            byte[] key = memoryKey.getKey(CIPHER_KEY_LEN);
+            try {
+                itsFieldCipher = new FieldCipher(key);
+            } finally {
+                Arrays.fill(key, (byte)0);
+            }
+        }
+        return itsFieldCipher;
     }
 
 	/**
@@ -378,18 +396,8 @@ public abstract class PwsFile
 	 */
 	public String getPassphrase()
 	{
-		try {
-			return passphrase == null ?
-			    null : passphrase.getObject(getReadCipher()).toString();
-		} catch (IllegalBlockSizeException e) {
-			throw new RuntimeCryptoException(e.getMessage());
-		} catch (BadPaddingException e) {
-			throw new RuntimeCryptoException(e.getMessage());
-		} catch (IOException e) {
-			throw new RuntimeCryptoException(e.getMessage());
-		} catch (ClassNotFoundException e) {
-			throw new RuntimeCryptoException(e.getMessage());
-		}
+		return passphrase == null ?
+		    null : getFieldCipher().openString(passphrase);
 	}
 
 	/**
@@ -524,7 +532,22 @@ public abstract class PwsFile
 	{
 		int count;
 
-		count = inStream.read( bytes );
+		if ( inBuffer != null )
+		{
+			count = Math.min( bytes.length, inBuffer.remaining() );
+			if ( count == 0 )
+			{
+				count = -1;
+			}
+			else
+			{
+				inBuffer.get( bytes, 0, count );
+			}
+		}
+		else
+		{
+			count = inStream.read( bytes );
+		}
 
 		if ( count == -1 )
 		{
@@ -610,6 +633,52 @@ public abstract class PwsFile
 	public abstract void save()
 	throws IOException, NoSuchAlgorithmException, ConcurrentModificationException;
 
+	/**
+	 * Encrypts the contents of the file into memory to be written later by
+	 * {@link #saveEncrypted(byte[])}.  The records are read, so they must not
+	 * be changed at the same time.  The modified flag is reset.
+	 *
+	 * @return The encrypted contents of the file
+	 * @throws IOException if the attempt fails.
+	 * @throws NoSuchAlgorithmException if no SHA-1 implementation is found.
+	 */
+	public abstract byte[] encryptForSave()
+	throws IOException, NoSuchAlgorithmException;
+
+	/**
+	 * Writes contents encrypted by {@link #encryptForSave()} to the storage.
+	 * The records aren't used, so they may be changed while the contents are
+	 * written.  Only one save may run at a time.  If the write fails, the
+	 * modified flag is set again.
+	 *
+	 * @param data the encrypted contents of the file
+	 * @throws IOException if the attempt fails.
+	 * @throws ConcurrentModificationException if the underlying store was
+	 * independently changed
+	 */
+	public void saveEncrypted(byte[] data)
+	throws IOException, ConcurrentModificationException
+	{
+		boolean saved = false;
+		try {
+			if (isReadOnly())
+				throw new IOException("File is read only");
+
+			if (lastStorageChange != null && // check for concurrent change
+				storage.getModifiedDate().after(lastStorageChange)) {
+				throw new ConcurrentModificationException("Password store was changed independently - no save possible!");
+			}
+
+			if (!storage.save(data, getFileVersionMajor() == PwsFileV3.VERSION))
+				throw new IOException("Unable to save file");
+			lastStorageChange = storage.getModifiedDate();
+			saved = true;
+		} finally {
+			if (!saved)
+				setModified();
+		}
+	}
+
 	/**
 	 * Set the flag to indicate that the file has been modified.  There should not normally
 	 * be any reason to call this method as it should be called indirectly when a record is
@@ -638,16 +707,9 @@ public abstract class PwsFile
 	 * @param pass
 	 */
 	public void setPassphrase( StringBuilder pass ) {
-	    // TODOlib: convert to byte[] first
-		try {
-			passphrase	= new SealedObject(pass, getWriteCipher());
-			// now overwrite given StringBuider
-			Util.clear(pass);
-		} catch (IllegalBlockSizeException e) {
-			throw new RuntimeCryptoException(e.getMessage());
-		} catch (IOException e) {
-			throw new RuntimeCryptoException(e.getMessage());
-		}
+		passphrase	= getFieldCipher().seal(pass);
+		// now overwrite given StringBuider
+		Util.clear(pass);
 	}
 
 	/**
@@ -663,6 +725,21 @@ public abstract class PwsFile
 		outStream.write( buffer );
 	}
 
+	/**
+	 * Writes a range of unencrypted bytes to the file.
+	 *
+	 * @param buffer the data to be written.
+	 * @param offset the offset of the first byte to write.
+	 * @param length the number of bytes to write.
+	 *
+	 * @throws IOException
+	 */
+	public void writeBytes( byte [] buffer, int offset, int length )
+	throws IOException
+	{
+		outStream.write( buffer, offset, length );
+	}
+
 	/**
 	 * Encrypts then writes the contents of <code>buff</code> to the file.
 	 *
@@ -735,6 +812,44 @@ public abstract class PwsFile
 	    itsPasswordEncoding = encoding;
 	}
 
+	/**
+	 * Get the maximum number of worker threads used to check the password
+	 * encodings concurrently when opening a file
+	 */
+	public static synchronized int getPasswordCheckThreads()
+	{
+	    return itsPasswordCheckThreads;
+	}
+
+	/**
+	 * Set the maximum number of worker threads used to check the password
+	 * encodings concurrently when opening a file.  A value of one checks the
+	 * encodings sequentially on the opening thread.
+	 */
+	public static synchronized void setPasswordCheckThreads(int threads)
+	{
+	    itsPasswordCheckThreads = Math.max(threads, 1);
+	}
+
+	/**
+	 * Get the maximum number of threads used to decrypt the records of a
+	 * file when opening it
+	 */
+	public static synchronized int getDecryptThreads()
+	{
+	    return itsDecryptThreads;
+	}
+
+	/**
+	 * Set the maximum number of threads used to decrypt the records of a
+	 * file when opening it.  A value of one decrypts the records on the
+	 * opening thread.
+	 */
+	public static synchronized void setDecryptThreads(int threads)
+	{
+	    itsDecryptThreads = Math.max(threads, 1);
+	}
+
 	/**
      * This provides a wrapper around the <code>Iterator</code> that is returned by the
      * <code>iterator()</code> method on the Collections class used to store the PasswordSafe
@@ -18,6 +18,7 @@ import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.BlowfishPwsECB;
 import org.pwsafe.lib.crypto.SHA1;
+import org.pwsafe.lib.crypto.StretchMonitor;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.PasswordSafeException;
@@ -198,9 +199,33 @@ public class PwsFileFactory {
 	 */
 	public static final PwsFile loadFile( String filename, StringBuilder aPassphrase )
 	throws EndOfFileException, FileNotFoundException, InvalidPassphraseException, IOException, UnsupportedFileVersionException, NoSuchAlgorithmException
+	{
+	    return loadFile(filename, aPassphrase, null);
+	}
+
+	/**
+	 * Loads a Password Safe file, following the stretching of the passphrase
+	 * with a monitor which may cancel the load.
+	 *
+	 * @param filename   the name of the file to open
+	 * @param passphrase the passphrase for the file
+	 * @param monitor    the monitor of the stretching; null if not monitored
+	 *
+	 * @return The correct subclass of {@link PwsFile} for the file.
+	 *
+	 * @throws EndOfFileException
+	 * @throws FileNotFoundException
+	 * @throws InvalidPassphraseException
+	 * @throws IOException                     If canceled by the monitor
+	 * @throws UnsupportedFileVersionException
+	 * @throws NoSuchAlgorithmException        If no SHA-1 implementation is found.
+	 */
+	public static final PwsFile loadFile( String filename, StringBuilder aPassphrase,
+	                                      StretchMonitor monitor )
+	throws EndOfFileException, FileNotFoundException, InvalidPassphraseException, IOException, UnsupportedFileVersionException, NoSuchAlgorithmException
 	{
 	    PwsStorage storage = new PwsFileStorage(filename, filename);
-	    PwsFile file = loadFromStorage(storage, aPassphrase);
+	    PwsFile file = loadFromStorage(storage, aPassphrase, monitor);
 	    return file;
 	}
 
@@ -222,6 +247,32 @@ public class PwsFileFactory {
                                                     StringBuilder aPassphrase)
             throws EndOfFileException, InvalidPassphraseException, IOException,
                    UnsupportedFileVersionException, NoSuchAlgorithmException
+        {
+            return loadFromStorage(storage, aPassphrase, null);
+        }
+
+        /**
+         * Loads a Password Safe file, following the stretching of the
+         * passphrase with a monitor which may cancel the load.  It returns
+         * the appropriate subclass of {@link PwsFile}.
+         *
+         * @param storage the password storage
+         * @param passphrase the passphrase for the file
+         * @param monitor the monitor of the stretching; null if not monitored
+         *
+         * @return The correct subclass of {@link PwsFile} for the file.
+         *
+         * @throws EndOfFileException
+         * @throws InvalidPassphraseException
+         * @throws IOException If canceled by the monitor
+         * @throws UnsupportedFileVersionException
+         * @throws NoSuchAlgorithmException        If no SHA-1 implementation is found.
+         */
+        public static final PwsFile loadFromStorage(PwsStorage storage,
+                                                    StringBuilder aPassphrase,
+                                                    StretchMonitor monitor)
+            throws EndOfFileException, InvalidPassphraseException, IOException,
+                   UnsupportedFileVersionException, NoSuchAlgorithmException
         {
             PwsFile file;
 
@@ -235,10 +286,17 @@ public class PwsFileFactory {
                 // First check for a v3 file...
                 byte[] first4Bytes = Util.getBytes(header, 0, 4);
                 if (Util.bytesAreEqual("PWS3".getBytes(), first4Bytes)) {
-                    file = new PwsFileV3(storage, passphrase);
-                    file.readAll();
-                    file.close();
-                    return file;
+                    PwsFileV3 fileV3 =
+                            new PwsFileV3(storage, passphrase, monitor);
+                    long start = System.nanoTime();
+                    fileV3.readAll();
+                    fileV3.close();
+                    PwsOpenTimings timings = fileV3.getOpenTimings();
+                    if (timings != null) {
+                        timings.add(PwsOpenTimings.Stage.PARSE, start);
+                        timings.finish();
+                    }
+                    return fileV3;
                 }
 
                 PwsRecordV1     rec;
@@ -53,12 +53,15 @@ public class PwsFileHeaderV3 implements Serializable
      */
     private static final long serialVersionUID = 1L;
 
+    /** Length of the header in bytes */
+    static final int LENGTH = 152;
+
     private static final Log LOG = Log
             .getInstance(PwsFileHeaderV3.class.getPackage().getName());
 
     private byte[] tag = new byte[4];
     private final byte[] salt = new byte[32];
-    private final int iter;
+    private int iter;
     private byte[] password = new byte[32];
     private byte[] b1 = new byte[16];
     private byte[] b2 = new byte[16];
@@ -73,7 +76,7 @@ public class PwsFileHeaderV3 implements Serializable
     PwsFileHeaderV3()
     {
         tag = PwsFileV3.ID_STRING;
-        iter = 2048;
+        iter = PwsFileV3.MIN_HASH_ITERATIONS;
         Util.newRandBytes(salt);
         Util.newRandBytes(IV);
     }
@@ -155,6 +158,45 @@ public class PwsFileHeaderV3 implements Serializable
         return iter;
     }
 
+    /**
+     * Sets the number of iterations used to stretch the passphrase when the
+     * file is next saved.
+     *
+     * @param iterations number of iterations
+     */
+    void setIter(int iterations)
+    {
+        iter = iterations;
+    }
+
+    /**
+     * Reads the number of iterations from the start of a V3 file without
+     * reading the rest of the header.
+     *
+     * @param stream the stream positioned at the start of the file
+     * @return The number of iterations; -1 if not a V3 file
+     * @throws IOException If an error occurs whilst reading from the stream
+     */
+    public static int readIter(InputStream stream)
+            throws IOException
+    {
+        byte[] start = new byte[PwsFileV3.ID_STRING.length + 32 + 4];
+        int pos = 0;
+        while (pos < start.length) {
+            int num = stream.read(start, pos, start.length - pos);
+            if (num < 0) {
+                return -1;
+            }
+            pos += num;
+        }
+        for (int i = 0; i < PwsFileV3.ID_STRING.length; ++i) {
+            if (start[i] != PwsFileV3.ID_STRING[i]) {
+                return -1;
+            }
+        }
+        return Util.getIntFromByteArray(start, start.length - 4);
+    }
+
     /**
      * Gets a copy of the stretched password.
      *
@@ -215,6 +257,29 @@ public class PwsFileHeaderV3 implements Serializable
         return Util.cloneByteArray(IV);
     }
 
+    /**
+     * Gets the header fields in their file layout.  The caller should clear
+     * the returned bytes when done.
+     *
+     * @return The header bytes
+     */
+    byte[] toBytes()
+    {
+        byte[] bytes = new byte[LENGTH];
+        int pos = 0;
+        pos = putBytes(tag, bytes, pos);
+        pos = putBytes(salt, bytes, pos);
+        Util.putIntToByteArray(bytes, iter, pos);
+        pos += 4;
+        pos = putBytes(password, bytes, pos);
+        pos = putBytes(b1, bytes, pos);
+        pos = putBytes(b2, bytes, pos);
+        pos = putBytes(b3, bytes, pos);
+        pos = putBytes(b4, bytes, pos);
+        putBytes(IV, bytes, pos);
+        return bytes;
+    }
+
     /**
      * Write the header to the file.
      *
@@ -283,9 +348,22 @@ public class PwsFileHeaderV3 implements Serializable
         b4 = TwofishPws.processECB(stretchedPassword, true, b4pt);
 
         file.decryptedHmacKey = Util.mergeBytes(b3pt, b4pt);
+        if (file.hasher != null) {
+            file.hasher.clear();
+        }
         file.hasher = new HmacPws(file.decryptedHmacKey);
     }
 
+    /**
+     * Copy a field into the header bytes
+     * @return The position after the field
+     */
+    private static int putBytes(byte[] field, byte[] bytes, int pos)
+    {
+        System.arraycopy(field, 0, bytes, pos, field.length);
+        return pos + field.length;
+    }
+
     /**
      * Update random bytes that are also hashed with SHA256
      * @param bytes The bytes which are updated
@@ -9,10 +9,14 @@
  */
 package org.pwsafe.lib.file;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 
 import org.pwsafe.lib.Log;
@@ -30,11 +34,19 @@ public class PwsFileStorage extends PwsStreamStorage {
      */
     public static final String FILE_EXTENSION = ".psafe3";
 
+    /**
+     * Size of the buffer for streaming a file's contents when saving
+     */
+    public static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
     /**
      * An object for logging activity in this class.
      */
     private static final Log LOG = Log.getInstance(PwsFileStorage.class.getPackage().getName());
 
+    /** The file to load; null if the storage is only saved */
+    private final String itsLoadFile;
+
     /*
      * Build an implementation given the filename for the underlying storage.
      */
@@ -43,6 +55,29 @@ public class PwsFileStorage extends PwsStreamStorage {
     {
         super(identifier,
               (fileToOpen == null) ? null : new FileInputStream(fileToOpen));
+        itsLoadFile = fileToOpen;
+    }
+
+    /**
+     * Maps the file read-only rather than reading it onto the heap.  The
+     * mapping remains valid after the file is closed and, as saves replace
+     * the file by renaming a new one over it, after the file is saved.
+     */
+    @Override
+    public ByteBuffer loadBuffer() throws IOException
+    {
+        if (itsLoadFile == null) {
+            return super.loadBuffer();
+        }
+        RandomAccessFile file = new RandomAccessFile(itsLoadFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                               0, channel.size());
+        } finally {
+            file.close();
+            closeAfterLoad();
+        }
     }
 
     /**
@@ -54,13 +89,22 @@ public class PwsFileStorage extends PwsStreamStorage {
      */
     @Override
     public boolean save(byte[] data, boolean isV3) {
+        return save(newBytesWriter(data), isV3);
+    }
+
+    /**
+     * Streams the (encrypted) contents to a temporary file which then
+     * replaces the original, as for {@link #save(byte[], boolean)}.
+     */
+    @Override
+    public boolean save(SaveWriter writer, boolean isV3) {
         try {
             File file = new File( getIdentifier() );
             if (!file.exists()) {
                 /* Original file doesn't exist, just go ahead and write it
                  * (no backup, temp files needed).
                  */
-                writeFile(file, data);
+                writeFile(file, writer);
                 return true;
             }
             File dir = file.getCanonicalFile().getParentFile();
@@ -77,7 +121,7 @@ public class PwsFileStorage extends PwsStreamStorage {
             try {
                 tempFile = File.createTempFile("pwsafe", null,
                                                FilePath);
-                writeFile(tempFile, data);
+                writeFile(tempFile, writer);
 
                 createBackupFile(fromFile, toFile);
 
@@ -152,10 +196,22 @@ public class PwsFileStorage extends PwsStreamStorage {
     }
 
     public static void writeFile(File file, byte[] data) throws IOException
+    {
+        writeFile(file, newBytesWriter(data));
+    }
+
+    /**
+     * Write a file from a writer of its contents, syncing it to the disk
+     */
+    public static void writeFile(File file, SaveWriter writer)
+        throws IOException
     {
         FileOutputStream outStream = new FileOutputStream(file);
         try {
-            outStream.write(data);
+            BufferedOutputStream bufStream =
+                    new BufferedOutputStream(outStream, WRITE_BUFFER_SIZE);
+            writer.write(bufStream);
+            bufStream.flush();
             outStream.getFD().sync();
         } catch (IOException e) {
             try {
@@ -202,13 +202,15 @@ public abstract class PwsFileV1V2 extends PwsFile {
 		if (isReadOnly())
 			throw new IOException("File is read only");
 
-		if (lastStorageChange != null && // check for concurrent change
-			storage.getModifiedDate().after(lastStorageChange)) {
-			throw new ConcurrentModificationException("Password store was changed independently - no save possible!");
-		}
+		saveEncrypted(encryptForSave());
+	}
 
-		// For safety we'll write to a temporary file which will be renamed to the
-		// real name if we manage to write it successfully.
+	@Override
+	public byte[] encryptForSave()
+	throws IOException, NoSuchAlgorithmException
+	{
+		if (isReadOnly())
+			throw new IOException("File is read only");
 
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		outStream	= baos;
@@ -233,15 +235,8 @@ public abstract class PwsFileV1V2 extends PwsFile {
 			}
 
 			outStream.close();
-
-			if (storage.save(baos.toByteArray(), false)) {
-				modified = false;
-				lastStorageChange = storage.getModifiedDate();
-			}
-			else
-			{
-                            throw new IOException("Unable to save file");
-			}
+			modified = false;
+			return baos.toByteArray();
 		} catch (IOException e) {
 			try {
 				outStream.close();
@@ -12,22 +12,21 @@ package org.pwsafe.lib.file;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.SealedObject;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.HmacPws;
-import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.NativeCrypto;
+import org.pwsafe.lib.crypto.StretchMonitor;
 import org.pwsafe.lib.crypto.TwofishPws;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.MemoryKeyException;
@@ -58,12 +57,30 @@ public final class PwsFileV3 extends PwsFile {
 	 */
 	public static final byte[]	ID_STRING	= "PWS3".getBytes();
 
+	/**
+	 * The minimum number of iterations to stretch the passphrase, as
+	 * required by the format specification.
+	 */
+	public static final int		MIN_HASH_ITERATIONS	= 2048;
+
+	/**
+	 * The maximum number of iterations to stretch the passphrase which
+	 * other PasswordSafe implementations will use.
+	 */
+	public static final int		MAX_HASH_ITERATIONS	= 1 << 22;
+
 	/**
 	 * The file's standard header.
 	 */
 	protected PwsFileHeaderV3	headerV3;
 
-	private SealedObject sealedHeaderV3;
+	private byte[] sealedHeaderV3;
+
+	/**
+	 * Minimum length of the record payload decrypted by each thread.  Smaller
+	 * payloads are decrypted on the opening thread.
+	 */
+	private static final int MIN_DECRYPT_CHUNK_LEN = 128 * 1024;
 
 	/**
 	 * End of File marker. HMAC follows this tag.
@@ -76,6 +93,32 @@ public final class PwsFileV3 extends PwsFile {
 
 	TwofishPws twofishCbc;
 	HmacPws hasher;
+
+	/**
+	 * Reusable buffer for encrypting field data when saving
+	 */
+	private byte[] writeBuffer;
+
+	/**
+	 * The record payload decrypted in one pass at open, and whether its HMAC
+	 * has been verified.  When verified, the records are read from the
+	 * payload without further decryption or hashing.
+	 */
+	private byte[] decryptedPayload;
+	boolean payloadVerified;
+	/** Decoder of the fields in the verified payload; null if not loaded */
+	PwsPayloadDecoderV3 payloadDecoder;
+	/** Whether the records are decoded lazily from the retained payload */
+	private boolean lazyLoad;
+	/** Times of the stages of opening the file; null if not opened */
+	private PwsOpenTimings openTimings;
+
+	/** Whether files opened from now on load their records lazily */
+	private static boolean itsIsLazyLoad = false;
+
+	/** Field types whose values are pooled in files opened from now on */
+	private static int[] itsInternedFieldTypes = {
+		PwsRecordV3.GROUP, PwsRecordV3.USERNAME, PwsRecordV3.URL };
 	PwsRecordV3 headerRecord;
 
 	/**
@@ -109,6 +152,26 @@ public final class PwsFileV3 extends PwsFile {
 		super( storage, aPassphrase, null );
 	}
 
+	/**
+	 * Open a version 3 PasswordSafe database, following the stretching of
+	 * the passphrase with a monitor which may cancel the open.
+	 *
+	 * @param storage   the underlying storage to use to open the database.
+	 * @param aPassphrase the passphrase for the database.
+	 * @param monitor the monitor of the stretching; null if not monitored
+	 *
+	 * @throws EndOfFileException
+	 * @throws IOException
+	 * @throws UnsupportedFileVersionException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public PwsFileV3( PwsStorage storage, String aPassphrase,
+	                  StretchMonitor monitor )
+	throws EndOfFileException, IOException, UnsupportedFileVersionException, NoSuchAlgorithmException
+	{
+		super( storage, aPassphrase, null, monitor );
+	}
+
 
 	/* (non-Javadoc)
 	 * @see org.pwsafe.lib.file.PwsFile#dispose()
@@ -122,26 +185,27 @@ public final class PwsFileV3 extends PwsFile {
 			Arrays.fill(decryptedHmacKey,(byte)0);
 		if (decryptedRecordKey != null)
 			Arrays.fill(decryptedRecordKey,(byte)0);
+		if (twofishCbc != null)
+			twofishCbc.clear();
+		if (hasher != null)
+			hasher.clear();
+		clearDecryptedPayload();
 	}
 
-	private final byte[] checkPassword(String aPassphrase,
-	                                   String encoding,
-	                                   PwsFileHeaderV3 headerV3,
-	                                   int iter)
+	/**
+	 * Closes the file and clears the decrypted record payload
+	 */
+	@Override
+	void close()
+	throws IOException
 	{
-        try {
-            byte[] stretch =
-                Util.stretchPassphrase(aPassphrase.getBytes(encoding),
-                                       headerV3.getSalt(), iter);
-            if (Util.bytesAreEqual(headerV3.getPassword(),
-                                   SHA256Pws.digest(stretch))) {
-                return stretch;
-            }
-        } catch (UnsupportedEncodingException e) {
-            // Skip this charset
-        }
-
-        return null;
+		super.close();
+		if (lazyLoad) {
+			// Keep the payload for the fields not yet decoded
+			payloadDecoder = null;
+		} else {
+			clearDecryptedPayload();
+		}
 	}
 
 	@Override
@@ -150,43 +214,56 @@ public final class PwsFileV3 extends PwsFile {
 	{
 		setPassphrase(new StringBuilder(aPassphrase));
 
+		int[] internedTypes = getInternedFieldTypes();
+		setStringPool((internedTypes.length > 0) ?
+		              new PwsStringPool(internedTypes) : null);
+
+		ByteBuffer data = null;
+		FutureTask<ByteBuffer> pendingData = null;
+		PwsFileHeaderV3 theHeaderV3;
 		if (storage!=null) {
-			inStream		= new ByteArrayInputStream(storage.load());
+			openTimings = new PwsOpenTimings();
+			long start = System.nanoTime();
+			theHeaderV3 = new PwsFileHeaderV3(new ByteArrayInputStream(
+					storage.openForLoad(PwsFileHeaderV3.LENGTH)));
 			lastStorageChange = storage.getModifiedDate();
+			openTimings.add(PwsOpenTimings.Stage.HEADER, start);
+
+			// Read the rest of the file while the passphrase is stretched
+			pendingData = startLoad(storage, openTimings);
+		} else {
+			theHeaderV3 = new PwsFileHeaderV3( this );
 		}
-		PwsFileHeaderV3 theHeaderV3		= new PwsFileHeaderV3( this );
 
 		setHeaderV3(theHeaderV3);
 
-		int iter = theHeaderV3.getIter();
-		stretchedPassword = null;
-
-		if (encoding != null) {
-		    stretchedPassword =
-		        checkPassword(aPassphrase, encoding, theHeaderV3, iter);
-		}
-
-		if (stretchedPassword == null) {
-		    for (String charset : PwsFile.getPasswordEncodings()) {
-		        stretchedPassword =
-		            checkPassword(aPassphrase, charset, theHeaderV3, iter);
-		        if (stretchedPassword != null) {
-		            encoding = charset;
-		            break;
-		        }
-		    }
-		}
-
-		if (stretchedPassword == null) {
-			//try another method to avoid asymmetric encoding bug in V0.8 Beta1
-	        CharBuffer buf = CharBuffer.wrap(aPassphrase);
-			stretchedPassword = Util.stretchPassphrase(Charset.defaultCharset().encode(buf).array(), theHeaderV3.getSalt(), iter);
-			if (Util.bytesAreEqual(theHeaderV3.getPassword(), SHA256Pws.digest(stretchedPassword))) {
-			    encoding = Charset.defaultCharset().name();
-			} else {
-				throw new IOException("Invalid password");
+		PwsPasswordChecker.Match match;
+		try {
+			long start = System.nanoTime();
+			PwsPasswordChecker checker =
+			        new PwsPasswordChecker(aPassphrase, encoding, theHeaderV3,
+			                               stretchMonitor);
+			match = checker.check(PwsFile.getPasswordCheckThreads());
+			if (openTimings != null) {
+				openTimings.add(PwsOpenTimings.Stage.STRETCH, start);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (pendingData != null) {
+				// Wait for the read so the storage isn't closed while in use
+				abandonLoad(pendingData);
 			}
+			throw e;
+		}
+		if (pendingData != null) {
+			long start = System.nanoTime();
+			data = finishLoad(pendingData);
+			openTimings.add(PwsOpenTimings.Stage.READ_WAIT, start);
 		}
+		if (match == null) {
+			throw new IOException("Invalid password");
+		}
+		stretchedPassword = match.itsStretchedPassword;
+		encoding = match.itsEncoding;
 
 		setOpenPasswordEncoding(encoding);
 
@@ -207,9 +284,269 @@ public final class PwsFileV3 extends PwsFile {
 		}
 		twofishCbc = new TwofishPws(decryptedRecordKey, false, theHeaderV3.getIV());
 
+		if (data != null) {
+			long start = System.nanoTime();
+			data.position(PwsFileHeaderV3.LENGTH);
+			inBuffer = data;
+			decryptPayload(data, data.position());
+			openTimings.add(PwsOpenTimings.Stage.DECRYPT, start);
+		}
+
 		readExtraHeader( this );
 	}
 
+	/**
+	 * Starts reading the file from the storage on a background thread
+	 */
+	private static FutureTask<ByteBuffer> startLoad( final PwsStorage storage,
+	                                                 final PwsOpenTimings timings )
+	{
+		FutureTask<ByteBuffer> task = new FutureTask<>(new Callable<ByteBuffer>()
+		{
+			@Override
+			public ByteBuffer call() throws IOException
+			{
+				long start = System.nanoTime();
+				try {
+					return storage.loadBuffer();
+				} finally {
+					timings.add(PwsOpenTimings.Stage.READ, start);
+				}
+			}
+		});
+		new Thread(task, "PwsFileV3 load").start();
+		return task;
+	}
+
+	/**
+	 * Waits for the background read of the file to finish
+	 *
+	 * @return The contents of the file
+	 * @throws IOException If the read failed
+	 */
+	private static ByteBuffer finishLoad( FutureTask<ByteBuffer> task )
+	throws IOException
+	{
+		try {
+			return waitForLoad(task);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Waits for the background read of the file to finish, ignoring its
+	 * result
+	 */
+	private static void abandonLoad( FutureTask<ByteBuffer> task )
+	{
+		try {
+			waitForLoad(task);
+		} catch (ExecutionException e) {
+			// The open has already failed
+		}
+	}
+
+	/**
+	 * Waits for the background read of the file to finish without being
+	 * interrupted, as the storage can't be closed until the read is done
+	 */
+	private static ByteBuffer waitForLoad( FutureTask<ByteBuffer> task )
+	throws ExecutionException
+	{
+		boolean interrupted = false;
+		try {
+			for (;;) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Gets the times of the stages of opening the file
+	 *
+	 * @return The times; null if the file wasn't opened from a storage
+	 */
+	public PwsOpenTimings getOpenTimings()
+	{
+		return openTimings;
+	}
+
+	/**
+	 * Decrypts the record payload between the header and the EOF marker and
+	 * verifies its HMAC in one pass.  A large payload is decrypted in chunks
+	 * by several threads before its HMAC is computed.  The records' fields
+	 * are then read in place from the payload by a
+	 * {@link PwsPayloadDecoderV3}.  If the payload's layout isn't as expected,
+	 * the records are instead decrypted and hashed as they are read so the
+	 * errors are reported as before.
+	 * <p>
+	 * The encrypted payload is copied once from the file's buffer, which may
+	 * be mapped from the file, and decrypted in place.
+	 *
+	 * @param data the file's contents
+	 * @param start the offset of the payload after the header
+	 *
+	 * @throws IOException If the HMAC does not match.
+	 */
+	private void decryptPayload( ByteBuffer data, int start )
+	throws IOException
+	{
+		// The EOF marker and HMAC are copied after the records
+		byte[] payload = new byte[data.limit() - start];
+		ByteBuffer src = data.duplicate();
+		src.position(start);
+		src.get(payload);
+
+		int blockSize = getBlockSize();
+		int end = -1;
+		for (int pos = 0; pos + blockSize <= payload.length; pos += blockSize) {
+			if (regionMatches(payload, pos, EOF_BYTES_RAW)) {
+				end = pos;
+				break;
+			}
+		}
+		int hmacPos = end + EOF_BYTES_RAW.length;
+		if ((end < 0) || (payload.length - hmacPos < NativeCrypto.HMAC_LEN)) {
+			return;
+		}
+
+		byte[] hmac;
+		int numChunks = Math.min(PwsFile.getDecryptThreads(),
+		                         end / MIN_DECRYPT_CHUNK_LEN);
+		if (numChunks > 1) {
+			TwofishPws.decryptCBCParallel(decryptedRecordKey,
+			                              getHeaderV3().getIV(),
+			                              payload, 0, end, payload, 0,
+			                              numChunks);
+			hmac = TwofishPws.hashPayloadV3(hasher, payload, 0, end);
+		} else {
+			hmac = twofishCbc.decryptPayloadV3(hasher, payload, 0, end,
+			                                   payload, 0);
+		}
+		if (hmac == null) {
+			Arrays.fill(payload, (byte)0);
+			twofishCbc.clear();
+			twofishCbc = new TwofishPws(decryptedRecordKey, false,
+			                            getHeaderV3().getIV());
+			return;
+		}
+		if (!regionMatches(payload, hmacPos, hmac)) {
+			Arrays.fill(payload, (byte)0);
+			LOG.error("HMAC record did not match. File may have been tampered");
+			throw new IOException("HMAC record did not match. File has been tampered");
+		}
+
+		inBuffer = ByteBuffer.wrap(payload);
+		decryptedPayload = payload;
+		payloadVerified = true;
+		payloadDecoder = new PwsPayloadDecoderV3(payload, end, blockSize);
+		lazyLoad = isLazyLoadEnabled();
+	}
+
+	/**
+	 * Checks whether the bytes in data at offset match the value
+	 */
+	private static boolean regionMatches( byte[] data, int offset, byte[] value )
+	{
+		if (data.length - offset < value.length) {
+			return false;
+		}
+		for (int i = 0; i < value.length; ++i) {
+			if (data[offset + i] != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets whether the records are loaded lazily from the decrypted payload
+	 */
+	boolean isLazyLoad()
+	{
+		return lazyLoad;
+	}
+
+	/**
+	 * Copies a range of the decrypted payload
+	 *
+	 * @throws IllegalStateException If the payload has been cleared
+	 */
+	byte[] copyPayload( int offset, int length )
+	{
+		byte[] payload = decryptedPayload;
+		if (payload == null) {
+			throw new IllegalStateException("File payload has been cleared");
+		}
+		return Arrays.copyOfRange(payload, offset, offset + length);
+	}
+
+	/**
+	 * Sets whether files opened from now on load their records lazily.  The
+	 * decrypted payload of a lazily loaded file is kept until the file is
+	 * disposed, and each record's fields other than its UUID and password
+	 * are decoded from it when first requested.
+	 */
+	public static synchronized void setLazyLoad( boolean lazy )
+	{
+		itsIsLazyLoad = lazy;
+	}
+
+	/**
+	 * Gets whether files opened from now on load their records lazily
+	 */
+	private static synchronized boolean isLazyLoadEnabled()
+	{
+		return itsIsLazyLoad;
+	}
+
+	/**
+	 * Sets the string field types whose values are pooled when files are
+	 * opened from now on.  The records of a file share one String for each
+	 * distinct value of the types.  By default, the group, user name, and
+	 * URL fields are pooled.  No types disables the pool.
+	 */
+	public static synchronized void setInternedFieldTypes( int... types )
+	{
+		itsInternedFieldTypes = types.clone();
+	}
+
+	/**
+	 * Gets the string field types whose values are pooled when files are
+	 * opened
+	 */
+	public static synchronized int[] getInternedFieldTypes()
+	{
+		return itsInternedFieldTypes.clone();
+	}
+
+	/**
+	 * Clears the decrypted record payload
+	 */
+	private void clearDecryptedPayload()
+	{
+		payloadDecoder = null;
+		if (decryptedPayload != null) {
+			Arrays.fill(decryptedPayload, (byte)0);
+			decryptedPayload = null;
+		}
+	}
+
 
 	/**
 	 * Writes this file back to the filesystem.  If successful the modified flag is also
@@ -227,32 +564,18 @@ public final class PwsFileV3 extends PwsFile {
 				throw new ConcurrentModificationException("Password store was changed independently - no save possible!");
 			}
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		outStream	= baos;
-
-		try	{
-			PwsFileHeaderV3 theHeaderV3 = getHeaderV3();
-			theHeaderV3.save( this );
-
-			// Can only be created once the V3 header resets key info
-
-			twofishCbc = new TwofishPws(decryptedRecordKey, true, theHeaderV3.getIV());
-
-			writeExtraHeader( this );
-
-			PwsRecordV3	rec;
-			for (Iterator<? extends PwsRecord> iter = getRecords(); iter.hasNext();) {
-				rec = (PwsRecordV3) iter.next();
-				if (!rec.isHeaderRecord())
-					rec.saveRecord(this);
+		// Stream the encrypted records to the storage rather than
+		// building the whole file in memory first
+		PwsStorage.SaveWriter writer = new PwsStorage.SaveWriter()
+		{
+			public void write(OutputStream out) throws IOException
+			{
+				writeFile(out);
 			}
+		};
 
-			outStream.write(PwsRecordV3.EOF_BYTES_RAW);
-			outStream.write(hasher.doFinal());
-
-			outStream.close();
-
-			if (storage.save(baos.toByteArray(), true)) {
+		try	{
+			if (storage.save(writer, true)) {
 				modified = false;
 				lastStorageChange = storage.getModifiedDate();
 			}
@@ -260,19 +583,62 @@ public final class PwsFileV3 extends PwsFile {
 			{
 			    throw new IOException("Unable to save file");
 			}
-		}
-		catch ( IOException e ) {
-			try {
-				if (outStream != null) {
-					outStream.close();
-				}
-			} catch ( Exception e2 ) {
-				// do nothing we're going to throw the original exception
+		} finally {
+			outStream	= null;
+			if (writeBuffer != null) {
+				Arrays.fill(writeBuffer, (byte)0);
+				writeBuffer = null;
 			}
-			throw e;
+		}
+	}
+
+	@Override
+	public byte[] encryptForSave() throws IOException {
+		if (isReadOnly())
+			throw new IOException("File is read only");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writeFile(out);
+			modified = false;
 		} finally {
 			outStream	= null;
+			if (writeBuffer != null) {
+				Arrays.fill(writeBuffer, (byte)0);
+				writeBuffer = null;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the header, records, and HMAC of the file to a stream.  The
+	 * records are encrypted and hashed as they are written.
+	 */
+	private void writeFile(OutputStream out) throws IOException {
+		outStream	= out;
+
+		PwsFileHeaderV3 theHeaderV3 = getHeaderV3();
+		theHeaderV3.save( this );
+
+		// Can only be created once the V3 header resets key info
+
+		if (twofishCbc != null)
+			twofishCbc.clear();
+		twofishCbc = new TwofishPws(decryptedRecordKey, true, theHeaderV3.getIV());
+
+		writeExtraHeader( this );
+
+		PwsRecordV3	rec;
+		for (Iterator<? extends PwsRecord> iter = getRecords(); iter.hasNext();) {
+			rec = (PwsRecordV3) iter.next();
+			if (!rec.isHeaderRecord())
+				rec.saveRecord(this);
 		}
+
+		outStream.write(PwsRecordV3.EOF_BYTES_RAW);
+		outStream.write(hasher.doFinal());
+		outStream.flush();
 	}
 
 
@@ -359,16 +725,16 @@ public final class PwsFileV3 extends PwsFile {
 		if (Util.bytesAreEqual(buff,  EOF_BYTES_RAW)) {
 			throw new EndOfFileException();
 		}
+		if (payloadVerified) {
+			return;
+		}
 
-		byte[] decrypted;
 		try {
-			decrypted = twofishCbc.processCBC(buff);
+			twofishCbc.processCBC(buff, 0, buff.length, buff, 0);
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new IOException("Error decrypting field");
 		}
-		Util.copyBytes(decrypted, buff);
-		//Algorithm.decrypt( buff );
 	}
 
 	/**
@@ -387,13 +753,18 @@ public final class PwsFileV3 extends PwsFile {
 			throw new IllegalArgumentException("buff length");
 		}
 
-		byte [] temp; // = Util.cloneByteArray( buff );
+		if ((writeBuffer == null) || (writeBuffer.length < buff.length)) {
+			if (writeBuffer != null) {
+				Arrays.fill(writeBuffer, (byte)0);
+			}
+			writeBuffer = new byte[Math.max(buff.length, 1024)];
+		}
 		try {
-			temp = twofishCbc.processCBC(buff);
+			twofishCbc.processCBC(buff, 0, buff.length, writeBuffer, 0);
 		} catch(Exception e) {
 			throw new IOException("Error writing encrypted field");
 		}
-		writeBytes( temp );
+		writeBytes( writeBuffer, 0, buff.length );
 	}
 
 	/**
@@ -404,21 +775,46 @@ public final class PwsFileV3 extends PwsFile {
 		return 16;
 	}
 
+	/**
+	 * Gets the number of iterations used to stretch the passphrase.
+	 *
+	 * @return the number of iterations
+	 */
+	public int getHashIterations() {
+		return getHeaderV3().getIter();
+	}
+
+	/**
+	 * Sets the number of iterations used to stretch the passphrase when the
+	 * file is next saved.
+	 *
+	 * @param iter the number of iterations
+	 * @throws IllegalArgumentException if the iterations are out of range
+	 */
+	public void setHashIterations(int iter) {
+		if ((iter < MIN_HASH_ITERATIONS) || (iter > MAX_HASH_ITERATIONS)) {
+			throw new IllegalArgumentException(
+				"Invalid hash iterations: " + iter);
+		}
+		PwsFileHeaderV3 header = getHeaderV3();
+		if (header.getIter() != iter) {
+			header.setIter(iter);
+			setHeaderV3(header);
+			setModified();
+		}
+	}
+
 	/**
 	 * @return the headerV3
 	 */
 	private PwsFileHeaderV3 getHeaderV3() {
-
+		byte[] bytes = getFieldCipher().open(sealedHeaderV3);
 		try {
-			return (PwsFileHeaderV3) sealedHeaderV3.getObject(getReadCipher());
-		} catch (IllegalBlockSizeException e) {
-			throw new MemoryKeyException(e);
+			return new PwsFileHeaderV3(new ByteArrayInputStream(bytes));
 		} catch (IOException e) {
 			throw new MemoryKeyException(e);
-		} catch (BadPaddingException e) {
-			throw new MemoryKeyException(e);
-		} catch (ClassNotFoundException e) {
-			throw new MemoryKeyException(e);
+		} finally {
+			Arrays.fill(bytes, (byte)0);
 		}
 	}
 
@@ -426,14 +822,12 @@ public final class PwsFileV3 extends PwsFile {
 	 * @param headerV3 the headerV3 to set
 	 */
 	private void setHeaderV3(PwsFileHeaderV3 headerV3) {
+		byte[] bytes = headerV3.toBytes();
 		try {
-			sealedHeaderV3 = new SealedObject(headerV3, getWriteCipher());
-		} catch (IllegalBlockSizeException e) {
-			throw new MemoryKeyException(e);
-		} catch (IOException e) {
-			throw new MemoryKeyException(e);
+			sealedHeaderV3 = getFieldCipher().seal(bytes, 0, bytes.length);
+		} finally {
+			Arrays.fill(bytes, (byte)0);
 		}
-
 	}
 
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.UnsupportedEncodingException;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Placeholder for a field of a lazily loaded V3 record.  It holds the
+ * location of the field's value in the file's decrypted payload, and the
+ * record replaces it with the decoded field the first time the field is
+ * requested.  The placeholder is never returned from
+ * {@link PwsRecord#getField(Integer)}.
+ */
+final class PwsLazyFieldV3 extends PwsField
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient PwsFileV3 itsFile;
+    private final int itsOffset;
+    private final int itsLength;
+
+    /**
+     * Constructor
+     *
+     * @param type the field's type
+     * @param file the file holding the payload
+     * @param offset the offset of the value in the payload
+     * @param length the length of the value
+     */
+    PwsLazyFieldV3(int type, PwsFileV3 file, int offset, int length)
+    {
+        super(type, null);
+        itsFile = file;
+        itsOffset = offset;
+        itsLength = length;
+    }
+
+    /**
+     * Decode the field from the payload
+     */
+    PwsField decode()
+    {
+        try {
+            return PwsRecordV3.decodeField(getType(), getBytes(), itsFile);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public PwsField getDecoded()
+    {
+        return decode();
+    }
+
+    /**
+     * Get a copy of the field's value from the payload
+     */
+    @Override
+    public byte[] getBytes()
+    {
+        return itsFile.copyPayload(itsOffset, itsLength);
+    }
+
+    /**
+     * Compare the decoded value of the field to another field, which is also
+     * decoded if it is lazily loaded
+     */
+    @Override
+    public int compareTo(@NonNull Object that)
+    {
+        if (that instanceof PwsLazyFieldV3) {
+            that = ((PwsLazyFieldV3)that).decode();
+        }
+        return decode().compareTo(that);
+    }
+
+    @Override
+    public boolean equals(Object that)
+    {
+        return this == that;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PwsLazyFieldV3{type=" + getType() + ", length=" + itsLength +
+               "}";
+    }
+}
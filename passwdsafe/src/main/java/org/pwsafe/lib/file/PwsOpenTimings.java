@@ -0,0 +1,80 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.Locale;
+
+/**
+ * Times of the stages of opening a file.  The storage is read while the
+ * passphrase is stretched, so the read time overlaps the stretch, and only
+ * the time spent waiting for the read after the stretch adds to the total.
+ */
+public final class PwsOpenTimings
+{
+    /** Stages of opening a file */
+    public enum Stage
+    {
+        /** Read the header from the storage */
+        HEADER,
+        /** Read the rest of the file from the storage in the background */
+        READ,
+        /** Stretch the passphrase and check it against the header */
+        STRETCH,
+        /** Wait for the read to finish after the stretch */
+        READ_WAIT,
+        /** Decrypt and verify the records */
+        DECRYPT,
+        /** Parse the records */
+        PARSE
+    }
+
+    private final long[] itsNanos = new long[Stage.values().length];
+    private final long itsStart = System.nanoTime();
+    private long itsEnd = 0;
+
+    /**
+     * Add the time of a stage which started at the given time
+     *
+     * @param stage the stage
+     * @param startNanos the start of the stage from {@link System#nanoTime()}
+     */
+    synchronized void add(Stage stage, long startNanos)
+    {
+        itsNanos[stage.ordinal()] += System.nanoTime() - startNanos;
+    }
+
+    /** Mark the end of opening the file */
+    synchronized void finish()
+    {
+        itsEnd = System.nanoTime();
+    }
+
+    /** Get the time of a stage in milliseconds */
+    public synchronized long getMillis(Stage stage)
+    {
+        return itsNanos[stage.ordinal()] / 1000000L;
+    }
+
+    /** Get the total time to open the file in milliseconds */
+    public synchronized long getTotalMillis()
+    {
+        return ((itsEnd != 0) ? itsEnd - itsStart : 0) / 1000000L;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        for (Stage stage: Stage.values()) {
+            str.append(stage.name().toLowerCase(Locale.US)).append('=')
+               .append(getMillis(stage)).append("ms ");
+        }
+        str.append("total=").append(getTotalMillis()).append("ms");
+        return str.toString();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.StretchMonitor;
+
+/**
+ * Verifies the passphrase of a V3 file against each of the candidate
+ * password encodings.  The candidates may be checked sequentially or
+ * concurrently on a bounded pool of worker threads.  The stretching of the
+ * candidates is combined into one progress for an optional monitor, and it
+ * stops early when the monitor cancels the check, when the worker is
+ * interrupted, or when another candidate has matched.
+ */
+final class PwsPasswordChecker
+{
+    /** A matched password encoding and its stretched key */
+    public static final class Match
+    {
+        public final String itsEncoding;
+        public final byte[] itsStretchedPassword;
+
+        private Match(String encoding, byte[] stretchedPassword)
+        {
+            itsEncoding = encoding;
+            itsStretchedPassword = stretchedPassword;
+        }
+    }
+
+    /** An encoding of the passphrase to check */
+    private static final class Candidate
+    {
+        private final String itsEncoding;
+        private final byte[] itsBytes;
+
+        private Candidate(String encoding, byte[] bytes)
+        {
+            itsEncoding = encoding;
+            itsBytes = bytes;
+        }
+    }
+
+    /**
+     * Monitor of the stretching of one candidate which reports the combined
+     * progress of all of the candidates
+     */
+    private final class CandidateMonitor implements StretchMonitor
+    {
+        private final int itsIdx;
+        private final AtomicReference<Match> itsWinner;
+
+        /**
+         * Constructor
+         *
+         * @param idx the index of the candidate
+         * @param winner the match of a concurrent check; null if sequential
+         */
+        private CandidateMonitor(int idx, AtomicReference<Match> winner)
+        {
+            itsIdx = idx;
+            itsWinner = winner;
+        }
+
+        @Override
+        public void stretchProgress(float fraction)
+        {
+            updateProgress(itsIdx, fraction);
+        }
+
+        @Override
+        public boolean isStretchCanceled()
+        {
+            return Thread.currentThread().isInterrupted() ||
+                   ((itsWinner != null) && (itsWinner.get() != null)) ||
+                   ((itsMonitor != null) && itsMonitor.isStretchCanceled());
+        }
+    }
+
+    private final PwsFileHeaderV3 itsHeader;
+    private final StretchMonitor itsMonitor;
+    private final List<Candidate> itsCandidates = new ArrayList<>();
+    private final float[] itsProgress;
+
+    /**
+     * Constructor
+     *
+     * @param passphrase the passphrase for the file
+     * @param encoding the passphrase encoding (if known)
+     * @param header the file's header
+     * @param monitor the monitor of the check; null if not monitored
+     */
+    public PwsPasswordChecker(String passphrase,
+                              String encoding,
+                              PwsFileHeaderV3 header,
+                              StretchMonitor monitor)
+    {
+        itsHeader = header;
+        itsMonitor = monitor;
+        if (encoding != null) {
+            addCandidate(passphrase, encoding);
+        }
+        for (String charset: PwsFile.getPasswordEncodings()) {
+            addCandidate(passphrase, charset);
+        }
+
+        // Try another method to avoid asymmetric encoding bug in V0.8 Beta1
+        CharBuffer buf = CharBuffer.wrap(passphrase);
+        addCandidate(Charset.defaultCharset().name(),
+                     Charset.defaultCharset().encode(buf).array());
+        itsProgress = new float[itsCandidates.size()];
+    }
+
+    /**
+     * Check the candidate encodings of the passphrase.  The first candidate
+     * found to match is returned.  Only distinct encoded forms of the
+     * passphrase are checked, so at most one candidate can match.
+     *
+     * @param numThreads the maximum number of worker threads to use
+     * @return The matching encoding; null if the passphrase is invalid
+     * @throws InterruptedIOException If interrupted while waiting for the
+     *                                workers or canceled by the monitor
+     */
+    public Match check(int numThreads)
+        throws InterruptedIOException
+    {
+        try {
+            numThreads = Math.min(numThreads, itsCandidates.size());
+            if (numThreads <= 1) {
+                return checkSequential();
+            } else {
+                return checkConcurrent(numThreads);
+            }
+        } finally {
+            for (Candidate candidate: itsCandidates) {
+                Arrays.fill(candidate.itsBytes, (byte)0);
+            }
+        }
+    }
+
+    /** Check the candidates one at a time on the caller's thread */
+    private Match checkSequential()
+        throws InterruptedIOException
+    {
+        for (int i = 0; i < itsCandidates.size(); ++i) {
+            Candidate candidate = itsCandidates.get(i);
+            byte[] stretch =
+                    checkCandidate(candidate, new CandidateMonitor(i, null));
+            if (stretch != null) {
+                return new Match(candidate.itsEncoding, stretch);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check the candidates concurrently.  The first match cancels the
+     * remaining workers, and the stretched keys of any workers which finish
+     * afterwards are cleared.  Workers stopped by the match finish without a
+     * result.
+     */
+    private Match checkConcurrent(int numThreads)
+        throws InterruptedIOException
+    {
+        final AtomicReference<Match> winner = new AtomicReference<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            CompletionService<Match> completion =
+                    new ExecutorCompletionService<>(executor);
+            List<Future<Match>> futures = new ArrayList<>();
+            for (int i = 0; i < itsCandidates.size(); ++i) {
+                final Candidate candidate = itsCandidates.get(i);
+                final CandidateMonitor monitor =
+                        new CandidateMonitor(i, winner);
+                futures.add(completion.submit(new Callable<Match>()
+                {
+                    @Override
+                    public Match call() throws InterruptedIOException
+                    {
+                        if (winner.get() != null) {
+                            return null;
+                        }
+                        byte[] stretch;
+                        try {
+                            stretch = checkCandidate(candidate, monitor);
+                        } catch (InterruptedIOException e) {
+                            if (winner.get() != null) {
+                                return null;
+                            }
+                            throw e;
+                        }
+                        if (stretch == null) {
+                            return null;
+                        }
+                        Match match = new Match(candidate.itsEncoding,
+                                                stretch);
+                        if (!winner.compareAndSet(null, match)) {
+                            Arrays.fill(stretch, (byte)0);
+                            return null;
+                        }
+                        return match;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); ++i) {
+                Match match;
+                try {
+                    match = completion.take().get();
+                } catch (ExecutionException e) {
+                    abandon(winner);
+                    if (e.getCause() instanceof InterruptedIOException) {
+                        throw (InterruptedIOException)e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (match != null) {
+                    break;
+                }
+            }
+
+            for (Future<Match> future: futures) {
+                future.cancel(true);
+            }
+            return winner.get();
+        } catch (InterruptedException e) {
+            abandon(winner);
+            throw new InterruptedIOException("Password check interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Abandon a concurrent check, clearing the key of any match.  A late
+     * worker can't publish a key no one will clear.
+     */
+    private static void abandon(AtomicReference<Match> winner)
+    {
+        Match match = winner.getAndSet(new Match(null, new byte[0]));
+        if (match != null) {
+            Arrays.fill(match.itsStretchedPassword, (byte)0);
+        }
+    }
+
+    /**
+     * Stretch a candidate passphrase and compare against the header
+     *
+     * @return The stretched password if it matches; null otherwise
+     * @throws InterruptedIOException If the stretching was canceled
+     */
+    private byte[] checkCandidate(Candidate candidate,
+                                  CandidateMonitor monitor)
+        throws InterruptedIOException
+    {
+        byte[] stretch = Util.stretchPassphrase(candidate.itsBytes,
+                                                itsHeader.getSalt(),
+                                                itsHeader.getIter(),
+                                                monitor);
+        if (Util.bytesAreEqual(itsHeader.getPassword(),
+                               SHA256Pws.digest(stretch))) {
+            return stretch;
+        }
+        Arrays.fill(stretch, (byte)0);
+        return null;
+    }
+
+    /**
+     * Update the progress of a candidate and report the progress of all of
+     * the candidates to the monitor
+     */
+    private synchronized void updateProgress(int idx, float fraction)
+    {
+        if (itsMonitor == null) {
+            return;
+        }
+        itsProgress[idx] = fraction;
+        float total = 0;
+        for (float progress: itsProgress) {
+            total += progress;
+        }
+        itsMonitor.stretchProgress(total / itsProgress.length);
+    }
+
+    /** Add a candidate encoding of the passphrase */
+    private void addCandidate(String passphrase, String encoding)
+    {
+        try {
+            addCandidate(encoding, passphrase.getBytes(encoding));
+        } catch (UnsupportedEncodingException e) {
+            // Skip this charset
+        }
+    }
+
+    /**
+     * Add a candidate encoded passphrase if it differs from those already
+     * added
+     */
+    private void addCandidate(String encoding, byte[] bytes)
+    {
+        for (Candidate candidate: itsCandidates) {
+            if (Arrays.equals(candidate.itsBytes, bytes)) {
+                Arrays.fill(bytes, (byte)0);
+                return;
+            }
+        }
+        itsCandidates.add(new Candidate(encoding, bytes));
+    }
+}
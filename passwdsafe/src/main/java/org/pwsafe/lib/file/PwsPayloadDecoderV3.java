@@ -0,0 +1,135 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.pwsafe.lib.exception.EndOfFileException;
+
+/**
+ * Walks the fields of a decrypted V3 record payload in place.  Each field is
+ * a 4-byte little-endian length and a type byte followed by the value,
+ * padded to a whole number of blocks.  The fields are located by their
+ * offsets in the payload, so no blocks are copied or merged to read a
+ * field; only the value itself is copied when it is needed.
+ * <p>
+ * The payload is owned by the file, which verifies its HMAC when it is
+ * decrypted and clears it when the file is closed.
+ */
+final class PwsPayloadDecoderV3
+{
+    private static final int FIELD_HEADER_LEN = 5;
+
+    private final byte[] itsPayload;
+    private final int itsEnd;
+    private final int itsBlockSize;
+    private int itsPos = 0;
+    private int itsType;
+    private int itsOffset;
+    private int itsLength;
+
+    /**
+     * Constructor
+     *
+     * @param payload the decrypted payload
+     * @param end the end of the records in the payload
+     * @param blockSize the cipher block size
+     */
+    PwsPayloadDecoderV3(byte[] payload, int end, int blockSize)
+    {
+        itsPayload = payload;
+        itsEnd = end;
+        itsBlockSize = blockSize;
+    }
+
+    /**
+     * Get whether there are more fields in the payload
+     */
+    boolean hasNext()
+    {
+        return itsPos < itsEnd;
+    }
+
+    /**
+     * Advance to the next field
+     *
+     * @throws EndOfFileException If there are no more fields
+     * @throws IOException If the field runs past the end of the payload
+     */
+    void next()
+        throws EndOfFileException, IOException
+    {
+        if (!hasNext()) {
+            throw new EndOfFileException();
+        }
+        nextField();
+    }
+
+    /**
+     * Advance to the next field when {@link #hasNext()} is true
+     *
+     * @throws IOException If the field runs past the end of the payload
+     */
+    void nextField()
+        throws IOException
+    {
+        if ((itsEnd - itsPos) < itsBlockSize) {
+            throw new IOException("Truncated field at " + itsPos);
+        }
+        long length = (itsPayload[itsPos] & 0xffL) |
+                      ((itsPayload[itsPos + 1] & 0xffL) << 8) |
+                      ((itsPayload[itsPos + 2] & 0xffL) << 16) |
+                      ((itsPayload[itsPos + 3] & 0xffL) << 24);
+        int offset = itsPos + FIELD_HEADER_LEN;
+        if (length > (itsEnd - offset)) {
+            throw new IOException("Field length too long: " + length);
+        }
+        itsType = itsPayload[itsPos + 4] & 0xff;
+        itsOffset = offset;
+        itsLength = (int)length;
+
+        int padded = FIELD_HEADER_LEN + itsLength + itsBlockSize - 1;
+        itsPos += padded - (padded % itsBlockSize);
+    }
+
+    /** Get the type of the current field */
+    int getType()
+    {
+        return itsType;
+    }
+
+    /** Get the offset of the current field's value in the payload */
+    int getOffset()
+    {
+        return itsOffset;
+    }
+
+    /** Get the length of the current field's value */
+    int getLength()
+    {
+        return itsLength;
+    }
+
+    /**
+     * Copy the value of the current field
+     */
+    byte[] copyValue()
+    {
+        return Arrays.copyOfRange(itsPayload, itsOffset,
+                                  itsOffset + itsLength);
+    }
+
+    /**
+     * Clear the value of the current field in the payload
+     */
+    void clearValue()
+    {
+        Arrays.fill(itsPayload, itsOffset, itsOffset + itsLength, (byte)0);
+    }
+}
@@ -14,8 +14,6 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
 
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
@@ -64,8 +62,9 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 	public static final String DEFAULT_CHARSET = "ISO-8859-1";
 
 	private boolean 					modified = false;
+	private int							changeCount = 0;
 	private boolean 					isLoaded = false;
-	protected Map<Integer, PwsField>	attributes = new TreeMap<Integer, PwsField>();
+	protected final PwsFieldTable		attributes = new PwsFieldTable();
 	private final Object ValidTypes[];
 
 	protected boolean ignoreFieldTypes = false;
@@ -272,7 +271,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 
 		for (Iterator<Integer> i = getFields(); i.hasNext();) {
 			Integer key = i.next();
-			attributes.put(key, getField(key));
+			attributes.put(key.intValue(), getField(key));
 		}
 	}
 
@@ -370,8 +369,8 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 	 *
 	 */
 	public void dispose () {
-		for (PwsField field : attributes.values()) {
-			field.dispose ();
+		for (int i = 0; i < attributes.size(); ++i) {
+			attributes.fieldAt(i).dispose ();
 		}
 	}
 
@@ -385,19 +384,26 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 	 * @return The value of the field.
 	 */
 	public final PwsField getField(PwsFieldType aType) {
-		return getField(Integer.valueOf(aType.getId()));
+		return getField(aType.getId());
 	}
 
 	/**
 	 * Gets the value of a field. See the subclass documentation for valid
-	 * values for <code>type</code>.
+	 * values for <code>type</code>.  A field left in the file's payload by a
+	 * lazy load is decoded and replaces the stored field, so the lookup is
+	 * made under the record's lock to be safe with concurrent readers.
 	 *
 	 * @param aType the field to get.
 	 *
 	 * @return The value of the field.
 	 */
-	public final PwsField getField(int aType) {
-		return getField(Integer.valueOf(aType));
+	public final synchronized PwsField getField(int aType) {
+		PwsField field = attributes.get(aType);
+		if (field instanceof PwsLazyFieldV3) {
+			field = ((PwsLazyFieldV3)field).decode();
+			attributes.put(aType, field);
+		}
+		return field;
 	}
 
 	/**
@@ -410,6 +416,20 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 	 * @return The value of the field.
 	 */
 	public final PwsField getField(Integer aType) {
+		return getField(aType.intValue());
+	}
+
+	/**
+	 * Gets a field as it is stored in the record.  Unlike
+	 * {@link #getField(int)}, a field left in the file's payload by a lazy
+	 * load is returned without decoding it, and the record is not changed.
+	 * Use {@link PwsField#getDecoded()} to get the field's value.
+	 *
+	 * @param aType the field to get.
+	 *
+	 * @return The stored field; null if not present.
+	 */
+	public final synchronized PwsField getStoredField(int aType) {
 		return attributes.get(aType);
 	}
 
@@ -422,7 +442,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 	 * @return An <code>Iterator</code> over the stored field codes.
 	 */
 	public Iterator<Integer> getFields() {
-		return attributes.keySet().iterator();
+		return attributes.types();
 	}
 
 	/**
@@ -436,6 +456,16 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 		return modified;
 	}
 
+	/**
+	 * Returns the number of changes made to the record's fields.  A copy of
+	 * the record's values is current while the count is unchanged.
+	 *
+	 * @return The number of changes.
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+
 	/**
 	 * Read a record from the given file.
 	 *
@@ -492,7 +522,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 		theType = value.getType();
 
 		if (ignoreFieldTypes) {
-	        attributes.put(Integer.valueOf(theType), value);
+	        attributes.put(theType, value);
 	        setModified();
 	        return;
 	    }
@@ -503,7 +533,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 				Class<? extends PwsField> cl = value.getClass();
 
 				if (cl == (((Object[]) ValidTypes[theType])[2])) {
-					attributes.put(Integer.valueOf(theType), value);
+					attributes.put(theType, value);
 					setModified();
 					return;
 				}
@@ -519,7 +549,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 				Class<? extends PwsField> cl = value.getClass();
 
 				if (cl == (((Object[]) ValidTypes[ii])[2])) {
-					attributes.put(Integer.valueOf(theType), value);
+					attributes.put(theType, value);
 					setModified();
 					return;
 				}
@@ -530,7 +560,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 			LOG.warn("Adding unknown field of type " + theType  +
 			         ", class " + value.getClass() +
 			         " - maybe a new version is needed?");
-			attributes.put (Integer.valueOf(theType), value);
+			attributes.put(theType, value);
 			setModified();
 		} else {
 			throw new IllegalArgumentException(
@@ -555,6 +585,7 @@ public abstract class PwsRecord implements Comparable<Object>, Serializable, Clo
 	 * belongs to.
 	 */
 	public void setModified() {
+		++changeCount;
 		if (isLoaded) {
 			modified = true;
 		}
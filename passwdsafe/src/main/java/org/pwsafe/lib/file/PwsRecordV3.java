@@ -9,12 +9,15 @@
 package org.pwsafe.lib.file;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.UUID;
 import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.FieldCipher;
 import org.pwsafe.lib.exception.EndOfFileException;
 
 /**
@@ -438,8 +441,41 @@ public class PwsRecordV3 extends PwsRecord
 
     static byte[] EOF_BYTES_RAW = "PWS3-EOFPWS3-EOF".getBytes();
 
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /**
+     * Largest encoded fields of a record which are kept between saves.  The
+     * sealed copy is held for as long as the record is unmodified, so with
+     * the limit a file keeps at most one extra copy of its smaller records
+     * rather than of large values such as long notes.
+     */
+    private static final int MAX_SAVED_FIELDS_LEN = 16 * 1024;
+
+    /**
+     * The fields encoded when the record was last saved, sealed with the
+     * file's field cipher, and that cipher.  They are discarded when the
+     * record is modified, and not kept for records whose fields are longer
+     * than MAX_SAVED_FIELDS_LEN.
+     */
+    private transient byte[] savedFields;
+    private transient FieldCipher savedFieldsCipher;
+
     protected class ItemV3 extends Item
     {
+        /**
+         * Read the current field from the decoder of a verified payload
+         */
+        public ItemV3(PwsPayloadDecoderV3 decoder)
+            throws EndOfFileException, IOException
+        {
+            super();
+            decoder.next();
+            rawData = NO_BYTES;
+            length = decoder.getLength();
+            type = decoder.getType();
+            data = decoder.copyValue();
+        }
+
         public ItemV3(PwsFileV3 file) throws EndOfFileException, IOException
         {
             super();
@@ -447,6 +483,10 @@ public class PwsRecordV3 extends PwsRecord
                 rawData = file.readBlock();
             }
             catch (EndOfFileException eofe) {
+                if (file.payloadVerified) {
+                    // HMAC already checked when the payload was decrypted
+                    throw eofe;
+                }
                 data = new byte[32]; // to hold closing HMAC
                 file.readBytes(data);
                 byte[] hash = file.hasher.doFinal();
@@ -466,10 +506,8 @@ public class PwsRecordV3 extends PwsRecord
                 throw new IOException(
                     "Out of memory.  Record length too long: " + length);
             }
-            byte[] remainingDataInRecord = Util.getBytes(rawData, 5, 11);
             if (length <= 11) {
-                Util.copyBytes(Util.getBytes(remainingDataInRecord, 0, length),
-                               data);
+                System.arraycopy(rawData, 5, data, 0, length);
             }
             else if (length > 11) {
                 int bytesToRead = length - 11;
@@ -480,29 +518,27 @@ public class PwsRecordV3 extends PwsRecord
                 if (bytesToRead % file.getBlockSize() != 0)
                     blocksToRead++;
 
-                byte[] remainingRecords = new byte[0];
-                for (int i = 0; i < blocksToRead; i++) {
-                    byte[] nextBlock = new byte[file.getBlockSize()];
-                    file.readDecryptedBytes(nextBlock);
-                    if (i == blocksToRead - 1) {
-                        // last block, do magic
-                        nextBlock =
-                            Util.getBytes(nextBlock, 0, bytesToRead
-                                - remainingRecords.length);
-                    }
-                    remainingRecords =
-                        Util.mergeBytes(remainingRecords, nextBlock);
-                }
-                data = Util.mergeBytes(remainingDataInRecord, remainingRecords);
+                // Read and decrypt the remaining blocks in one call
+                byte[] remainingRecords =
+                    new byte[blocksToRead * file.getBlockSize()];
+                file.readDecryptedBytes(remainingRecords);
+                System.arraycopy(rawData, 5, data, 0, 11);
+                System.arraycopy(remainingRecords, 0, data, 11, bytesToRead);
+                Arrays.fill(remainingRecords, (byte)0);
+            }
+            if (!file.payloadVerified) {
+                byte[] dataToHash = data;
+                file.hasher.digest(dataToHash);
             }
-            byte[] dataToHash = data;
-            file.hasher.digest(dataToHash);
 
         }
     }
 
     /**
      * Initialises this record by reading its data from <code>file</code>.
+     * When the file is loaded lazily, only the fields needed to identify the
+     * record and its password are decoded; the others are left in the
+     * file's payload until they are requested.
      *
      * @param file the file to read the data from.
      * @throws EndOfFileException
@@ -512,11 +548,22 @@ public class PwsRecordV3 extends PwsRecord
     protected void loadRecord(PwsFile file)
         throws EndOfFileException, IOException
     {
+        PwsFileV3 fileV3 = (PwsFileV3) file;
+        PwsPayloadDecoderV3 decoder = fileV3.payloadDecoder;
+        if ((decoder != null) && !ignoreFieldTypes && fileV3.isLazyLoad()) {
+            loadLazyRecord(fileV3, decoder);
+            return;
+        }
+
         Item item;
         PwsField itemVal = null;
 
         for (;;) {
-            item = new ItemV3((PwsFileV3) file);
+            if (decoder != null) {
+                item = new ItemV3(decoder);
+            } else {
+                item = new ItemV3(fileV3);
+            }
 
             if (item.getType() == END_OF_RECORD) {
                 // LOG.debug2( "-- END OF RECORD --" );
@@ -527,80 +574,12 @@ public class PwsRecordV3 extends PwsRecord
                 // header record has no valid types...
                 itemVal =
                     new PwsUnknownField(item.getType(), item.getByteData());
-                attributes.put(Integer.valueOf(item.getType()), itemVal);
+                attributes.put(item.getType(), itemVal);
             }
             else {
-
-                switch (item.getType()) {
-                case V3_ID_STRING:
-                    // itemVal = new PwsIntegerField( item.getType(), new byte[]
-                    // {3,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0} );
-                    itemVal = new PwsVersionField(item.getType(),
-                                                  item.getByteData());
-                    break;
-
-                case UUID:
-                    itemVal = new PwsUUIDField(item.getType(),
-                                               item.getByteData());
-                    break;
-
-                case GROUP:
-                case TITLE:
-                case USERNAME:
-                case NOTES:
-                case PASSWORD_POLICY:
-                case PASSWORD_HISTORY:
-                case URL:
-                case AUTOTYPE:
-                case RUN_COMMAND:
-                case EMAIL:
-                case OWN_PASSWORD_SYMBOLS:
-                case PASSWORD_POLICY_NAME:
-                    itemVal = new PwsStringUnicodeField(item.getType(),
-                                                        item.getByteData());
-                    break;
-
-                case PASSWORD:
-                    itemVal = new PwsPasswdUnicodeField(item.getType(),
-                                                        item.getByteData(),
-                                                        file);
+                itemVal = decodeField(item.getType(), item.getByteData(), file);
+                if (item.getType() == PASSWORD) {
                     item.clear();
-                    break;
-
-                case CREATION_TIME:
-                case PASSWORD_MOD_TIME:
-                case LAST_ACCESS_TIME:
-                case LAST_MOD_TIME:
-                    itemVal = new PwsTimeField(item.getType(),
-                                               item.getByteData());
-                    break;
-
-                case PASSWORD_LIFETIME:
-                    itemVal = new PwsTimeField(item.getType(),
-                                               item.getByteData());
-                    break;
-
-                case PASSWORD_EXPIRY_INTERVAL:
-                case ENTRY_KEYBOARD_SHORTCUT:
-                    itemVal = new PwsIntegerField(item.getType(),
-                                                  item.getByteData());
-                    break;
-
-                case DOUBLE_CLICK_ACTION:
-                case SHIFT_DOUBLE_CLICK_ACTION:
-                    itemVal = new PwsShortField(item.getType(),
-                                                item.getByteData());
-                    break;
-
-                case PROTECTED_ENTRY:
-                    itemVal = new PwsByteField(item.getType(),
-                                               item.getByteData());
-                    break;
-
-                default:
-                    itemVal = new PwsUnknownField(item.getType(),
-                                                  item.getByteData());
-                    break;
                 }
                 setField(itemVal);
             }
@@ -608,7 +587,116 @@ public class PwsRecordV3 extends PwsRecord
     }
 
     /**
-     * Saves this record to <code>file</code>.
+     * Locate the fields of this record in the file's payload.  The UUID and
+     * version fields are decoded since they identify the record, and the
+     * password is sealed and then cleared from the payload.  The other fields
+     * are decoded when first requested.
+     */
+    private void loadLazyRecord(PwsFileV3 file, PwsPayloadDecoderV3 decoder)
+        throws EndOfFileException, IOException
+    {
+        for (;;) {
+            decoder.next();
+            int type = decoder.getType();
+            switch (type) {
+            case END_OF_RECORD: {
+                return;
+            }
+            case V3_ID_STRING:
+            case UUID: {
+                setField(decodeField(type, decoder.copyValue(), file));
+                break;
+            }
+            case PASSWORD: {
+                setField(decodeField(type, decoder.copyValue(), file));
+                decoder.clearValue();
+                break;
+            }
+            default: {
+                attributes.put(type,
+                               new PwsLazyFieldV3(type, file,
+                                                  decoder.getOffset(),
+                                                  decoder.getLength()));
+                break;
+            }
+            }
+        }
+    }
+
+    /**
+     * Decode the value of a field read from a file
+     *
+     * @param type the field's type
+     * @param data the field's value, which is cleared for a password
+     * @param file the file the field was read from
+     * @return the field
+     * @throws UnsupportedEncodingException If a string field's encoding is
+     *                                      not supported
+     */
+    static PwsField decodeField(int type, byte[] data, PwsFile file)
+        throws UnsupportedEncodingException
+    {
+        switch (type) {
+        case V3_ID_STRING:
+            // itemVal = new PwsIntegerField( item.getType(), new byte[]
+            // {3,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0} );
+            return new PwsVersionField(type, data);
+
+        case UUID:
+            return new PwsUUIDField(type, data);
+
+        case GROUP:
+        case TITLE:
+        case USERNAME:
+        case NOTES:
+        case PASSWORD_POLICY:
+        case PASSWORD_HISTORY:
+        case URL:
+        case AUTOTYPE:
+        case RUN_COMMAND:
+        case EMAIL:
+        case OWN_PASSWORD_SYMBOLS:
+        case PASSWORD_POLICY_NAME: {
+            PwsStringPool pool = (file != null) ? file.getStringPool() : null;
+            if ((pool != null) && pool.isInterned(type)) {
+                return new PwsStringUnicodeField(type, pool.intern(data));
+            }
+            return new PwsStringUnicodeField(type, data);
+        }
+
+        case PASSWORD:
+            return new PwsPasswdUnicodeField(type, data, file);
+
+        case CREATION_TIME:
+        case PASSWORD_MOD_TIME:
+        case LAST_ACCESS_TIME:
+        case LAST_MOD_TIME:
+            return new PwsTimeField(type, data);
+
+        case PASSWORD_LIFETIME:
+            return new PwsTimeField(type, data);
+
+        case PASSWORD_EXPIRY_INTERVAL:
+        case ENTRY_KEYBOARD_SHORTCUT:
+            return new PwsIntegerField(type, data);
+
+        case DOUBLE_CLICK_ACTION:
+        case SHIFT_DOUBLE_CLICK_ACTION:
+            return new PwsShortField(type, data);
+
+        case PROTECTED_ENTRY:
+            return new PwsByteField(type, data);
+
+        default:
+            return new PwsUnknownField(type, data);
+        }
+    }
+
+    /**
+     * Saves this record to <code>file</code>.  The encoded fields of a
+     * record which isn't too large are kept, sealed with the file's field
+     * cipher, so a record which is not modified is written on the next save
+     * without encoding its fields again.
      *
      * @param file the file that the record will be written to.
      * @throws IOException if a write error occurs.
@@ -617,19 +705,82 @@ public class PwsRecordV3 extends PwsRecord
     @Override
     protected void saveRecord(PwsFile file) throws IOException
     {
-        for (Iterator<Integer> iter = getFields(); iter.hasNext();) {
-            int type;
-            PwsField value;
+        PwsFileV3 fileV3 = (PwsFileV3) file;
+        FieldCipher cipher = fileV3.getFieldCipher();
+        byte[] fields;
+        if ((savedFields != null) && (savedFieldsCipher == cipher)) {
+            fields = cipher.open(savedFields);
+        } else {
+            fields = encodeFields();
+            if (fields.length <= MAX_SAVED_FIELDS_LEN) {
+                savedFields = cipher.seal(fields, 0, fields.length);
+                savedFieldsCipher = cipher;
+            } else {
+                savedFields = null;
+                savedFieldsCipher = null;
+            }
+        }
 
-            type = iter.next().intValue();
-            value = getField(type);
+        try {
+            // Encrypt and write all of the record's blocks in one call
+            fileV3.writeEncryptedBytes(fields);
+
+            PwsPayloadDecoderV3 decoder = new PwsPayloadDecoderV3(
+                    fields, fields.length, fileV3.getBlockSize());
+            while (decoder.hasNext()) {
+                decoder.nextField();
+                if (decoder.getType() != END_OF_RECORD) {
+                    fileV3.hasher.digest(fields, decoder.getOffset(),
+                                         decoder.getLength());
+                }
+            }
+        } finally {
+            Arrays.fill(fields, (byte)0);
+        }
+    }
 
-            writeField(file, value);
+    /**
+     * Sets the modified flag and discards the fields encoded when the
+     * record was last saved
+     */
+    @Override
+    public void setModified()
+    {
+        savedFields = null;
+        savedFieldsCipher = null;
+        super.setModified();
+    }
 
-            PwsFileV3 fileV3 = (PwsFileV3) file;
-            fileV3.hasher.digest(value.getBytes());
+    /**
+     * Encodes the record's fields and the end of record marker.  Lazily
+     * loaded fields are encoded from the file's payload without being
+     * decoded into the record, and each field's copy of its value is zeroed
+     * once encoded.
+     */
+    private byte[] encodeFields()
+    {
+        int numFields = attributes.size() + 1;
+        int[] types = new int[numFields];
+        byte[][] values = new byte[numFields][];
+        int len = 0;
+        int idx = 0;
+        for (Iterator<Integer> iter = getFields(); iter.hasNext(); ++idx) {
+            int type = iter.next().intValue();
+            types[idx] = type;
+            values[idx] = getStoredField(type).getBytes();
+            len += encodedFieldLength(values[idx].length);
+        }
+        types[idx] = END_OF_RECORD;
+        values[idx] = NO_BYTES;
+        len += encodedFieldLength(0);
+
+        byte[] fields = new byte[len];
+        int pos = 0;
+        for (int i = 0; i < numFields; ++i) {
+            pos = encodeField(fields, pos, types[i], values[i]);
+            Arrays.fill(values[i], (byte)0);
         }
-        writeField(file, new PwsStringField(END_OF_RECORD, ""));
+        return fields;
     }
 
     /**
@@ -645,35 +796,42 @@ public class PwsRecordV3 extends PwsRecord
     protected void writeField(PwsFile file, PwsField field, int type)
         throws IOException
     {
-        byte lenBlock[];
-        byte dataBlock[];
+        byte dataBlock[] = field.getBytes();
 
-        lenBlock = new byte[5];
-        dataBlock = field.getBytes();
+        byte[] dataToWrite = new byte[encodedFieldLength(dataBlock.length)];
+        encodeField(dataToWrite, 0, type, dataBlock);
 
-        Util.putIntToByteArray(lenBlock, dataBlock.length, 0);
-        // Util.putIntToByteArray( lenBlock, type, 4 );
-        lenBlock[4] = (byte) type;
+        // Encrypt and write all of the field's blocks in one call
+        file.writeEncryptedBytes(dataToWrite);
+        Arrays.fill(dataToWrite, (byte)0);
+    }
 
-        // ensure encryption payload is equal blocks of 16
+    /**
+     * Gets the length of an encoded field, padded to a whole number of
+     * blocks of 16
+     */
+    private static int encodedFieldLength(int valueLen)
+    {
+        int calcWriteLen = 5 + valueLen;
         int bytesToPad = 0;
-        int calcWriteLen = lenBlock.length + dataBlock.length;
         if (calcWriteLen % 16 != 0) {
             bytesToPad = 16 - (calcWriteLen % 16);
         }
+        return calcWriteLen + bytesToPad;
+    }
 
+    /**
+     * Encodes a field's length, type, and value into a buffer
+     *
+     * @return the position in the buffer after the padded field
+     */
+    private static int encodeField(byte[] buf, int pos, int type, byte[] value)
+    {
         // TODOlib put random bytes here
-        dataBlock =
-            Util.cloneByteArray(dataBlock, dataBlock.length + bytesToPad);
-
-        // file.writeBytes(lenBlock);
-        byte[] dataToWrite = Util.mergeBytes(lenBlock, dataBlock);
-
-        for (int i = 0; i < (dataToWrite.length / 16); i++) {
-            byte[] nextBlock = Util.getBytes(dataToWrite, i * 16, 16);
-            file.writeEncryptedBytes(nextBlock);
-        }
-
+        Util.putIntToByteArray(buf, value.length, pos);
+        buf[pos + 4] = (byte) type;
+        System.arraycopy(value, 0, buf, pos + 5, value.length);
+        return pos + encodedFieldLength(value.length);
     }
 
     /**
@@ -11,6 +11,8 @@ package org.pwsafe.lib.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 /**
@@ -39,6 +41,18 @@ public interface PwsStorage {
                 throws IOException;
         }
 
+        /**
+         * Writer of a file's contents for a streaming save
+         */
+        public interface SaveWriter
+        {
+            /**
+             * Write the (encrypted) contents of the file to the stream.  The
+             * stream is buffered and is closed by the storage.
+             */
+            public void write(OutputStream out) throws IOException;
+        }
+
         /**
          * Open the file for loading
          * @return The header bytes
@@ -53,6 +67,14 @@ public interface PwsStorage {
          */
 	public byte[] load() throws IOException;
 
+	/**
+	 * Get a read-only view of all the bytes in the file.  The buffer may be
+	 * mapped from the file rather than copied to the heap.
+	 * @return The bytes in the file, positioned at the start of the file
+	 * @throws IOException
+	 */
+	public ByteBuffer loadBuffer() throws IOException;
+
 	/**
 	 * Close the file after being loaded
 	 * @throws IOException
@@ -76,6 +98,18 @@ public interface PwsStorage {
 	 */
 	public boolean save(byte[] data, boolean isV3);
 
+	/**
+	 * Save the file by streaming its contents to the underlying storage
+	 * provider, so the whole file need not be held in memory.  The writer is
+	 * given a stream to the new contents, which replace the original only if
+	 * the writer completes.
+	 *
+	 * @param writer The writer of the PasswordSafe file's bytes
+	 * @param isV3 Is the file version 3
+	 * @return true if save was successful
+	 */
+	public boolean save(SaveWriter writer, boolean isV3);
+
 	/**
 	 * Returns a human readable identifier of this storage that might be presented
 	 * to the user.
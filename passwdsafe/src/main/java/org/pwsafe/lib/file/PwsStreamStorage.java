@@ -11,6 +11,8 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 /**
@@ -69,6 +71,11 @@ public class PwsStreamStorage implements PwsStorage
         return itsLoadBytes;
     }
 
+    public ByteBuffer loadBuffer() throws IOException
+    {
+        return ByteBuffer.wrap(load()).asReadOnlyBuffer();
+    }
+
     public void closeAfterLoad() throws IOException
     {
         itsLoadBytes = null;
@@ -87,6 +94,26 @@ public class PwsStreamStorage implements PwsStorage
         return false;
     }
 
+    public boolean save(SaveWriter writer, boolean isV3)
+    {
+        // Can't save
+        return false;
+    }
+
+    /**
+     * Create a writer of a file's contents already in memory
+     */
+    public static SaveWriter newBytesWriter(final byte[] data)
+    {
+        return new SaveWriter()
+        {
+            public void write(OutputStream out) throws IOException
+            {
+                out.write(data);
+            }
+        };
+    }
+
     public String getIdentifier()
     {
         return itsIdentifier;
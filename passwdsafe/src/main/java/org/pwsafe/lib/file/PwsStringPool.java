@@ -0,0 +1,74 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+
+/**
+ * Pool of the values of a file's string fields which are often repeated
+ * between records, such as groups, user names, and URLs.  The records of a
+ * file share one String for each distinct value of the pooled field types,
+ * and equal values can be compared by reference.  The pool is kept until
+ * the file is disposed so fields decoded lazily share the same values.
+ */
+final class PwsStringPool
+{
+    private static final int MAX_TYPE = 0xff;
+
+    private final boolean[] itsIsInterned = new boolean[MAX_TYPE + 1];
+    private final HashMap<String, String> itsValues = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param types the field types whose values are pooled
+     */
+    PwsStringPool(int[] types)
+    {
+        for (int type: types) {
+            if ((type >= 0) && (type <= MAX_TYPE)) {
+                itsIsInterned[type] = true;
+            }
+        }
+    }
+
+    /** Get whether the values of a field type are pooled */
+    boolean isInterned(int type)
+    {
+        return (type >= 0) && (type <= MAX_TYPE) && itsIsInterned[type];
+    }
+
+    /**
+     * Decode a UTF-8 value and get the pooled string equal to it
+     */
+    String intern(byte[] value) throws UnsupportedEncodingException
+    {
+        return intern(new String(value, "UTF-8"));
+    }
+
+    /**
+     * Get the pooled string equal to a value, adding the value if not
+     * already pooled
+     */
+    synchronized String intern(String value)
+    {
+        String pooled = itsValues.get(value);
+        if (pooled == null) {
+            itsValues.put(value, value);
+            pooled = value;
+        }
+        return pooled;
+    }
+
+    /** Remove all values from the pool */
+    synchronized void clear()
+    {
+        itsValues.clear();
+    }
+}
@@ -40,14 +40,14 @@ public class PwsUnknownField extends PwsField
 	/**
 	 * Returns the field's value as a byte array.
 	 * 
-	 * @return A byte array containing the field's data.
+	 * @return A byte array containing a copy of the field's data.
 	 * 
 	 * @see org.pwsafe.lib.file.PwsField#getBytes()
 	 */
 	@Override
 	public byte[] getBytes()
 	{
-		return ((byte[]) super.getValue());
+		return Util.cloneByteArray((byte[]) super.getValue());
 	}
 
 	/**
@@ -3,6 +3,6 @@ LOCAL_PATH := $(call my-dir)
 include $(CLEAR_VARS)
 
 LOCAL_MODULE    := PasswdSafe
-LOCAL_SRC_FILES := PasswdSafe.cpp sha256.cpp Util.cpp
+LOCAL_SRC_FILES := PasswdSafe.cpp hmac_sha256.cpp sha256.cpp twofish.cpp Util.cpp
 
 include $(BUILD_SHARED_LIBRARY)
@@ -8,13 +8,232 @@
 
 #include <jni.h>
 
+#include "org_pwsafe_lib_crypto_NativeCrypto.h"
 #include "org_pwsafe_lib_crypto_SHA256Pws.h"
+#include "hmac_sha256.h"
 #include "sha256.h"
+#include "twofish.h"
 #include "Util.h"
 
+#include <cstdint>
+#include <cstring>
 #include <vector>
 #include <string>
 
+namespace
+{
+
+/** Size of the chunks in which buffers are copied to and from Java */
+const jsize CHUNK_SIZE = 4096 * TwoFish::BLOCKSIZE;
+
+/**
+ * A native buffer for copying a Java array in bounded chunks so that the
+ * array isn't pinned while it is processed.  The buffer is trashed when
+ * freed.
+ */
+class ChunkBuffer
+{
+public:
+    explicit ChunkBuffer(jsize len)
+        : itsData((len < CHUNK_SIZE) ? len : CHUNK_SIZE)
+    {
+    }
+
+    ~ChunkBuffer()
+    {
+        if (!itsData.empty()) {
+            trashMemory(itsData.data(), itsData.size());
+        }
+    }
+
+    /** Get the size of the next chunk of a buffer */
+    jsize chunkLen(jsize pos, jsize len) const
+    {
+        jsize remaining = len - pos;
+        return (remaining < CHUNK_SIZE) ? remaining : CHUNK_SIZE;
+    }
+
+    /** Copy a chunk from a Java array */
+    unsigned char* read(JNIEnv* env, jbyteArray array, jint offset, jsize len)
+    {
+        env->GetByteArrayRegion(array, offset, len,
+                                reinterpret_cast<jbyte*>(itsData.data()));
+        return itsData.data();
+    }
+
+    /** Copy a chunk to a Java array */
+    void write(JNIEnv* env, jbyteArray array, jint offset, jsize len)
+    {
+        env->SetByteArrayRegion(array, offset, len,
+                                reinterpret_cast<jbyte*>(itsData.data()));
+    }
+
+private:
+    std::vector<unsigned char> itsData;
+};
+
+/**
+ * A copy of a small Java array, such as a key or IV, which is trashed when
+ * freed
+ */
+class JniCopy
+{
+public:
+    JniCopy(JNIEnv* env, jbyteArray array)
+        : itsEnv(env), itsArray(array), itsData(env->GetArrayLength(array))
+    {
+        if (!itsData.empty()) {
+            env->GetByteArrayRegion(array, 0, itsData.size(),
+                                    reinterpret_cast<jbyte*>(itsData.data()));
+        }
+    }
+
+    ~JniCopy()
+    {
+        if (!itsData.empty()) {
+            trashMemory(itsData.data(), itsData.size());
+        }
+    }
+
+    unsigned char* get()
+    {
+        return itsData.data();
+    }
+
+    size_t size() const
+    {
+        return itsData.size();
+    }
+
+    /** Copy the data back to the Java array */
+    void writeBack()
+    {
+        if (!itsData.empty()) {
+            itsEnv->SetByteArrayRegion(
+                itsArray, 0, itsData.size(),
+                reinterpret_cast<jbyte*>(itsData.data()));
+        }
+    }
+
+private:
+    JNIEnv* itsEnv;
+    jbyteArray itsArray;
+    std::vector<unsigned char> itsData;
+};
+
+/**
+ * Get the native object for a handle passed from Java
+ */
+template <class T>
+T* fromHandle(jlong handle)
+{
+    return reinterpret_cast<T*>(static_cast<intptr_t>(handle));
+}
+
+/**
+ * Get the handle to pass to Java for a native object
+ */
+template <class T>
+jlong toHandle(T* obj)
+{
+    return static_cast<jlong>(reinterpret_cast<intptr_t>(obj));
+}
+
+/**
+ * Add the values of the fields in a decrypted V3 payload to an HMAC as the
+ * payload is decrypted chunk by chunk.  Each field is a 4-byte
+ * little-endian length and a type byte followed by the value, padded to a
+ * whole number of blocks.  The fields start on block boundaries, so the
+ * header of a field is always within one chunk while its value may span
+ * several.
+ */
+class PayloadHasherV3
+{
+public:
+    PayloadHasherV3(HmacSha256& hmac, size_t len)
+        : itsHmac(hmac), itsLen(len), itsPos(0), itsValueEnd(0),
+          itsFieldEnd(0), itsIsValid(true)
+    {
+    }
+
+    /**
+     * Hash the next chunk of the payload, whose length is a multiple of the
+     * block size
+     */
+    void update(const unsigned char* data, size_t len)
+    {
+        size_t chunkStart = itsPos;
+        size_t chunkEnd = chunkStart + len;
+        while (itsIsValid && (itsPos < chunkEnd)) {
+            if (itsPos < itsValueEnd) {
+                size_t end = (itsValueEnd < chunkEnd) ? itsValueEnd : chunkEnd;
+                itsHmac.Update(data + (itsPos - chunkStart), end - itsPos);
+                itsPos = end;
+            } else if (itsPos < itsFieldEnd) {
+                itsPos = (itsFieldEnd < chunkEnd) ? itsFieldEnd : chunkEnd;
+            } else {
+                startField(data + (itsPos - chunkStart));
+            }
+        }
+        itsPos = chunkEnd;
+    }
+
+    /**
+     * Get whether all of the field lengths fit the payload
+     */
+    bool isValid() const
+    {
+        return itsIsValid;
+    }
+
+private:
+    /**
+     * Start a field whose header is at the current position
+     */
+    void startField(const unsigned char* header)
+    {
+        if ((itsLen - itsPos) < TwoFish::BLOCKSIZE) {
+            itsIsValid = false;
+            return;
+        }
+        size_t fieldLen = static_cast<size_t>(header[0]) |
+            (static_cast<size_t>(header[1]) << 8) |
+            (static_cast<size_t>(header[2]) << 16) |
+            (static_cast<size_t>(header[3]) << 24);
+        size_t start = itsPos + 5;
+        if (fieldLen > (itsLen - start)) {
+            itsIsValid = false;
+            return;
+        }
+        itsValueEnd = start + fieldLen;
+        itsFieldEnd = itsPos + ((5 + fieldLen + TwoFish::BLOCKSIZE - 1) /
+                                TwoFish::BLOCKSIZE) * TwoFish::BLOCKSIZE;
+        itsPos = start;
+    }
+
+    HmacSha256& itsHmac;
+    size_t itsLen;
+    size_t itsPos;
+    size_t itsValueEnd;
+    size_t itsFieldEnd;
+    bool itsIsValid;
+};
+
+/**
+ * Replace a digest with the digest of itself the given number of times
+ */
+void iterateDigest(unsigned char* output, jint iter)
+{
+    for (jint i = 0; i < iter; ++i)
+    {
+        SHA256 H;
+        H.Update(output, SHA256::HASHLEN);
+        H.Final(output);
+    }
+}
+
+} // namespace
+
 JNIEXPORT jbyteArray JNICALL Java_org_pwsafe_lib_crypto_SHA256Pws_digestNNative
 (
     JNIEnv* env,
@@ -31,12 +250,7 @@ JNIEXPORT jbyteArray JNICALL Java_org_pwsafe_lib_crypto_SHA256Pws_digestNNative
     H0.Update(reinterpret_cast<unsigned char*>(pdata), plen);
     H0.Final(output);
 
-    for (jint i = 0; i < iter; ++i)
-    {
-        SHA256 H;
-        H.Update(output, SHA256::HASHLEN);
-        H.Final(output);
-    }
+    iterateDigest(output, iter);
 
     burnStack(sizeof(unsigned long) * 74);
 
@@ -48,3 +262,181 @@ JNIEXPORT jbyteArray JNICALL Java_org_pwsafe_lib_crypto_SHA256Pws_digestNNative
     return outputArray;
 }
 
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_SHA256Pws_digestIterNative
+(
+    JNIEnv* env,
+    jclass,
+    jbyteArray digest,
+    jint iter
+)
+{
+    // Work on a copy so the array isn't pinned while hashing
+    unsigned char output[SHA256::HASHLEN];
+    env->GetByteArrayRegion(digest, 0, SHA256::HASHLEN,
+                            reinterpret_cast<jbyte*>(output));
+
+    iterateDigest(output, iter);
+
+    burnStack(sizeof(unsigned long) * 74);
+
+    env->SetByteArrayRegion(digest, 0, SHA256::HASHLEN,
+                            reinterpret_cast<jbyte*>(output));
+    trashMemory(output, SHA256::HASHLEN);
+}
+
+JNIEXPORT jlong JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_twofishNew
+(
+    JNIEnv* env,
+    jclass,
+    jbyteArray key
+)
+{
+    JniCopy keyBytes(env, key);
+    TwoFish* cipher = new TwoFish();
+    if (!cipher->SetKey(keyBytes.get(), keyBytes.size())) {
+        delete cipher;
+        return 0;
+    }
+    return toHandle(cipher);
+}
+
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_twofishFree
+(
+    JNIEnv*,
+    jclass,
+    jlong ctx
+)
+{
+    TwoFish* cipher = fromHandle<TwoFish>(ctx);
+    cipher->Clear();
+    delete cipher;
+}
+
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_twofishCBC
+(
+    JNIEnv* env,
+    jclass,
+    jlong ctx,
+    jbyteArray iv,
+    jboolean encrypt,
+    jbyteArray in,
+    jint inOff,
+    jint len,
+    jbyteArray out,
+    jint outOff
+)
+{
+    const TwoFish* cipher = fromHandle<TwoFish>(ctx);
+    JniCopy ivBytes(env, iv);
+    ChunkBuffer buf(len);
+    for (jsize pos = 0; pos < len; ) {
+        jsize chunkLen = buf.chunkLen(pos, len);
+        unsigned char* data = buf.read(env, in, inOff + pos, chunkLen);
+        if (encrypt) {
+            cipher->EncryptCBC(ivBytes.get(), data, data, chunkLen);
+        } else {
+            cipher->DecryptCBC(ivBytes.get(), data, data, chunkLen);
+        }
+        buf.write(env, out, outOff + pos, chunkLen);
+        pos += chunkLen;
+    }
+    ivBytes.writeBack();
+}
+
+JNIEXPORT jlong JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacNew
+(
+    JNIEnv* env,
+    jclass,
+    jbyteArray key
+)
+{
+    JniCopy keyBytes(env, key);
+    HmacSha256* hmac = new HmacSha256();
+    hmac->Init(keyBytes.get(), keyBytes.size());
+    return toHandle(hmac);
+}
+
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacFree
+(
+    JNIEnv*,
+    jclass,
+    jlong ctx
+)
+{
+    HmacSha256* hmac = fromHandle<HmacSha256>(ctx);
+    hmac->Clear();
+    delete hmac;
+}
+
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacUpdate
+(
+    JNIEnv* env,
+    jclass,
+    jlong ctx,
+    jbyteArray in,
+    jint inOff,
+    jint len
+)
+{
+    HmacSha256* hmac = fromHandle<HmacSha256>(ctx);
+    ChunkBuffer buf(len);
+    for (jsize pos = 0; pos < len; ) {
+        jsize chunkLen = buf.chunkLen(pos, len);
+        hmac->Update(buf.read(env, in, inOff + pos, chunkLen), chunkLen);
+        pos += chunkLen;
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacFinal
+(
+    JNIEnv* env,
+    jclass,
+    jlong ctx,
+    jbyteArray digest
+)
+{
+    HmacSha256* hmac = fromHandle<HmacSha256>(ctx);
+    unsigned char output[HmacSha256::HASHLEN];
+    hmac->Final(output);
+    env->SetByteArrayRegion(digest, 0, HmacSha256::HASHLEN,
+                            reinterpret_cast<jbyte*>(output));
+    trashMemory(output, sizeof(output));
+}
+
+JNIEXPORT jboolean JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_decryptPayloadV3
+(
+    JNIEnv* env,
+    jclass,
+    jlong cipherCtx,
+    jbyteArray iv,
+    jlong hmacCtx,
+    jbyteArray in,
+    jint inOff,
+    jint len,
+    jbyteArray out,
+    jint outOff,
+    jbyteArray digest
+)
+{
+    const TwoFish* cipher = fromHandle<TwoFish>(cipherCtx);
+    HmacSha256* hmac = fromHandle<HmacSha256>(hmacCtx);
+    JniCopy ivBytes(env, iv);
+    PayloadHasherV3 hasher(*hmac, len);
+    ChunkBuffer buf(len);
+    for (jsize pos = 0; pos < len; ) {
+        jsize chunkLen = buf.chunkLen(pos, len);
+        unsigned char* data = buf.read(env, in, inOff + pos, chunkLen);
+        cipher->DecryptCBC(ivBytes.get(), data, data, chunkLen);
+        hasher.update(data, chunkLen);
+        buf.write(env, out, outOff + pos, chunkLen);
+        pos += chunkLen;
+    }
+    ivBytes.writeBack();
+
+    unsigned char output[HmacSha256::HASHLEN];
+    hmac->Final(output);
+    env->SetByteArrayRegion(digest, 0, HmacSha256::HASHLEN,
+                            reinterpret_cast<jbyte*>(output));
+    trashMemory(output, sizeof(output));
+    return hasher.isValid() ? JNI_TRUE : JNI_FALSE;
+}
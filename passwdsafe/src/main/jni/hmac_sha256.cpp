@@ -0,0 +1,70 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+// hmac_sha256.cpp
+//-----------------------------------------------------------------------------
+#include "hmac_sha256.h"
+#include "Util.h"
+
+#include <cstring>
+
+void HmacSha256::Init(const unsigned char *key, size_t keylen)
+{
+  unsigned char k0[SHA256::BLOCKSIZE];
+  std::memset(k0, 0, sizeof(k0));
+  if (keylen > sizeof(k0)) {
+    SHA256 keyHash;
+    keyHash.Update(key, keylen);
+    keyHash.Final(k0);
+  } else {
+    std::memcpy(k0, key, keylen);
+  }
+
+  unsigned char pad[SHA256::BLOCKSIZE];
+  for (size_t i = 0; i < sizeof(pad); ++i) {
+    pad[i] = k0[i] ^ 0x36;
+  }
+  itsInnerInit = SHA256();
+  itsInnerInit.Update(pad, sizeof(pad));
+
+  for (size_t i = 0; i < sizeof(pad); ++i) {
+    pad[i] = k0[i] ^ 0x5c;
+  }
+  itsOuterInit = SHA256();
+  itsOuterInit.Update(pad, sizeof(pad));
+
+  itsInner = itsInnerInit;
+  trashMemory(k0, sizeof(k0));
+  trashMemory(pad, sizeof(pad));
+}
+
+void HmacSha256::Update(const unsigned char *in, size_t inlen)
+{
+  itsInner.Update(in, inlen);
+}
+
+void HmacSha256::Final(unsigned char digest[HASHLEN])
+{
+  unsigned char innerHash[HASHLEN];
+  itsInner.Final(innerHash);
+
+  SHA256 outer(itsOuterInit);
+  outer.Update(innerHash, sizeof(innerHash));
+  outer.Final(digest);
+
+  itsInner = itsInnerInit;
+  trashMemory(innerHash, sizeof(innerHash));
+}
+
+void HmacSha256::Clear()
+{
+  trashMemory(this, sizeof(*this));
+}
+//-----------------------------------------------------------------------------
+// Local variables:
+// mode: c++
+// End:
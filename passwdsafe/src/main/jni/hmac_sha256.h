@@ -0,0 +1,40 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+// hmac_sha256.h
+// HMAC-SHA256 which keeps its keyed initial states so that it can be
+// reused after Final.
+//-----------------------------------------------------------------------------
+#ifndef __HMAC_SHA256_H
+#define __HMAC_SHA256_H
+
+#include "sha256.h"
+
+class HmacSha256
+{
+public:
+  enum {HASHLEN = SHA256::HASHLEN};
+
+  void Init(const unsigned char *key, size_t keylen);
+  void Update(const unsigned char *in, size_t inlen);
+
+  /// Compute the MAC and reset for a new message with the same key
+  void Final(unsigned char digest[HASHLEN]);
+
+  void Clear();
+
+private:
+  SHA256 itsInner;
+  SHA256 itsInnerInit;
+  SHA256 itsOuterInit;
+};
+
+#endif /* __HMAC_SHA256_H */
+//-----------------------------------------------------------------------------
+// Local variables:
+// mode: c++
+// End:
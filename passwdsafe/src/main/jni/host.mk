@@ -0,0 +1,25 @@
+#
+# Build the JNI library as a host shared library so the native code can be
+# tested and benchmarked on a desktop JVM:
+#
+#   make -f host.mk [OUT=dir] [JAVA_HOME=dir]
+#
+JAVA_HOME ?= $(shell dirname $$(dirname $$(readlink -f $$(which javac))))
+OUT ?= ../../../build/jni-host
+
+SRCS := PasswdSafe.cpp hmac_sha256.cpp sha256.cpp twofish.cpp Util.cpp
+HDRS := $(wildcard *.h)
+
+CXXFLAGS += -std=c++1y -W -Wall -Werror -O2 -fPIC
+CPPFLAGS += -I$(JAVA_HOME)/include -I$(JAVA_HOME)/include/linux
+
+all: $(OUT)/libPasswdSafe.so
+
+$(OUT)/libPasswdSafe.so: $(SRCS) $(HDRS)
+	mkdir -p $(OUT)
+	$(CXX) $(CPPFLAGS) $(CXXFLAGS) -shared -o $@ $(SRCS)
+
+clean:
+	rm -f $(OUT)/libPasswdSafe.so
+
+.PHONY: all clean
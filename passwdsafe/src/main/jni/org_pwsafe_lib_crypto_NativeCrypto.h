@@ -0,0 +1,79 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class org_pwsafe_lib_crypto_NativeCrypto */
+
+#ifndef _Included_org_pwsafe_lib_crypto_NativeCrypto
+#define _Included_org_pwsafe_lib_crypto_NativeCrypto
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef org_pwsafe_lib_crypto_NativeCrypto_HMAC_LEN
+#define org_pwsafe_lib_crypto_NativeCrypto_HMAC_LEN 32L
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    twofishNew
+ * Signature: ([B)J
+ */
+JNIEXPORT jlong JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_twofishNew
+  (JNIEnv *, jclass, jbyteArray);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    twofishFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_twofishFree
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    twofishCBC
+ * Signature: (J[BZ[BII[BI)V
+ */
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_twofishCBC
+  (JNIEnv *, jclass, jlong, jbyteArray, jboolean, jbyteArray, jint, jint, jbyteArray, jint);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    hmacNew
+ * Signature: ([B)J
+ */
+JNIEXPORT jlong JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacNew
+  (JNIEnv *, jclass, jbyteArray);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    hmacFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacFree
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    hmacUpdate
+ * Signature: (J[BII)V
+ */
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacUpdate
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    hmacFinal
+ * Signature: (J[B)V
+ */
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_hmacFinal
+  (JNIEnv *, jclass, jlong, jbyteArray);
+
+/*
+ * Class:     org_pwsafe_lib_crypto_NativeCrypto
+ * Method:    decryptPayloadV3
+ * Signature: (J[BJ[BII[BI[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_pwsafe_lib_crypto_NativeCrypto_decryptPayloadV3
+  (JNIEnv *, jclass, jlong, jbyteArray, jlong, jbyteArray, jint, jint, jbyteArray, jint, jbyteArray);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
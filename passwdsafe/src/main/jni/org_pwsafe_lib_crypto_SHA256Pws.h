@@ -15,6 +15,14 @@ extern "C" {
 JNIEXPORT jbyteArray JNICALL Java_org_pwsafe_lib_crypto_SHA256Pws_digestNNative
   (JNIEnv *, jclass, jbyteArray, jint);
 
+/*
+ * Class:     org_pwsafe_lib_crypto_SHA256Pws
+ * Method:    digestIterNative
+ * Signature: ([BI)V
+ */
+JNIEXPORT void JNICALL Java_org_pwsafe_lib_crypto_SHA256Pws_digestIterNative
+  (JNIEnv *, jclass, jbyteArray, jint);
+
 #ifdef __cplusplus
 }
 #endif
@@ -13,6 +13,8 @@
 #include "PwsPlatform.h"
 #include "Util.h"
 
+#include <cstring>
+
 //#define LTC_CLEAN_STACK
 
 /* hashsize = 32, blocksize = 64 */
@@ -0,0 +1,339 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+// twofish.cpp
+// Twofish block cipher, per the specification by Schneier et al.  The q
+// permutations are built from their 4-bit tables and the MDS multiplication
+// is folded into four key-dependent 256-entry tables at key setup.
+//-----------------------------------------------------------------------------
+#include "twofish.h"
+#include "Util.h"
+
+#include <cstring>
+
+namespace
+{
+
+/// 4-bit tables t0..t3 for the q0 and q1 permutations
+const unsigned char QT[2][4][16] = {
+  {
+    {0x8, 0x1, 0x7, 0xD, 0x6, 0xF, 0x3, 0x2,
+     0x0, 0xB, 0x5, 0x9, 0xE, 0xC, 0xA, 0x4},
+    {0xE, 0xC, 0xB, 0x8, 0x1, 0x2, 0x3, 0x5,
+     0xF, 0x4, 0xA, 0x6, 0x7, 0x0, 0x9, 0xD},
+    {0xB, 0xA, 0x5, 0xE, 0x6, 0xD, 0x9, 0x0,
+     0xC, 0x8, 0xF, 0x3, 0x2, 0x4, 0x7, 0x1},
+    {0xD, 0x7, 0xF, 0x4, 0x1, 0x2, 0x6, 0xE,
+     0x9, 0xB, 0x3, 0x0, 0x8, 0x5, 0xC, 0xA}
+  },
+  {
+    {0x2, 0x8, 0xB, 0xD, 0xF, 0x7, 0x6, 0xE,
+     0x3, 0x1, 0x9, 0x4, 0x0, 0xA, 0xC, 0x5},
+    {0x1, 0xE, 0x2, 0xB, 0x4, 0xC, 0x3, 0x7,
+     0x6, 0xD, 0xA, 0x5, 0xF, 0x9, 0x0, 0x8},
+    {0x4, 0xC, 0x7, 0x5, 0x1, 0x6, 0x9, 0xA,
+     0x0, 0xE, 0xD, 0x8, 0x2, 0xB, 0x3, 0xF},
+    {0xB, 0x9, 0x5, 0x1, 0xC, 0x3, 0xD, 0xE,
+     0x6, 0x4, 0x7, 0xF, 0x2, 0x0, 0x8, 0xA}
+  }
+};
+
+/// MDS matrix over GF(2^8) mod x^8+x^6+x^5+x^3+1
+const unsigned char MDS[4][4] = {
+  {0x01, 0xEF, 0x5B, 0x5B},
+  {0x5B, 0xEF, 0xEF, 0x01},
+  {0xEF, 0x5B, 0x01, 0xEF},
+  {0xEF, 0x01, 0xEF, 0x5B}
+};
+const unsigned MDS_POLY = 0x169;
+
+/// Reed-Solomon matrix over GF(2^8) mod x^8+x^6+x^3+x^2+1
+const unsigned char RS[4][8] = {
+  {0x01, 0xA4, 0x55, 0x87, 0x5A, 0x58, 0xDB, 0x9E},
+  {0xA4, 0x56, 0x82, 0xF3, 0x1E, 0xC6, 0x68, 0xE5},
+  {0x02, 0xA1, 0xFC, 0xC1, 0x47, 0xAE, 0x3D, 0x19},
+  {0xA4, 0x55, 0x87, 0x5A, 0x58, 0xDB, 0x9E, 0x03}
+};
+const unsigned RS_POLY = 0x14D;
+
+/// The q permutation applied to each byte of h() before the xor with key
+/// words l3, l2, l1 and l0, and the final permutation before the MDS
+const int QSEL[4][5] = {
+  {1, 1, 0, 0, 1},
+  {0, 1, 1, 0, 0},
+  {0, 0, 0, 1, 1},
+  {1, 0, 1, 1, 0}
+};
+
+inline uint32_t rol(uint32_t x, int n)
+{
+  return (x << n) | (x >> (32 - n));
+}
+
+inline uint32_t ror(uint32_t x, int n)
+{
+  return (x >> n) | (x << (32 - n));
+}
+
+inline uint32_t load32l(const unsigned char *p)
+{
+  return static_cast<uint32_t>(p[0]) |
+      (static_cast<uint32_t>(p[1]) << 8) |
+      (static_cast<uint32_t>(p[2]) << 16) |
+      (static_cast<uint32_t>(p[3]) << 24);
+}
+
+inline void store32l(uint32_t x, unsigned char *p)
+{
+  p[0] = static_cast<unsigned char>(x);
+  p[1] = static_cast<unsigned char>(x >> 8);
+  p[2] = static_cast<unsigned char>(x >> 16);
+  p[3] = static_cast<unsigned char>(x >> 24);
+}
+
+inline unsigned char byteOf(uint32_t x, int n)
+{
+  return static_cast<unsigned char>(x >> (8 * n));
+}
+
+unsigned gfMul(unsigned a, unsigned b, unsigned poly)
+{
+  unsigned r = 0;
+  while (b != 0) {
+    if (b & 1) {
+      r ^= a;
+    }
+    a <<= 1;
+    if (a & 0x100) {
+      a ^= poly;
+    }
+    b >>= 1;
+  }
+  return r;
+}
+
+/// The q0 and q1 byte permutations
+class QTables
+{
+public:
+  QTables()
+  {
+    for (int q = 0; q < 2; ++q) {
+      for (unsigned x = 0; x < 256; ++x) {
+        itsQ[q][x] = Permute(QT[q], x);
+      }
+    }
+  }
+
+  unsigned char Q(int q, unsigned char x) const
+  {
+    return itsQ[q][x];
+  }
+
+private:
+  static unsigned ror4(unsigned x)
+  {
+    return ((x >> 1) | (x << 3)) & 0xF;
+  }
+
+  static unsigned char Permute(const unsigned char t[4][16], unsigned x)
+  {
+    unsigned a0 = x >> 4;
+    unsigned b0 = x & 0xF;
+    unsigned a1 = a0 ^ b0;
+    unsigned b1 = a0 ^ ror4(b0) ^ ((8 * a0) & 0xF);
+    unsigned a2 = t[0][a1];
+    unsigned b2 = t[1][b1];
+    unsigned a3 = a2 ^ b2;
+    unsigned b3 = a2 ^ ror4(b2) ^ ((8 * a2) & 0xF);
+    unsigned a4 = t[2][a3];
+    unsigned b4 = t[3][b3];
+    return static_cast<unsigned char>((b4 << 4) | a4);
+  }
+
+  unsigned char itsQ[2][256];
+};
+
+const QTables &qTables()
+{
+  static const QTables tables;
+  return tables;
+}
+
+/// Multiply a byte by column col of the MDS matrix
+uint32_t mdsColumn(int col, unsigned char x)
+{
+  uint32_t r = 0;
+  for (int row = 0; row < 4; ++row) {
+    r |= gfMul(MDS[row][col], x, MDS_POLY) << (8 * row);
+  }
+  return r;
+}
+
+/// Run byte pos through the q permutations of h() with the key words
+unsigned char hByte(const QTables &q, int pos, unsigned char y,
+                    const uint32_t *l, int k)
+{
+  for (int stage = 4 - k; stage < 4; ++stage) {
+    y = q.Q(QSEL[pos][stage], y) ^ byteOf(l[3 - stage], pos);
+  }
+  return q.Q(QSEL[pos][4], y);
+}
+
+/// The h() function of the key schedule
+uint32_t h(const QTables &q, uint32_t x, const uint32_t *l, int k)
+{
+  uint32_t r = 0;
+  for (int pos = 0; pos < 4; ++pos) {
+    r ^= mdsColumn(pos, hByte(q, pos, byteOf(x, pos), l, k));
+  }
+  return r;
+}
+
+} // namespace
+
+bool TwoFish::SetKey(const unsigned char *key, size_t keylen)
+{
+  if ((keylen != 16) && (keylen != 24) && (keylen != 32)) {
+    return false;
+  }
+  const QTables &q = qTables();
+  int k = static_cast<int>(keylen / 8);
+  uint32_t me[4], mo[4], sk[4];
+
+  for (int i = 0; i < k; ++i) {
+    me[i] = load32l(key + 8 * i);
+    mo[i] = load32l(key + 8 * i + 4);
+
+    // S-box key words, listed in reverse order
+    uint32_t s = 0;
+    for (int row = 0; row < 4; ++row) {
+      unsigned v = 0;
+      for (int col = 0; col < 8; ++col) {
+        v ^= gfMul(RS[row][col], key[8 * i + col], RS_POLY);
+      }
+      s |= v << (8 * row);
+    }
+    sk[k - 1 - i] = s;
+  }
+
+  const uint32_t rho = 0x01010101;
+  for (uint32_t i = 0; i < 20; ++i) {
+    uint32_t a = h(q, 2 * i * rho, me, k);
+    uint32_t b = rol(h(q, (2 * i + 1) * rho, mo, k), 8);
+    K[2 * i] = a + b;
+    K[2 * i + 1] = rol(a + 2 * b, 9);
+  }
+
+  for (int pos = 0; pos < 4; ++pos) {
+    for (unsigned x = 0; x < 256; ++x) {
+      S[pos][x] = mdsColumn(pos, hByte(q, pos, static_cast<unsigned char>(x),
+                                       sk, k));
+    }
+  }
+
+  trashMemory(me, sizeof(me));
+  trashMemory(mo, sizeof(mo));
+  trashMemory(sk, sizeof(sk));
+  return true;
+}
+
+inline uint32_t TwoFish::G(uint32_t x) const
+{
+  return S[0][byteOf(x, 0)] ^ S[1][byteOf(x, 1)] ^
+      S[2][byteOf(x, 2)] ^ S[3][byteOf(x, 3)];
+}
+
+void TwoFish::Encrypt(const unsigned char *in, unsigned char *out) const
+{
+  uint32_t r0 = load32l(in) ^ K[0];
+  uint32_t r1 = load32l(in + 4) ^ K[1];
+  uint32_t r2 = load32l(in + 8) ^ K[2];
+  uint32_t r3 = load32l(in + 12) ^ K[3];
+
+  for (int round = 0; round < 16; round += 2) {
+    uint32_t t0 = G(r0);
+    uint32_t t1 = G(rol(r1, 8));
+    r2 = ror(r2 ^ (t0 + t1 + K[2 * round + 8]), 1);
+    r3 = rol(r3, 1) ^ (t0 + 2 * t1 + K[2 * round + 9]);
+
+    t0 = G(r2);
+    t1 = G(rol(r3, 8));
+    r0 = ror(r0 ^ (t0 + t1 + K[2 * round + 10]), 1);
+    r1 = rol(r1, 1) ^ (t0 + 2 * t1 + K[2 * round + 11]);
+  }
+
+  store32l(r2 ^ K[4], out);
+  store32l(r3 ^ K[5], out + 4);
+  store32l(r0 ^ K[6], out + 8);
+  store32l(r1 ^ K[7], out + 12);
+}
+
+void TwoFish::Decrypt(const unsigned char *in, unsigned char *out) const
+{
+  uint32_t r2 = load32l(in) ^ K[4];
+  uint32_t r3 = load32l(in + 4) ^ K[5];
+  uint32_t r0 = load32l(in + 8) ^ K[6];
+  uint32_t r1 = load32l(in + 12) ^ K[7];
+
+  for (int round = 14; round >= 0; round -= 2) {
+    uint32_t t0 = G(r2);
+    uint32_t t1 = G(rol(r3, 8));
+    r0 = rol(r0, 1) ^ (t0 + t1 + K[2 * round + 10]);
+    r1 = ror(r1 ^ (t0 + 2 * t1 + K[2 * round + 11]), 1);
+
+    t0 = G(r0);
+    t1 = G(rol(r1, 8));
+    r2 = rol(r2, 1) ^ (t0 + t1 + K[2 * round + 8]);
+    r3 = ror(r3 ^ (t0 + 2 * t1 + K[2 * round + 9]), 1);
+  }
+
+  store32l(r0 ^ K[0], out);
+  store32l(r1 ^ K[1], out + 4);
+  store32l(r2 ^ K[2], out + 8);
+  store32l(r3 ^ K[3], out + 12);
+}
+
+void TwoFish::EncryptCBC(unsigned char iv[BLOCKSIZE], const unsigned char *in,
+                         unsigned char *out, size_t len) const
+{
+  unsigned char block[BLOCKSIZE];
+  for (size_t pos = 0; pos + BLOCKSIZE <= len; pos += BLOCKSIZE) {
+    for (int i = 0; i < BLOCKSIZE; ++i) {
+      block[i] = in[pos + i] ^ iv[i];
+    }
+    Encrypt(block, iv);
+    std::memcpy(out + pos, iv, BLOCKSIZE);
+  }
+  trashMemory(block, sizeof(block));
+}
+
+void TwoFish::DecryptCBC(unsigned char iv[BLOCKSIZE], const unsigned char *in,
+                         unsigned char *out, size_t len) const
+{
+  unsigned char cipher[BLOCKSIZE];
+  unsigned char plain[BLOCKSIZE];
+  for (size_t pos = 0; pos + BLOCKSIZE <= len; pos += BLOCKSIZE) {
+    std::memcpy(cipher, in + pos, BLOCKSIZE);
+    Decrypt(cipher, plain);
+    for (int i = 0; i < BLOCKSIZE; ++i) {
+      out[pos + i] = plain[i] ^ iv[i];
+    }
+    std::memcpy(iv, cipher, BLOCKSIZE);
+  }
+  trashMemory(plain, sizeof(plain));
+}
+
+void TwoFish::Clear()
+{
+  trashMemory(K, sizeof(K));
+  trashMemory(S, sizeof(S));
+}
+//-----------------------------------------------------------------------------
+// Local variables:
+// mode: c++
+// End:
@@ -0,0 +1,48 @@
+/*
+ * Copyright (©) 2016 Jeff Harris <jefftharris@gmail.com>
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+// twofish.h
+// Twofish block cipher with key-dependent S-box tables and CBC helpers.
+//-----------------------------------------------------------------------------
+#ifndef __TWOFISH_H
+#define __TWOFISH_H
+
+#include <cstddef>
+#include <cstdint>
+
+class TwoFish
+{
+public:
+  enum {BLOCKSIZE = 16};
+
+  /// Set the key, which must be 16, 24 or 32 bytes.  Returns false if the
+  /// key length is invalid.
+  bool SetKey(const unsigned char *key, size_t keylen);
+  void Encrypt(const unsigned char *in, unsigned char *out) const;
+  void Decrypt(const unsigned char *in, unsigned char *out) const;
+
+  /// CBC encrypt or decrypt len bytes, a multiple of BLOCKSIZE.  The input
+  /// and output may overlap exactly.  The iv is updated for the next call.
+  void EncryptCBC(unsigned char iv[BLOCKSIZE], const unsigned char *in,
+                  unsigned char *out, size_t len) const;
+  void DecryptCBC(unsigned char iv[BLOCKSIZE], const unsigned char *in,
+                  unsigned char *out, size_t len) const;
+
+  void Clear();
+
+private:
+  uint32_t G(uint32_t x) const;
+
+  uint32_t K[40];
+  uint32_t S[4][256];
+};
+
+#endif /* __TWOFISH_H */
+//-----------------------------------------------------------------------------
+// Local variables:
+// mode: c++
+// End: